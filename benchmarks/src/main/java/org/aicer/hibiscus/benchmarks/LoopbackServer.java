@@ -0,0 +1,132 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * In-process HTTP server bound to the loopback interface on an ephemeral port
+ *
+ * Serves fixed bodies so that round trip benchmarks measure the client rather than the network:
+ * /small returns a short JSON document, /large returns 64 KB and /echo returns the request body.
+ *
+ */
+public class LoopbackServer {
+
+    public static final int LARGE_BODY_SIZE = 64 * 1024;
+
+    private static final byte[] SMALL_BODY = "{\"id\":42,\"name\":\"hibiscus\",\"tags\":[\"http\",\"client\"],\"active\":true}".getBytes();
+
+    private static final byte[] LARGE_BODY = new byte[LARGE_BODY_SIZE];
+
+    static {
+        Arrays.fill(LARGE_BODY, (byte) 'x');
+    }
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    public LoopbackServer() throws IOException {
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 128);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+
+        server.createContext("/small", new FixedBodyHandler(SMALL_BODY));
+        server.createContext("/large", new FixedBodyHandler(LARGE_BODY));
+        server.createContext("/echo", new EchoHandler());
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Returns the base URL of the server, without a trailing slash
+     *
+     * @return
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static void send(final HttpExchange exchange, final byte[] body) throws IOException {
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+
+        final OutputStream out = exchange.getResponseBody();
+
+        out.write(body);
+        out.close();
+    }
+
+    private static final class FixedBodyHandler implements HttpHandler {
+
+        private final byte[] body;
+
+        FixedBodyHandler(final byte[] body) {
+            this.body = body;
+        }
+
+        public void handle(final HttpExchange exchange) throws IOException {
+
+            final InputStream in = exchange.getRequestBody();
+
+            while (in.read() != -1) {
+                /* Drains the request so that the connection can be reused */
+            }
+
+            send(exchange, body);
+        }
+    }
+
+    private static final class EchoHandler implements HttpHandler {
+
+        public void handle(final HttpExchange exchange) throws IOException {
+
+            final InputStream in = exchange.getRequestBody();
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+
+            int count;
+
+            while ((count = in.read(buffer)) != -1) {
+                body.write(buffer, 0, count);
+            }
+
+            send(exchange, body.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.http.client.HttpClient;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
+import org.aicer.hibiscus.http.client.Response;
+import org.aicer.hibiscus.http.workers.HttpWorkerAbstract;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Per-request work done before a request is sent and after its status line is received
+ *
+ * No network traffic takes place in these benchmarks
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    private HttpTransport transport;
+
+    private HttpClient formClient;
+
+    private HttpClient headerClient;
+
+    private Request request;
+
+    @Setup
+    public void setUp() throws HibiscusException {
+
+        transport = new HttpTransport();
+
+        formClient = new HttpClient(transport).setRawUrl("http://127.0.0.1/submit").setRequestMethod(HttpClient.POST);
+
+        for (int i = 0; i < 10; i++) {
+            formClient.addNameValuePair("field" + i, "value " + i + " & more");
+        }
+
+        headerClient = new HttpClient(transport).setRawUrl("http://127.0.0.1/resource?page=1&size=20");
+
+        for (int i = 0; i < 10; i++) {
+            headerClient.addHeader("X-Header-" + i, "value-" + i);
+        }
+
+        request = headerClient.toRequest();
+    }
+
+    @TearDown
+    public void tearDown() {
+        transport.close();
+    }
+
+    @Benchmark
+    public Response setStatusLine() {
+        return new Response().setStatusLine("HTTP/1.1 200 OK");
+    }
+
+    @Benchmark
+    public String nameValuePairsAsString() {
+        return formClient.getRequestBody();
+    }
+
+    @Benchmark
+    public Request toRequest() throws HibiscusException {
+        return headerClient.toRequest();
+    }
+
+    @Benchmark
+    public HttpWorkerAbstract prepare() throws HibiscusException {
+
+        final HttpWorkerAbstract worker = HttpWorkerAbstract.getWorkerStrategy(request, transport);
+
+        worker.prepare();
+
+        return worker;
+    }
+}
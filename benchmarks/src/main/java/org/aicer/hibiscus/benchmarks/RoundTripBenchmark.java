@@ -0,0 +1,102 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.http.client.HttpClient;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
+import org.aicer.hibiscus.http.client.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Full execute() round trips against an in-process loopback server
+ *
+ * Run with -t to measure the shared transport under concurrency
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+
+    private LoopbackServer server;
+
+    private HttpTransport transport;
+
+    private Request smallRequest;
+
+    private Request largeRequest;
+
+    private Request echoRequest;
+
+    @Setup
+    public void setUp() throws IOException, HibiscusException {
+
+        server = new LoopbackServer();
+        transport = new HttpTransport();
+
+        smallRequest = new Request.Builder().setRawUrl(server.getBaseUrl() + "/small").build();
+        largeRequest = new Request.Builder().setRawUrl(server.getBaseUrl() + "/large").build();
+        echoRequest = new Request.Builder().setRequestMethod(HttpClient.POST)
+                .setRawUrl(server.getBaseUrl() + "/echo").setRequestBody("{\"query\":\"hibiscus\",\"limit\":10}").build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        transport.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public String getSmall() throws HibiscusException {
+        return transport.execute(smallRequest).getResponseBody();
+    }
+
+    @Benchmark
+    public byte[] getLarge() throws HibiscusException {
+        return transport.execute(largeRequest).getResponseBodyBytes();
+    }
+
+    @Benchmark
+    public String postEcho() throws HibiscusException {
+        return transport.execute(echoRequest).getResponseBody();
+    }
+
+    @Benchmark
+    public Response clientExecute() throws HibiscusException {
+        return new HttpClient(transport).setRawUrl(server.getBaseUrl() + "/small").execute().getLastResponse();
+    }
+}
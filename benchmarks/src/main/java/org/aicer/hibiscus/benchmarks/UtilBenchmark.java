@@ -0,0 +1,93 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.util.HashGenerator;
+import org.aicer.hibiscus.util.StreamUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Hashing and stream helpers used on every request
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Param({"1024", "65536"})
+    public int bodySize;
+
+    private byte[] body;
+
+    private String hashInput;
+
+    @Setup
+    public void setUp() {
+
+        final StringBuilder text = new StringBuilder(bodySize);
+
+        while (text.length() < bodySize) {
+            text.append("{\"line\":").append(text.length()).append(",\"value\":\"hibiscus\"}\n");
+        }
+
+        body = text.substring(0, bodySize).getBytes(UTF_8);
+        hashInput = "GET http://127.0.0.1/resource?page=1 " + System.nanoTime();
+    }
+
+    @Benchmark
+    public String md5Hash() throws HibiscusException {
+        return HashGenerator.getMD5Hash(hashInput);
+    }
+
+    @Benchmark
+    public String inputStreamToString() throws HibiscusException {
+        return StreamUtil.inputStreamToString(new ByteArrayInputStream(body), true);
+    }
+
+    @Benchmark
+    public byte[] inputStreamToByteArray() throws HibiscusException {
+        return StreamUtil.inputStreamToByteArray(new ByteArrayInputStream(body), body.length);
+    }
+
+    @Benchmark
+    public String decode() throws HibiscusException {
+        return StreamUtil.decode(body, UTF_8);
+    }
+}
@@ -1,6 +1,7 @@
 package org.aicer.hibiscus.examples;
 
 import org.aicer.hibiscus.http.client.HttpClient;
+import org.aicer.hibiscus.http.client.JsonResponseBodyHandler;
 import org.aicer.hibiscus.http.client.Response;
 import org.apache.http.Header;
 
@@ -20,14 +21,11 @@ public class ExampleGetRequest {
 
         client.setRawUrl(elasticSearchStatusURL);
 
-        client.execute();
+        /* Streams the body into the object without reading it into a String first */
+        JsonObject objectResponse = client.executeJson(new JsonResponseBodyHandler<JsonObject>(gson, JsonObject.class));
 
         Response response = client.getLastResponse();
 
-        String jsonString = response.getResponseBody();
-
-        JsonObject objectResponse = gson.fromJson(jsonString, JsonObject.class);
-
         System.out.println(objectResponse.get("ok"));
 
         for (Header responseHeader : response.getResponseHeaders()) {
@@ -35,6 +33,6 @@ public class ExampleGetRequest {
             System.out.println(responseHeader.getName() + ": " + responseHeader.getValue());
         }
 
-        System.out.println("ElasticSearch Raw Response: " + jsonString);
+        System.out.println("ElasticSearch Response: " + objectResponse);
     }
 }
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.exception;
+
+/**
+ * Thrown instead of sending a request while the circuit breaker of its host is open
+ */
+public class CircuitBreakerOpenException extends HibiscusException {
+
+    private static final long serialVersionUID = 0L;
+
+    private final String circuitKey;
+
+    private final long remainingOpenMillis;
+
+    public CircuitBreakerOpenException(String circuitKey, long remainingOpenMillis) {
+        super("The circuit breaker for " + circuitKey + " is open, retry in " + remainingOpenMillis + "ms");
+        this.circuitKey = circuitKey;
+        this.remainingOpenMillis = remainingOpenMillis;
+    }
+
+    /**
+     * Returns the scheme, host and port the circuit breaker protects
+     *
+     * @return
+     */
+    public String getCircuitKey() {
+        return circuitKey;
+    }
+
+    /**
+     * Returns how long the circuit breaker stays open before letting probe requests through
+     *
+     * @return
+     */
+    public long getRemainingOpenMillis() {
+        return remainingOpenMillis;
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.balancer;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+
+
+/**
+ * A single server behind a load balancer, with the live statistics strategies choose from
+ *
+ * The latency is an exponentially weighted moving average that decays with time and jumps
+ * straight to any sample higher than the current average, so that an endpoint becoming slow is
+ * noticed immediately while one recovering regains traffic gradually.
+ *
+ */
+public class Endpoint {
+
+    /**
+     * Time constant of the moving average latency
+     */
+    private static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final URI uri;
+
+    private final AtomicInteger outstanding = new AtomicInteger(0);
+
+    private final AtomicLong requestCount = new AtomicLong(0);
+
+    private final AtomicLong failureCount = new AtomicLong(0);
+
+    private double latencyNanos = 0;
+
+    private long lastSampleTime = System.nanoTime();
+
+    private int consecutiveFailures = 0;
+
+    private int ejectionCount = 0;
+
+    private long ejectedUntil = 0;
+
+    private boolean ejected = false;
+
+    /**
+     * Creates an endpoint from its base URL
+     *
+     * @param url The scheme, host and port of the server, for instance http://10.0.0.1:8080
+     * @throws HibiscusException If the URL is not a valid absolute URL
+     */
+    public Endpoint(final String url) throws HibiscusException {
+
+        try {
+
+            final URI parsed = new URI(url);
+
+            if (null == parsed.getScheme() || null == parsed.getHost()) {
+                throw new HibiscusException("The endpoint " + url + " must contain a scheme and a host");
+            }
+
+            this.uri = new URI(parsed.getScheme().toLowerCase(Locale.ENGLISH), null, parsed.getHost().toLowerCase(Locale.ENGLISH),
+                    parsed.getPort(), null, null, null);
+
+        } catch (URISyntaxException e) {
+            throw new HibiscusException(e);
+        }
+    }
+
+    public URI getURI() {
+        return uri;
+    }
+
+    /**
+     * Returns the URI of the request sent to this endpoint instead of the logical service
+     *
+     * @param logicalURI The URI naming the service as its host
+     * @return
+     * @throws HibiscusException
+     */
+    public URI resolve(final URI logicalURI) throws HibiscusException {
+
+        final StringBuilder resolved = new StringBuilder(uri.toString());
+
+        if (null != logicalURI.getRawPath()) {
+            resolved.append(logicalURI.getRawPath());
+        }
+
+        if (null != logicalURI.getRawQuery()) {
+            resolved.append('?').append(logicalURI.getRawQuery());
+        }
+
+        try {
+            return new URI(resolved.toString());
+        } catch (URISyntaxException e) {
+            throw new HibiscusException(e);
+        }
+    }
+
+    /**
+     * Returns the number of requests currently in flight to this endpoint
+     *
+     * @return
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Returns the moving average latency, or 0 if no request has completed yet
+     *
+     * @return
+     */
+    public synchronized double getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public double getLatencyMillis() {
+        return getLatencyNanos() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Returns how many times this endpoint has been ejected
+     *
+     * @return
+     */
+    public synchronized int getEjectionCount() {
+        return ejectionCount;
+    }
+
+    /**
+     * Whether the endpoint is currently ejected from the load balancer
+     *
+     * @param now The current System.nanoTime()
+     * @return
+     */
+    synchronized boolean isEjected(final long now) {
+
+        if (ejected && now - ejectedUntil >= 0) {
+            ejected = false;
+        }
+
+        return ejected;
+    }
+
+    void begin() {
+        requestCount.incrementAndGet();
+        outstanding.incrementAndGet();
+    }
+
+    /**
+     * Ends a request abandoned by the caller without recording an outcome
+     */
+    void release() {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * Ends a request and updates the latency average
+     *
+     * @param failed
+     * @param durationNanos
+     * @return The number of consecutive failures including this request
+     */
+    synchronized int complete(final boolean failed, final long durationNanos) {
+
+        outstanding.decrementAndGet();
+
+        final long now = System.nanoTime();
+
+        if (durationNanos > latencyNanos) {
+            latencyNanos = durationNanos;
+        } else {
+            final double weight = Math.exp(-(double) (now - lastSampleTime) / DECAY_NANOS);
+            latencyNanos = latencyNanos * weight + durationNanos * (1 - weight);
+        }
+
+        lastSampleTime = now;
+
+        if (failed) {
+            failureCount.incrementAndGet();
+            return ++consecutiveFailures;
+        }
+
+        consecutiveFailures = 0;
+
+        return 0;
+    }
+
+    /**
+     * Ejects the endpoint for the base time multiplied by the number of times it was ejected before
+     *
+     * @param baseEjectionNanos
+     * @param maxEjectionNanos
+     */
+    synchronized void eject(final long baseEjectionNanos, final long maxEjectionNanos) {
+
+        ejectionCount++;
+        consecutiveFailures = 0;
+
+        ejected = true;
+        ejectedUntil = System.nanoTime() + Math.min(maxEjectionNanos, baseEjectionNanos * ejectionCount);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Endpoint [" + uri + ", outstanding=" + getOutstanding() + ", latency=" + getLatencyMillis() + "ms, requests=" + getRequestCount()
+                + ", failures=" + getFailureCount() + ", ejections=" + ejectionCount + (ejected ? ", ejected" : "") + "]";
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.balancer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Sends requests to the endpoint with the fewest requests in flight
+ *
+ * Ties are broken by starting the scan at a rotating offset, so that idle endpoints share the
+ * load evenly instead of the first one receiving every request.
+ *
+ */
+public class LeastOutstandingStrategy implements LoadBalancingStrategy {
+
+    private final AtomicInteger offset = new AtomicInteger(0);
+
+    public Endpoint choose(final List<Endpoint> endpoints) {
+
+        final int size = endpoints.size();
+        final int start = (offset.getAndIncrement() & Integer.MAX_VALUE) % size;
+
+        Endpoint chosen = null;
+
+        for (int i = 0; i < size; i++) {
+
+            final Endpoint endpoint = endpoints.get((start + i) % size);
+
+            if (null == chosen || endpoint.getOutstanding() < chosen.getOutstanding()) {
+                chosen = endpoint;
+            }
+        }
+
+        return chosen;
+    }
+
+    @Override
+    public String toString() {
+        return "LeastOutstandingStrategy";
+    }
+}
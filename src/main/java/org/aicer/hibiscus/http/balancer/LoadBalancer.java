@@ -0,0 +1,276 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.balancer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Distributes the requests for a logical service across several endpoints
+ *
+ * Once registered with a HttpTransport, requests to a URL whose host is the service name, for
+ * instance http://orders/items?id=1, are sent to one of the endpoints chosen by the strategy.
+ * Every attempt is balanced separately, so retries and hedges may go to another endpoint.
+ *
+ * Endpoints that fail several requests in a row, with an I/O error or a 5xx status, are
+ * ejected for a while. Ejections grow longer each time the endpoint is ejected again and never
+ * remove more than the configured share of the endpoints. If every endpoint is ejected the
+ * requests are spread across all of them anyway.
+ *
+ * Instances are thread-safe.
+ *
+ */
+public class LoadBalancer {
+
+    private static final Logger log = Logger.getLogger(LoadBalancer.class);
+
+    public static final int DEFAULT_CONSECUTIVE_FAILURES = 5;
+
+    public static final long DEFAULT_BASE_EJECTION_MILLIS = 30000;
+
+    public static final long DEFAULT_MAX_EJECTION_MILLIS = 300000;
+
+    public static final int DEFAULT_MAX_EJECTION_PERCENT = 50;
+
+    private final String serviceName;
+
+    private final List<Endpoint> endpoints = new CopyOnWriteArrayList<Endpoint>();
+
+    private volatile LoadBalancingStrategy strategy = new PowerOfTwoChoicesStrategy();
+
+    private volatile int consecutiveFailures = DEFAULT_CONSECUTIVE_FAILURES;
+
+    private volatile long baseEjectionMillis = DEFAULT_BASE_EJECTION_MILLIS;
+
+    private volatile long maxEjectionMillis = DEFAULT_MAX_EJECTION_MILLIS;
+
+    private volatile int maxEjectionPercent = DEFAULT_MAX_EJECTION_PERCENT;
+
+    /**
+     * Creates a load balancer for the specified service
+     *
+     * @param serviceName The host name used in request URLs to address the service
+     */
+    public LoadBalancer(final String serviceName) {
+        this.serviceName = serviceName.toLowerCase(Locale.ENGLISH);
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    /**
+     * Adds an endpoint requests may be sent to
+     *
+     * @param url The scheme, host and port of the server, for instance http://10.0.0.1:8080
+     * @return
+     * @throws HibiscusException If the URL is not a valid absolute URL
+     */
+    public LoadBalancer addEndpoint(final String url) throws HibiscusException {
+        endpoints.add(new Endpoint(url));
+        return this;
+    }
+
+    /**
+     * Stops sending requests to an endpoint, requests in flight are left to complete
+     *
+     * @param url
+     * @return
+     * @throws HibiscusException
+     */
+    public LoadBalancer removeEndpoint(final String url) throws HibiscusException {
+
+        final Endpoint removed = new Endpoint(url);
+
+        for (final Endpoint endpoint : endpoints) {
+
+            if (endpoint.getURI().equals(removed.getURI())) {
+                endpoints.remove(endpoint);
+            }
+        }
+
+        return this;
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return new ArrayList<Endpoint>(endpoints);
+    }
+
+    /**
+     * Chooses the endpoint the next request is sent to and counts the request as in flight
+     *
+     * The request must be ended with complete() or release()
+     *
+     * @return
+     * @throws HibiscusException If the load balancer has no endpoints
+     */
+    public Endpoint acquire() throws HibiscusException {
+
+        final List<Endpoint> all = getEndpoints();
+
+        if (all.isEmpty()) {
+            throw new HibiscusException("The load balancer for " + serviceName + " has no endpoints");
+        }
+
+        final long now = System.nanoTime();
+        final List<Endpoint> available = new ArrayList<Endpoint>(all.size());
+
+        for (final Endpoint endpoint : all) {
+
+            if (!endpoint.isEjected(now)) {
+                available.add(endpoint);
+            }
+        }
+
+        final Endpoint endpoint = strategy.choose(available.isEmpty() ? all : available);
+
+        endpoint.begin();
+
+        return endpoint;
+    }
+
+    /**
+     * Ends a request, ejecting the endpoint if it has failed too many requests in a row
+     *
+     * @param endpoint
+     * @param failed Whether the request failed with an I/O error or a 5xx status
+     * @param durationNanos
+     */
+    public void complete(final Endpoint endpoint, final boolean failed, final long durationNanos) {
+
+        if (endpoint.complete(failed, durationNanos) < consecutiveFailures) {
+            return;
+        }
+
+        synchronized (this) {
+
+            final long now = System.nanoTime();
+
+            int ejected = 0;
+
+            for (final Endpoint other : endpoints) {
+
+                if (other.isEjected(now)) {
+                    ejected++;
+                }
+            }
+
+            if ((ejected + 1) * 100 > endpoints.size() * maxEjectionPercent) {
+                return;
+            }
+
+            endpoint.eject(TimeUnit.MILLISECONDS.toNanos(baseEjectionMillis), TimeUnit.MILLISECONDS.toNanos(maxEjectionMillis));
+        }
+
+        log.warn("Ejected " + endpoint.getURI() + " from " + serviceName + " after " + consecutiveFailures + " consecutive failures");
+    }
+
+    /**
+     * Ends a request abandoned by the caller, such as the losing copy of a hedged request
+     *
+     * @param endpoint
+     */
+    public void release(final Endpoint endpoint) {
+        endpoint.release();
+    }
+
+    /**
+     * Whether a response with the specified status counts as a failed request
+     *
+     * @param statusCode
+     * @return
+     */
+    public boolean isFailureStatus(final int statusCode) {
+        return statusCode >= 500;
+    }
+
+    public LoadBalancingStrategy getStrategy() {
+        return strategy;
+    }
+
+    public LoadBalancer setStrategy(final LoadBalancingStrategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Sets the number of consecutive failed requests after which an endpoint is ejected
+     *
+     * @param consecutiveFailures
+     * @return
+     */
+    public LoadBalancer setConsecutiveFailures(final int consecutiveFailures) {
+        this.consecutiveFailures = consecutiveFailures;
+        return this;
+    }
+
+    public long getBaseEjectionMillis() {
+        return baseEjectionMillis;
+    }
+
+    /**
+     * Sets how long an endpoint is ejected the first time, later ejections last a multiple of it
+     *
+     * @param baseEjectionMillis
+     * @return
+     */
+    public LoadBalancer setBaseEjectionMillis(final long baseEjectionMillis) {
+        this.baseEjectionMillis = baseEjectionMillis;
+        return this;
+    }
+
+    public long getMaxEjectionMillis() {
+        return maxEjectionMillis;
+    }
+
+    public LoadBalancer setMaxEjectionMillis(final long maxEjectionMillis) {
+        this.maxEjectionMillis = maxEjectionMillis;
+        return this;
+    }
+
+    public int getMaxEjectionPercent() {
+        return maxEjectionPercent;
+    }
+
+    /**
+     * Sets the largest share of the endpoints that may be ejected at the same time
+     *
+     * @param maxEjectionPercent
+     * @return
+     */
+    public LoadBalancer setMaxEjectionPercent(final int maxEjectionPercent) {
+        this.maxEjectionPercent = maxEjectionPercent;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadBalancer [" + serviceName + ", " + strategy + ", " + endpoints + "]";
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.balancer;
+
+import java.util.List;
+
+
+/**
+ * Picks the endpoint a request is sent to
+ *
+ * Implementations must be thread-safe since a load balancer is shared by every request.
+ *
+ */
+public interface LoadBalancingStrategy {
+
+    /**
+     * Chooses one of the endpoints
+     *
+     * @param endpoints The endpoints that are not ejected, never empty
+     * @return
+     */
+    Endpoint choose(List<Endpoint> endpoints);
+}
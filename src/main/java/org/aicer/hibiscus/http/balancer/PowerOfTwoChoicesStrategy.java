@@ -0,0 +1,64 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.balancer;
+
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Samples two endpoints at random and sends the request to the cheaper one
+ *
+ * The cost of an endpoint is its peak-sensitive moving average latency multiplied by the number
+ * of requests it has in flight, so that endpoints which are slow or already busy are avoided.
+ * Comparing only two random endpoints keeps the choice cheap and avoids the herd behaviour of
+ * always picking the single best endpoint from slightly stale statistics.
+ *
+ */
+public class PowerOfTwoChoicesStrategy implements LoadBalancingStrategy {
+
+    private final Random random = new Random();
+
+    public Endpoint choose(final List<Endpoint> endpoints) {
+
+        final int size = endpoints.size();
+
+        if (size == 1) {
+            return endpoints.get(0);
+        }
+
+        final int first = random.nextInt(size);
+        final int second = (first + 1 + random.nextInt(size - 1)) % size;
+
+        final Endpoint a = endpoints.get(first);
+        final Endpoint b = endpoints.get(second);
+
+        return (getCost(a) <= getCost(b)) ? a : b;
+    }
+
+    private double getCost(final Endpoint endpoint) {
+
+        /* Endpoints without a latency sample yet are the cheapest, so new endpoints are tried quickly */
+        return (endpoint.getLatencyNanos() + 1) * (endpoint.getOutstanding() + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "PowerOfTwoChoicesStrategy";
+    }
+}
@@ -0,0 +1,451 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.cache;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.aicer.hibiscus.http.client.Response;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpRequest;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+
+/**
+ * Immutable copy of a cached response together with its freshness information
+ *
+ */
+public class CacheEntry {
+
+    public static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    public static final String HEADER_PRAGMA = "Pragma";
+    public static final String HEADER_EXPIRES = "Expires";
+    public static final String HEADER_DATE = "Date";
+    public static final String HEADER_AGE = "Age";
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    public static final String HEADER_VARY = "Vary";
+    public static final String HEADER_AUTHORIZATION = "Authorization";
+
+    public static final String DIRECTIVE_NO_STORE = "no-store";
+    public static final String DIRECTIVE_NO_CACHE = "no-cache";
+    public static final String DIRECTIVE_MAX_AGE = "max-age";
+    public static final String DIRECTIVE_PRIVATE = "private";
+    public static final String DIRECTIVE_PUBLIC = "public";
+    public static final String DIRECTIVE_S_MAXAGE = "s-maxage";
+    public static final String DIRECTIVE_MUST_REVALIDATE = "must-revalidate";
+
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_NON_AUTHORITATIVE = 203;
+    private static final int STATUS_MOVED_PERMANENTLY = 301;
+
+    private final String key;
+
+    private final String statusLine;
+
+    private final Header[] responseHeaders;
+
+    private final byte[] body;
+
+    private final Charset charset;
+
+    private final long storedAt;
+
+    private final long expiresAt;
+
+    private final String etag;
+
+    private final String lastModified;
+
+    private final Map<String, String> varyValues;
+
+    public CacheEntry(final String key, final String statusLine, final Header[] responseHeaders, final byte[] body, final Charset charset,
+            final long storedAt, final long expiresAt, final Map<String, String> varyValues) {
+        this.key = key;
+        this.statusLine = statusLine;
+        this.responseHeaders = responseHeaders;
+        this.body = body;
+        this.charset = charset;
+        this.storedAt = storedAt;
+        this.expiresAt = expiresAt;
+        this.etag = getHeaderValue(responseHeaders, HEADER_ETAG);
+        this.lastModified = getHeaderValue(responseHeaders, HEADER_LAST_MODIFIED);
+        this.varyValues = Collections.unmodifiableMap(varyValues);
+    }
+
+    /**
+     * Creates a cache entry for the response if its status and headers allow it to be stored
+     *
+     * @param key
+     * @param httpRequest The request as it was sent
+     * @param response
+     * @param now Current time in milliseconds
+     * @return The entry or null if the response must not be stored
+     */
+    public static CacheEntry create(final String key, final HttpRequest httpRequest, final Response response, final long now) {
+
+        final int responseCode = response.getResponseCode();
+
+        if (responseCode != STATUS_OK && responseCode != STATUS_NON_AUTHORITATIVE && responseCode != STATUS_MOVED_PERMANENTLY) {
+            return null;
+        }
+
+        final Header[] headers = response.getResponseHeaders();
+
+        if (hasDirective(headers, HEADER_CACHE_CONTROL, DIRECTIVE_NO_STORE) || !isShareable(httpRequest, headers)) {
+            return null;
+        }
+
+        final Map<String, String> varyValues = getVaryValues(headers, httpRequest);
+
+        if (null == varyValues) {
+            return null;
+        }
+
+        final long expiresAt = now + getFreshnessLifetime(headers) - (getAge(headers) * 1000);
+        final byte[] body = response.getResponseBodyBytes();
+
+        final CacheEntry entry = new CacheEntry(key, response.getStatusLine(), headers, (null != body) ? body : new byte[0],
+                response.getResponseCharset(), now, expiresAt, varyValues);
+
+        /* Entries that are never fresh are only useful if they can be revalidated */
+        if (expiresAt <= now && !entry.hasValidators()) {
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Whether the response may be served to other callers of the transport the cache is attached to
+     *
+     * The cache is shared, so responses marked private are never stored, and responses to
+     * authenticated requests only if the server explicitly allows shared caches to keep them.
+     *
+     * @param httpRequest
+     * @param headers The headers of the response
+     * @return
+     */
+    private static boolean isShareable(final HttpRequest httpRequest, final Header[] headers) {
+
+        if (hasDirective(headers, HEADER_CACHE_CONTROL, DIRECTIVE_PRIVATE)) {
+            return false;
+        }
+
+        if (!httpRequest.containsHeader(HEADER_AUTHORIZATION)) {
+            return true;
+        }
+
+        return hasDirective(headers, HEADER_CACHE_CONTROL, DIRECTIVE_PUBLIC) || hasDirective(headers, HEADER_CACHE_CONTROL, DIRECTIVE_S_MAXAGE)
+                || hasDirective(headers, HEADER_CACHE_CONTROL, DIRECTIVE_MUST_REVALIDATE);
+    }
+
+    /**
+     * Returns a copy of this entry refreshed with the headers of a 304 Not Modified response
+     *
+     * @param notModified
+     * @param now Current time in milliseconds
+     * @return
+     */
+    public CacheEntry revalidate(final Response notModified, final long now) {
+
+        final Set<String> updatedNames = new HashSet<String>();
+        final List<Header> updates = new ArrayList<Header>();
+
+        /* The stored body still describes itself, so its entity headers are kept */
+        for (final Header header : notModified.getResponseHeaders()) {
+
+            final String name = header.getName().toLowerCase();
+
+            if (!name.startsWith("content-") && !name.equals("transfer-encoding")) {
+                updatedNames.add(name);
+                updates.add(header);
+            }
+        }
+
+        final List<Header> ordered = new ArrayList<Header>();
+
+        for (final Header header : responseHeaders) {
+            if (!updatedNames.contains(header.getName().toLowerCase())) {
+                ordered.add(header);
+            }
+        }
+
+        ordered.addAll(updates);
+
+        final Header[] headers = ordered.toArray(new Header[ordered.size()]);
+        final long refreshedExpiry = now + getFreshnessLifetime(headers) - (getAge(headers) * 1000);
+
+        return new CacheEntry(key, statusLine, headers, body, charset, now, refreshedExpiry, varyValues);
+    }
+
+    /**
+     * Whether the entry can be served without contacting the server
+     *
+     * @param now Current time in milliseconds
+     * @return
+     */
+    public boolean isFresh(final long now) {
+        return now < expiresAt;
+    }
+
+    /**
+     * Whether the entry carries an ETag or Last-Modified date that the server can validate
+     *
+     * @return
+     */
+    public boolean hasValidators() {
+        return null != etag || null != lastModified;
+    }
+
+    /**
+     * Whether the request selects this entry based on the headers listed in Vary
+     *
+     * @param httpRequest
+     * @return
+     */
+    public boolean matches(final HttpRequest httpRequest) {
+
+        for (final Map.Entry<String, String> vary : varyValues.entrySet()) {
+
+            final Header header = httpRequest.getFirstHeader(vary.getKey());
+            final String value = (null != header) ? header.getValue() : null;
+
+            if (null == value ? null != vary.getValue() : !value.equals(vary.getValue())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates a new response from the cached copy
+     *
+     * @return
+     */
+    public Response toResponse() {
+
+        final Response response = new Response();
+
+        response.setStatusLine(statusLine);
+        response.setResponseHeaders(responseHeaders.clone());
+        response.setResponseBody(body, charset);
+        response.setDecompressedBytes(body.length);
+        response.setFromCache(true);
+
+        return response;
+    }
+
+    /**
+     * Returns the number of body bytes held by this entry
+     *
+     * @return
+     */
+    public long getSize() {
+        return body.length;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getStatusLine() {
+        return statusLine;
+    }
+
+    public Header[] getResponseHeaders() {
+        return responseHeaders.clone();
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public long getStoredAt() {
+        return storedAt;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public String getETag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public Map<String, String> getVaryValues() {
+        return varyValues;
+    }
+
+    /**
+     * Whether the header contains the specified directive, such as no-cache in Cache-Control
+     *
+     * @param headers
+     * @param headerName
+     * @param directive
+     * @return
+     */
+    public static boolean hasDirective(final Header[] headers, final String headerName, final String directive) {
+
+        for (final Header header : headers) {
+
+            if (!header.getName().equalsIgnoreCase(headerName)) {
+                continue;
+            }
+
+            for (final HeaderElement element : header.getElements()) {
+                if (element.getName().equalsIgnoreCase(directive)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns how long in milliseconds the response stays fresh after it was generated
+     */
+    private static long getFreshnessLifetime(final Header[] headers) {
+
+        if (hasDirective(headers, HEADER_CACHE_CONTROL, DIRECTIVE_NO_CACHE)) {
+            return 0;
+        }
+
+        for (final Header header : headers) {
+
+            if (!header.getName().equalsIgnoreCase(HEADER_CACHE_CONTROL)) {
+                continue;
+            }
+
+            for (final HeaderElement element : header.getElements()) {
+
+                if (element.getName().equalsIgnoreCase(DIRECTIVE_MAX_AGE) && null != element.getValue()) {
+                    try {
+                        return Math.max(0, Long.parseLong(element.getValue().trim())) * 1000;
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+        }
+
+        final Date expires = parseDate(getHeaderValue(headers, HEADER_EXPIRES));
+
+        if (null == expires) {
+            return 0;
+        }
+
+        final Date date = parseDate(getHeaderValue(headers, HEADER_DATE));
+        final long generatedAt = (null != date) ? date.getTime() : System.currentTimeMillis();
+
+        return Math.max(0, expires.getTime() - generatedAt);
+    }
+
+    /**
+     * Returns the age in seconds reported by intermediate caches
+     */
+    private static long getAge(final Header[] headers) {
+
+        final String age = getHeaderValue(headers, HEADER_AGE);
+
+        if (null == age) {
+            return 0;
+        }
+
+        try {
+            return Math.max(0, Long.parseLong(age.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Captures the request header values named by Vary
+     *
+     * @return The values or null if the response varies on everything
+     */
+    private static Map<String, String> getVaryValues(final Header[] headers, final HttpRequest httpRequest) {
+
+        final Map<String, String> varyValues = new HashMap<String, String>();
+
+        for (final Header header : headers) {
+
+            if (!header.getName().equalsIgnoreCase(HEADER_VARY)) {
+                continue;
+            }
+
+            for (final HeaderElement element : header.getElements()) {
+
+                final String name = element.getName().trim();
+
+                if (name.equals("*")) {
+                    return null;
+                }
+
+                final Header requestHeader = httpRequest.getFirstHeader(name);
+
+                varyValues.put(name, (null != requestHeader) ? requestHeader.getValue() : null);
+            }
+        }
+
+        return varyValues;
+    }
+
+    private static String getHeaderValue(final Header[] headers, final String headerName) {
+
+        for (final Header header : headers) {
+            if (header.getName().equalsIgnoreCase(headerName)) {
+                return header.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private static Date parseDate(final String value) {
+
+        if (null == value) {
+            return null;
+        }
+
+        try {
+            return DateUtils.parseDate(value);
+        } catch (DateParseException e) {
+            return null;
+        }
+    }
+}
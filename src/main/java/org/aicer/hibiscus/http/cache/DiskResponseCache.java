@@ -0,0 +1,913 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Persistent response cache tier stored in a single append-only segment file
+ *
+ * Every stored or removed entry is appended to the file as a checksummed record and an
+ * in-memory index maps each key to its latest record. The index is rebuilt by scanning the
+ * file when the cache is opened, so cached responses survive restarts. Damaged records are
+ * skipped by scanning forward to the next record that passes its checksum, and a truncated
+ * tail left by a crash is cut off.
+ *
+ * Bodies are read back through read-only memory mappings of fixed-size segments of the file,
+ * so files larger than 2 GB are supported and appending never remaps them. Once superseded
+ * records make up more than half of the file, live records are copied into a fresh file which
+ * then replaces the old one.
+ *
+ * Instances are thread-safe. Only one process may open a given file at a time.
+ *
+ */
+public class DiskResponseCache {
+
+    private static final Logger log = Logger.getLogger(DiskResponseCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+
+    /**
+     * Files smaller than this are never compacted
+     */
+    public static final long MIN_COMPACTION_BYTES = 1024L * 1024;
+
+    private static final int RECORD_MAGIC = 0x48494243;
+
+    /**
+     * Magic, payload length and CRC32 of the payload
+     */
+    private static final int RECORD_HEADER_LENGTH = 4 + 4 + 8;
+
+    /**
+     * Size of the segments the file is mapped in. Bytes past the last whole segment are read from the channel.
+     */
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Size of the blocks read when checksumming records and searching for the next intact record
+     */
+    private static final int SCAN_BLOCK_BYTES = 64 * 1024;
+
+    private static final byte TYPE_ENTRY = 1;
+
+    private static final byte TYPE_REMOVAL = 2;
+
+    private final File file;
+
+    private final long maxBytes;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Latest record for each key in insertion order, so the oldest entries are evicted first
+     */
+    private final LinkedHashMap<String, RecordLocation> index = new LinkedHashMap<String, RecordLocation>();
+
+    private RandomAccessFile randomAccessFile;
+
+    private FileChannel channel;
+
+    private FileLock fileLock;
+
+    private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+    private long fileSize = 0;
+
+    private long liveBytes = 0;
+
+    private long skippedRecords = 0;
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+
+    private final AtomicLong missCount = new AtomicLong(0);
+
+    private boolean closed = false;
+
+    public DiskResponseCache(final File file) throws HibiscusException {
+        this(file, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Opens or creates the cache file and rebuilds the index from it
+     *
+     * @param file The segment file
+     * @param maxBytes Maximum size of the live records kept in the file
+     * @throws HibiscusException If the file cannot be opened or is used by another process
+     */
+    public DiskResponseCache(final File file, final long maxBytes) throws HibiscusException {
+
+        this.file = file;
+        this.maxBytes = maxBytes;
+
+        try {
+            open();
+            load();
+        } catch (IOException e) {
+            closeQuietly();
+            throw new HibiscusException("Unable to open the response cache file " + file, e);
+        }
+    }
+
+    /**
+     * Returns the entry stored for the key
+     *
+     * @param key
+     * @return The entry or null if it is not stored or cannot be read
+     */
+    public CacheEntry get(final String key) {
+
+        lock.readLock().lock();
+
+        try {
+
+            final RecordLocation location = closed ? null : index.get(key);
+
+            if (null == location) {
+                missCount.incrementAndGet();
+                return null;
+            }
+
+            final CacheEntry entry = decodeEntry(readPayload(location));
+
+            hitCount.incrementAndGet();
+
+            return entry;
+
+        } catch (IOException e) {
+            log.warn("Unable to read cached response for " + key, e);
+            missCount.incrementAndGet();
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the entry to the file, replacing any previous entry for the same key
+     *
+     * @param entry
+     */
+    public void put(final CacheEntry entry) {
+
+        lock.writeLock().lock();
+
+        try {
+
+            if (closed) {
+                return;
+            }
+
+            final byte[] payload = encodeEntry(entry);
+
+            if (payload.length + RECORD_HEADER_LENGTH > maxBytes) {
+                removeLocked(entry.getKey());
+                return;
+            }
+
+            final RecordLocation location = append(payload);
+
+            forget(entry.getKey());
+
+            index.put(entry.getKey(), location);
+            liveBytes += location.length;
+
+            evictLocked();
+            compactIfNeededLocked();
+
+        } catch (IOException e) {
+            log.warn("Unable to store cached response for " + entry.getKey(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the entry stored for the key
+     *
+     * @param key
+     */
+    public void remove(final String key) {
+
+        lock.writeLock().lock();
+
+        try {
+
+            if (!closed) {
+                removeLocked(key);
+                compactIfNeededLocked();
+            }
+
+        } catch (IOException e) {
+            log.warn("Unable to remove cached response for " + key, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the file so that it only contains live records
+     *
+     * @throws HibiscusException
+     */
+    public void compact() throws HibiscusException {
+
+        lock.writeLock().lock();
+
+        try {
+
+            if (!closed) {
+                compactLocked();
+            }
+
+        } catch (IOException e) {
+            throw new HibiscusException("Unable to compact the response cache file " + file, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Releases the file. Entries remain on disk for the next time the cache is opened.
+     */
+    public void close() {
+
+        lock.writeLock().lock();
+
+        try {
+            closed = true;
+            index.clear();
+            closeQuietly();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getEntryCount() {
+
+        lock.readLock().lock();
+
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the current size of the segment file including superseded records
+     *
+     * @return
+     */
+    public long getFileSize() {
+
+        lock.readLock().lock();
+
+        try {
+            return fileSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the size of the records that are still referenced by the index
+     *
+     * @return
+     */
+    public long getLiveBytes() {
+
+        lock.readLock().lock();
+
+        try {
+            return liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of corrupt records skipped while loading the file
+     *
+     * @return
+     */
+    public long getSkippedRecordCount() {
+
+        lock.readLock().lock();
+
+        try {
+            return skippedRecords;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private void open() throws IOException {
+
+        final File parent = file.getAbsoluteFile().getParentFile();
+
+        if (null != parent && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+
+        final File backup = getBackupFile();
+
+        /* A compaction swap was interrupted after the original file was moved aside */
+        if (backup.exists()) {
+
+            if (!file.exists()) {
+
+                if (!backup.renameTo(file)) {
+                    throw new IOException("Unable to restore response cache file " + file + " from " + backup);
+                }
+
+                log.warn("Restored response cache file " + file + " after an interrupted compaction");
+
+            } else if (!backup.delete()) {
+                log.warn("Unable to delete " + backup);
+            }
+        }
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        fileLock = channel.tryLock();
+
+        if (null == fileLock) {
+            throw new IOException("The file is already used by another process");
+        }
+
+        fileSize = channel.size();
+        segments.clear();
+    }
+
+    /**
+     * Scans the file and rebuilds the index from the records that pass their checksum
+     */
+    private void load() throws IOException {
+
+        index.clear();
+        liveBytes = 0;
+
+        long position = 0;
+
+        while (position + RECORD_HEADER_LENGTH <= fileSize) {
+
+            final int payloadLength = verifyRecord(position);
+
+            if (payloadLength >= 0) {
+
+                final ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+
+                readFully(payload, position + RECORD_HEADER_LENGTH);
+                apply(payload.array(), new RecordLocation(position, RECORD_HEADER_LENGTH + (long) payloadLength));
+
+                position += RECORD_HEADER_LENGTH + (long) payloadLength;
+                continue;
+            }
+
+            /* The length of a damaged record cannot be trusted, so look for the next intact one */
+            final long next = findNextRecord(position + 1);
+
+            if (next < 0) {
+                break;
+            }
+
+            skippedRecords++;
+            log.warn("Skipping " + (next - position) + " damaged bytes at offset " + position + " in response cache file " + file);
+
+            position = next;
+        }
+
+        if (position < fileSize) {
+            log.warn("Truncating response cache file " + file + " at offset " + position + " after an incomplete record");
+            channel.truncate(position);
+            fileSize = position;
+        }
+
+        evictLocked();
+    }
+
+    /**
+     * Checks that an intact record starts at the position
+     *
+     * @param position
+     * @return The length of the payload of the record, or -1 if its header is invalid or its payload fails the checksum
+     */
+    private int verifyRecord(final long position) throws IOException {
+
+        if (position + RECORD_HEADER_LENGTH > fileSize) {
+            return -1;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+
+        readFully(header, position);
+        header.flip();
+
+        final int magic = header.getInt();
+        final int payloadLength = header.getInt();
+        final long checksum = header.getLong();
+
+        if (magic != RECORD_MAGIC || payloadLength < 0 || position + RECORD_HEADER_LENGTH + payloadLength > fileSize) {
+            return -1;
+        }
+
+        /* The payload is checksummed in blocks so that a corrupt length cannot cause a huge allocation */
+        final ByteBuffer block = ByteBuffer.allocate(Math.min(payloadLength, SCAN_BLOCK_BYTES));
+        final CRC32 crc = new CRC32();
+        final long end = position + RECORD_HEADER_LENGTH + payloadLength;
+
+        for (long offset = position + RECORD_HEADER_LENGTH; offset < end; offset += block.limit()) {
+
+            block.clear();
+            block.limit((int) Math.min(block.capacity(), end - offset));
+            readFully(block, offset);
+
+            crc.update(block.array(), 0, block.limit());
+        }
+
+        return (crc.getValue() == checksum) ? payloadLength : -1;
+    }
+
+    /**
+     * Searches the file for the next record with a valid header and checksum
+     *
+     * @param from
+     * @return The offset of the record, or -1 if there is none
+     */
+    private long findNextRecord(final long from) throws IOException {
+
+        final ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK_BYTES);
+        final byte[] bytes = block.array();
+
+        long start = from;
+
+        while (start + RECORD_HEADER_LENGTH <= fileSize) {
+
+            block.clear();
+            block.limit((int) Math.min(block.capacity(), fileSize - start));
+            readFully(block, start);
+
+            final int length = block.limit();
+
+            for (int i = 0; i + 4 <= length; i++) {
+
+                final int magic = ((bytes[i] & 0xff) << 24) | ((bytes[i + 1] & 0xff) << 16) | ((bytes[i + 2] & 0xff) << 8) | (bytes[i + 3] & 0xff);
+
+                if (magic == RECORD_MAGIC && verifyRecord(start + i) >= 0) {
+                    return start + i;
+                }
+            }
+
+            /* Overlaps the blocks so that a magic number split between them is still found */
+            start += length - 3;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Updates the index with a record read from the file
+     */
+    private void apply(final byte[] payload, final RecordLocation location) {
+
+        try {
+
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            final byte type = in.readByte();
+            final String key = in.readUTF();
+
+            forget(key);
+
+            if (type == TYPE_ENTRY) {
+                index.put(key, location);
+                liveBytes += location.length;
+            }
+
+        } catch (IOException e) {
+            skippedRecords++;
+        }
+    }
+
+    private byte[] readPayload(final RecordLocation location) throws IOException {
+
+        final int payloadLength = (int) (location.length - RECORD_HEADER_LENGTH);
+        final byte[] payload = new byte[payloadLength];
+
+        long position = location.offset + RECORD_HEADER_LENGTH;
+        int copied = 0;
+
+        while (copied < payloadLength) {
+
+            final MappedByteBuffer segment = getSegment(position / SEGMENT_BYTES);
+
+            if (null == segment) {
+                readFully(ByteBuffer.wrap(payload, copied, payloadLength - copied), position);
+                break;
+            }
+
+            final ByteBuffer view = segment.duplicate();
+            final int segmentOffset = (int) (position % SEGMENT_BYTES);
+            final int count = Math.min(payloadLength - copied, view.capacity() - segmentOffset);
+
+            view.position(segmentOffset);
+            view.get(payload, copied, count);
+
+            copied += count;
+            position += count;
+        }
+
+        return payload;
+    }
+
+    /**
+     * Returns the mapping of a segment of the file, mapping it on first use
+     *
+     * @param segmentIndex
+     * @return The mapping or null if the segment is not yet entirely written
+     */
+    private synchronized MappedByteBuffer getSegment(final long segmentIndex) throws IOException {
+
+        if ((segmentIndex + 1) * SEGMENT_BYTES > fileSize) {
+            return null;
+        }
+
+        while (segments.size() <= segmentIndex) {
+            segments.add(channel.map(FileChannel.MapMode.READ_ONLY, segments.size() * SEGMENT_BYTES, SEGMENT_BYTES));
+        }
+
+        return segments.get((int) segmentIndex);
+    }
+
+    private RecordLocation append(final byte[] payload) throws IOException {
+
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + payload.length);
+
+        record.putInt(RECORD_MAGIC);
+        record.putInt(payload.length);
+        record.putLong(checksum(payload));
+        record.put(payload);
+        record.flip();
+
+        final long offset = fileSize;
+        long position = offset;
+
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+
+        fileSize = position;
+
+        return new RecordLocation(offset, position - offset);
+    }
+
+    private void removeLocked(final String key) throws IOException {
+
+        if (!index.containsKey(key)) {
+            return;
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeByte(TYPE_REMOVAL);
+        out.writeUTF(key);
+        out.flush();
+
+        append(bytes.toByteArray());
+        forget(key);
+    }
+
+    private void forget(final String key) {
+
+        final RecordLocation previous = index.remove(key);
+
+        if (null != previous) {
+            liveBytes -= previous.length;
+        }
+    }
+
+    /**
+     * Removes the oldest entries until the live records fit within the size limit
+     */
+    private void evictLocked() throws IOException {
+
+        while (liveBytes > maxBytes && !index.isEmpty()) {
+            removeLocked(index.keySet().iterator().next());
+        }
+    }
+
+    private void compactIfNeededLocked() throws IOException {
+
+        if (fileSize >= MIN_COMPACTION_BYTES && (fileSize - liveBytes) > (fileSize / 2)) {
+            compactLocked();
+        }
+    }
+
+    /**
+     * Copies the live records into a new file and swaps it in place of the current one
+     *
+     * Stale entries that cannot be revalidated are dropped on the way, and so are records
+     * that can no longer be decoded.
+     */
+    private void compactLocked() throws IOException {
+
+        final File compacted = new File(file.getPath() + ".compact");
+        final RandomAccessFile target = new RandomAccessFile(compacted, "rw");
+        final Map<String, RecordLocation> relocated = new HashMap<String, RecordLocation>();
+        final List<String> order = new ArrayList<String>();
+        final long now = System.currentTimeMillis();
+
+        long position = 0;
+
+        try {
+
+            final FileChannel targetChannel = target.getChannel();
+
+            targetChannel.truncate(0);
+
+            final Iterator<Map.Entry<String, RecordLocation>> iterator = index.entrySet().iterator();
+
+            while (iterator.hasNext()) {
+
+                final Map.Entry<String, RecordLocation> item = iterator.next();
+                final RecordLocation location = item.getValue();
+                final CacheEntry entry;
+
+                try {
+                    entry = decodeEntry(readPayload(location));
+                } catch (IOException e) {
+                    skippedRecords++;
+                    log.warn("Dropping unreadable cached response for " + item.getKey() + " from " + file, e);
+                    continue;
+                } catch (RuntimeException e) {
+                    skippedRecords++;
+                    log.warn("Dropping unreadable cached response for " + item.getKey() + " from " + file, e);
+                    continue;
+                }
+
+                if (!entry.isFresh(now) && !entry.hasValidators()) {
+                    continue;
+                }
+
+                final ByteBuffer record = ByteBuffer.allocate((int) location.length);
+
+                readFully(record, location.offset);
+                record.flip();
+
+                final long offset = position;
+
+                while (record.hasRemaining()) {
+                    position += targetChannel.write(record, position);
+                }
+
+                relocated.put(item.getKey(), new RecordLocation(offset, location.length));
+                order.add(item.getKey());
+            }
+
+            targetChannel.force(true);
+
+        } finally {
+            target.close();
+        }
+
+        closeQuietly();
+
+        if (!compacted.renameTo(file)) {
+
+            /*
+             * Some platforms refuse to rename over an existing file. The original is moved aside
+             * rather than deleted so that open() can restore it if the swap does not complete.
+             */
+            final File backup = getBackupFile();
+
+            if (!file.renameTo(backup)) {
+                open();
+                throw new IOException("Unable to replace " + file + " with its compacted copy");
+            }
+
+            if (!compacted.renameTo(file)) {
+
+                if (!backup.renameTo(file)) {
+                    throw new IOException("Unable to restore response cache file " + file + " from " + backup);
+                }
+
+                open();
+                throw new IOException("Unable to replace " + file + " with its compacted copy");
+            }
+
+            if (!backup.delete()) {
+                log.warn("Unable to delete " + backup);
+            }
+        }
+
+        open();
+
+        index.clear();
+        liveBytes = 0;
+
+        for (final String key : order) {
+            final RecordLocation location = relocated.get(key);
+            index.put(key, location);
+            liveBytes += location.length;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Compacted response cache file " + file + " to " + fileSize + " bytes");
+        }
+    }
+
+    private File getBackupFile() {
+        return new File(file.getPath() + ".old");
+    }
+
+    private void readFully(final ByteBuffer buffer, long position) throws IOException {
+
+        while (buffer.hasRemaining()) {
+
+            final int count = channel.read(buffer, position);
+
+            if (count < 0) {
+                throw new IOException("Unexpected end of the response cache file");
+            }
+
+            position += count;
+        }
+    }
+
+    private void closeQuietly() {
+
+        segments.clear();
+
+        try {
+
+            if (null != fileLock) {
+                fileLock.release();
+            }
+
+            if (null != randomAccessFile) {
+                randomAccessFile.close();
+            }
+
+        } catch (IOException e) {
+            log.debug("Error while closing the response cache file", e);
+        }
+
+        fileLock = null;
+        channel = null;
+        randomAccessFile = null;
+    }
+
+    private static long checksum(final byte[] payload) {
+
+        final CRC32 crc = new CRC32();
+
+        crc.update(payload, 0, payload.length);
+
+        return crc.getValue();
+    }
+
+    private static byte[] encodeEntry(final CacheEntry entry) throws IOException {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) entry.getSize() + 512);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final Header[] headers = entry.getResponseHeaders();
+        final Map<String, String> varyValues = entry.getVaryValues();
+
+        out.writeByte(TYPE_ENTRY);
+        out.writeUTF(entry.getKey());
+        out.writeUTF(entry.getStatusLine());
+        out.writeUTF(entry.getCharset().name());
+        out.writeLong(entry.getStoredAt());
+        out.writeLong(entry.getExpiresAt());
+
+        out.writeInt(headers.length);
+
+        for (final Header header : headers) {
+            out.writeUTF(header.getName());
+            out.writeUTF(header.getValue());
+        }
+
+        out.writeInt(varyValues.size());
+
+        for (final Map.Entry<String, String> vary : varyValues.entrySet()) {
+            out.writeUTF(vary.getKey());
+            out.writeBoolean(null != vary.getValue());
+            out.writeUTF((null != vary.getValue()) ? vary.getValue() : "");
+        }
+
+        out.writeInt(entry.getBody().length);
+        out.write(entry.getBody());
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    private static CacheEntry decodeEntry(final byte[] payload) throws IOException {
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        if (in.readByte() != TYPE_ENTRY) {
+            throw new IOException("The record does not hold a cached response");
+        }
+
+        final String key = in.readUTF();
+        final String statusLine = in.readUTF();
+        final Charset charset = Charset.forName(in.readUTF());
+        final long storedAt = in.readLong();
+        final long expiresAt = in.readLong();
+        final Header[] headers = new Header[in.readInt()];
+
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = new BasicHeader(in.readUTF(), in.readUTF());
+        }
+
+        final int varyCount = in.readInt();
+        final Map<String, String> varyValues = new HashMap<String, String>();
+
+        for (int i = 0; i < varyCount; i++) {
+            final String name = in.readUTF();
+            final boolean present = in.readBoolean();
+            final String value = in.readUTF();
+            varyValues.put(name, present ? value : null);
+        }
+
+        final byte[] body = new byte[in.readInt()];
+
+        in.readFully(body);
+
+        return new CacheEntry(key, statusLine, headers, body, charset, storedAt, expiresAt, varyValues);
+    }
+
+    /**
+     * Position and total length, header included, of a record in the file
+     */
+    private static final class RecordLocation {
+
+        private final long offset;
+
+        private final long length;
+
+        RecordLocation(final long offset, final long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
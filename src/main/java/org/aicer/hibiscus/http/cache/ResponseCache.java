@@ -0,0 +1,376 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aicer.hibiscus.http.client.Response;
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+
+
+/**
+ * In-memory cache for GET and HEAD responses
+ *
+ * Entries are keyed on the request method and URL, and are selected by the request headers
+ * listed in the Vary header of the response. Freshness follows Cache-Control max-age and
+ * Expires. Stale entries carrying an ETag or Last-Modified date are revalidated with a
+ * conditional request instead of being downloaded again.
+ *
+ * The cache is shared by every caller of the transport it is attached to. Responses marked
+ * private are never stored, and neither are responses to requests carrying Authorization
+ * unless the server marked them public, s-maxage or must-revalidate.
+ *
+ * The cache is bounded by the total size of the cached bodies and evicts the least recently
+ * used entries first. Instances are thread-safe and are usually attached to a HttpTransport.
+ *
+ * A DiskResponseCache may be attached as a second tier. It is consulted when an entry is not
+ * held in memory and receives every stored entry, so that cached responses survive restarts.
+ *
+ */
+public class ResponseCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final int STATUS_PARTIAL_CONTENT = 206;
+
+    private static final int STATUS_NOT_MODIFIED = 304;
+
+    private static final int STATUS_NOT_FOUND = 404;
+
+    private static final int STATUS_GONE = 410;
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+    private long currentBytes = 0;
+
+    private volatile DiskResponseCache diskCache = null;
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+
+    private final AtomicLong missCount = new AtomicLong(0);
+
+    private final AtomicLong revalidationCount = new AtomicLong(0);
+
+    private final AtomicLong evictionCount = new AtomicLong(0);
+
+    public ResponseCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a cache holding at most the specified number of body bytes
+     *
+     * @param maxBytes
+     */
+    public ResponseCache(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the key used to store responses to the request
+     *
+     * @param requestMethod
+     * @param url
+     * @return
+     */
+    public static String getKey(final String requestMethod, final String url) {
+        return requestMethod + " " + url;
+    }
+
+    /**
+     * Whether the request may be answered from the cache at all
+     *
+     * Only GET and HEAD requests that do not carry Cache-Control: no-store are cacheable
+     *
+     * @param httpRequest
+     * @return
+     */
+    public static boolean isCacheable(final HttpRequest httpRequest) {
+
+        final String requestMethod = httpRequest.getRequestLine().getMethod();
+
+        if (!requestMethod.equals("GET") && !requestMethod.equals("HEAD")) {
+            return false;
+        }
+
+        return !CacheEntry.hasDirective(httpRequest.getAllHeaders(), CacheEntry.HEADER_CACHE_CONTROL, CacheEntry.DIRECTIVE_NO_STORE);
+    }
+
+    /**
+     * Whether the request insists on the server being consulted, even for fresh entries
+     *
+     * @param httpRequest
+     * @return
+     */
+    public static boolean requiresRevalidation(final HttpRequest httpRequest) {
+
+        final Header[] headers = httpRequest.getAllHeaders();
+
+        return CacheEntry.hasDirective(headers, CacheEntry.HEADER_CACHE_CONTROL, CacheEntry.DIRECTIVE_NO_CACHE)
+                || CacheEntry.hasDirective(headers, CacheEntry.HEADER_PRAGMA, CacheEntry.DIRECTIVE_NO_CACHE);
+    }
+
+    /**
+     * Returns the entry stored for the key if it matches the request, whether fresh or stale
+     *
+     * @param key
+     * @param httpRequest
+     * @return The entry or null if there is none
+     */
+    public CacheEntry get(final String key, final HttpRequest httpRequest) {
+
+        CacheEntry entry = getFromMemory(key);
+
+        final DiskResponseCache diskCache = this.diskCache;
+
+        if (null == entry && null != diskCache) {
+
+            entry = diskCache.get(key);
+
+            if (null != entry) {
+                putInMemory(entry);
+            }
+        }
+
+        if (null == entry || !entry.matches(httpRequest)) {
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Stores the response if it is cacheable, replacing any previous entry for the key
+     *
+     * A response that cannot be stored only evicts the previous entry if it shows that the
+     * resource changed. Server errors and 304 responses leave the entry in place.
+     *
+     * @param key
+     * @param httpRequest The request as it was sent
+     * @param response
+     * @return The stored entry or null if the response was not cacheable
+     */
+    public CacheEntry put(final String key, final HttpRequest httpRequest, final Response response) {
+
+        final CacheEntry entry = CacheEntry.create(key, httpRequest, response, System.currentTimeMillis());
+
+        if (null == entry) {
+
+            if (supersedes(response.getResponseCode())) {
+                remove(key);
+            }
+
+            return null;
+        }
+
+        return put(entry);
+    }
+
+    /**
+     * Whether a response with the status code replaces the representation stored for its URL
+     *
+     * Complete responses and redirects do, and so do 404 and 410 since the resource is gone.
+     *
+     * @param statusCode
+     * @return
+     */
+    private static boolean supersedes(final int statusCode) {
+
+        if (statusCode == STATUS_NOT_FOUND || statusCode == STATUS_GONE) {
+            return true;
+        }
+
+        return statusCode >= 200 && statusCode < 400 && statusCode != STATUS_PARTIAL_CONTENT && statusCode != STATUS_NOT_MODIFIED;
+    }
+
+    /**
+     * Stores the entry, evicting the least recently used entries if the cache is full
+     *
+     * @param entry
+     * @return The entry or null if it is too large to be kept in memory
+     */
+    public CacheEntry put(final CacheEntry entry) {
+
+        final DiskResponseCache diskCache = this.diskCache;
+
+        if (null != diskCache) {
+            diskCache.put(entry);
+        }
+
+        return putInMemory(entry);
+    }
+
+    private synchronized CacheEntry getFromMemory(final String key) {
+        return entries.get(key);
+    }
+
+    private synchronized CacheEntry putInMemory(final CacheEntry entry) {
+
+        removeFromMemory(entry.getKey());
+
+        if (entry.getSize() > maxBytes) {
+            return null;
+        }
+
+        entries.put(entry.getKey(), entry);
+        currentBytes += entry.getSize();
+
+        final Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+
+            final CacheEntry eldest = iterator.next().getValue();
+
+            iterator.remove();
+            currentBytes -= eldest.getSize();
+            evictionCount.incrementAndGet();
+        }
+
+        return entry;
+    }
+
+    /**
+     * Refreshes the entry with the headers of a 304 Not Modified response
+     *
+     * @param entry
+     * @param notModified
+     * @return The refreshed entry
+     */
+    public CacheEntry revalidated(final CacheEntry entry, final Response notModified) {
+
+        final CacheEntry refreshed = entry.revalidate(notModified, System.currentTimeMillis());
+
+        put(refreshed);
+
+        return refreshed;
+    }
+
+    public CacheEntry remove(final String key) {
+
+        final DiskResponseCache diskCache = this.diskCache;
+
+        if (null != diskCache) {
+            diskCache.remove(key);
+        }
+
+        return removeFromMemory(key);
+    }
+
+    private synchronized CacheEntry removeFromMemory(final String key) {
+
+        final CacheEntry removed = entries.remove(key);
+
+        if (null != removed) {
+            currentBytes -= removed.getSize();
+        }
+
+        return removed;
+    }
+
+    /**
+     * Drops the entries held in memory. Entries stored in the disk tier are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public DiskResponseCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * Attaches a persistent tier consulted on memory misses and written through on every store
+     *
+     * The disk cache is managed by the caller and must be closed separately
+     *
+     * @param diskCache The disk cache or null to keep entries in memory only
+     * @return
+     */
+    public ResponseCache setDiskCache(final DiskResponseCache diskCache) {
+        this.diskCache = diskCache;
+        return this;
+    }
+
+    /**
+     * Records a request answered from a fresh entry without contacting the server
+     */
+    public void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    /**
+     * Records a request for which the full response had to be fetched from the server
+     */
+    public void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    /**
+     * Records a stale entry confirmed by the server with 304 Not Modified
+     */
+    public void recordRevalidation() {
+        revalidationCount.incrementAndGet();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getRevalidationCount() {
+        return revalidationCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the total number of body bytes currently cached
+     *
+     * @return
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseCache [entries=" + getEntryCount() + ", bytes=" + getCurrentBytes() + "/" + maxBytes
+                + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", revalidations=" + getRevalidationCount()
+                + ", evictions=" + getEvictionCount() + "]";
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+
+
+/**
+ * Outcome of a single request sent as part of a batch
+ *
+ * Holds either the response from the server or the reason the request failed
+ *
+ */
+public class BatchResult {
+
+    private final int index;
+
+    private final Request request;
+
+    private final Response response;
+
+    private final HibiscusException exception;
+
+    private final long elapsedTime;
+
+    public BatchResult(final int index, final Request request, final Response response, final HibiscusException exception, final long elapsedTime) {
+        this.index = index;
+        this.request = request;
+        this.response = response;
+        this.exception = exception;
+        this.elapsedTime = elapsedTime;
+    }
+
+    /**
+     * Returns the position of the request within the batch
+     *
+     * @return
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public Request getRequest() {
+        return request;
+    }
+
+    /**
+     * Returns the response from the server, or null if the request failed
+     *
+     * @return
+     */
+    public Response getResponse() {
+        return response;
+    }
+
+    /**
+     * Returns the reason the request failed, or null if it succeeded
+     *
+     * @return
+     */
+    public HibiscusException getException() {
+        return exception;
+    }
+
+    public boolean isSuccessful() {
+        return null == exception;
+    }
+
+    /**
+     * Returns the time in milliseconds between the request being submitted and its completion
+     *
+     * Requests are submitted once a slot of the batch is free, so the time spent waiting for a
+     * slot is not included. Queueing on the transport's executor is.
+     *
+     * @return
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+}
@@ -0,0 +1,425 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Caches host name resolutions in process so that slow resolvers stay off the request path
+ *
+ * Each entry expires after its own TTL. Entries used during the last part of their TTL are
+ * refreshed on a background thread, so that hosts in regular use are never resolved while a
+ * request waits. If the underlying resolver fails once an entry has expired, the stale
+ * addresses keep being served for a limited time. Failed resolutions are cached briefly to
+ * avoid hammering a resolver that is down.
+ *
+ * The JDK does not expose the TTL of DNS records, so entries use the default TTL unless one is
+ * set for the host or getTtlMillis() is overridden by a subclass backed by a resolver that
+ * knows the record TTLs. Any DnsResolver can be wrapped, including an InMemoryDnsResolver in
+ * tests.
+ *
+ * Instances are thread-safe and are usually set on a HttpTransport.
+ *
+ */
+public class CachingDnsResolver implements DnsResolver {
+
+    private static final Logger log = Logger.getLogger(CachingDnsResolver.class);
+
+    public static final long DEFAULT_TTL_MILLIS = 60000;
+
+    public static final long DEFAULT_NEGATIVE_TTL_MILLIS = 1000;
+
+    public static final long DEFAULT_MAX_STALE_MILLIS = 300000;
+
+    public static final double DEFAULT_REFRESH_AHEAD_FACTOR = 0.8;
+
+    /**
+     * Refreshes entries in the background for every resolver
+     */
+    private static final ExecutorService refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        public Thread newThread(final Runnable runnable) {
+
+            final Thread thread = new Thread(runnable, "hibiscus-dns-refresh");
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    });
+
+    private final DnsResolver dnsResolver;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private final ConcurrentMap<String, Long> hostTtls = new ConcurrentHashMap<String, Long>();
+
+    private volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+
+    private volatile long negativeTtlMillis = DEFAULT_NEGATIVE_TTL_MILLIS;
+
+    private volatile long maxStaleMillis = DEFAULT_MAX_STALE_MILLIS;
+
+    private volatile double refreshAheadFactor = DEFAULT_REFRESH_AHEAD_FACTOR;
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+
+    private final AtomicLong missCount = new AtomicLong(0);
+
+    private final AtomicLong staleHitCount = new AtomicLong(0);
+
+    private final AtomicLong refreshCount = new AtomicLong(0);
+
+    private final AtomicLong failureCount = new AtomicLong(0);
+
+    /**
+     * Creates a cache in front of the system resolver
+     */
+    public CachingDnsResolver() {
+        this(new SystemDefaultDnsResolver());
+    }
+
+    /**
+     * Creates a cache in front of the specified resolver
+     *
+     * @param dnsResolver
+     */
+    public CachingDnsResolver(final DnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver;
+    }
+
+    public InetAddress[] resolve(final String host) throws UnknownHostException {
+
+        final String key = host.toLowerCase(Locale.ENGLISH);
+        final Entry entry = entries.get(key);
+        final long now = System.nanoTime();
+
+        if (null != entry && !entry.isExpired(now)) {
+
+            hitCount.incrementAndGet();
+
+            if (null == entry.addresses) {
+                throw new UnknownHostException(host);
+            }
+
+            if (entry.isRefreshDue(now, refreshAheadFactor)) {
+                refresh(key, entry);
+            }
+
+            return entry.addresses.clone();
+        }
+
+        missCount.incrementAndGet();
+
+        try {
+
+            return store(key, dnsResolver.resolve(host)).addresses.clone();
+
+        } catch (UnknownHostException e) {
+
+            failureCount.incrementAndGet();
+
+            if (null != entry && null != entry.addresses && now - entry.staleUntil < 0) {
+
+                staleHitCount.incrementAndGet();
+
+                log.warn("Serving stale addresses for " + host + " after the resolver failed", e);
+
+                /* Keeps serving the stale addresses without waiting for the resolver until the negative TTL elapses */
+                entries.put(key, new Entry(entry.addresses, now, now + TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis), entry.staleUntil));
+
+                return entry.addresses.clone();
+            }
+
+            if (negativeTtlMillis > 0) {
+                final long expiresAt = now + TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+                entries.put(key, new Entry(null, now, expiresAt, expiresAt));
+            }
+
+            throw e;
+        }
+    }
+
+    private Entry store(final String key, final InetAddress[] addresses) {
+
+        final long now = System.nanoTime();
+        final long expiresAt = now + TimeUnit.MILLISECONDS.toNanos(getTtlMillis(key, addresses));
+        final Entry entry = new Entry(addresses, now, expiresAt, expiresAt + TimeUnit.MILLISECONDS.toNanos(maxStaleMillis));
+
+        entries.put(key, entry);
+
+        return entry;
+    }
+
+    /**
+     * Resolves the host again in the background, the current entry is served in the meantime
+     *
+     * @param key
+     * @param entry
+     */
+    private void refresh(final String key, final Entry entry) {
+
+        synchronized (entry) {
+
+            if (entry.refreshing) {
+                return;
+            }
+
+            entry.refreshing = true;
+        }
+
+        try {
+
+            refresher.execute(new Runnable() {
+
+                public void run() {
+
+                    try {
+
+                        store(key, dnsResolver.resolve(key));
+                        refreshCount.incrementAndGet();
+
+                    } catch (UnknownHostException e) {
+                        refreshFailed(key, entry, e);
+                    } catch (RuntimeException e) {
+                        refreshFailed(key, entry, e);
+                    }
+                }
+            });
+
+        } catch (RejectedExecutionException e) {
+            refreshFailed(key, entry, e);
+        }
+    }
+
+    private void refreshFailed(final String key, final Entry entry, final Exception e) {
+
+        failureCount.incrementAndGet();
+
+        log.debug("Unable to refresh the addresses of " + key, e);
+
+        /* Lets the next lookup try again, the entry is served until it expires */
+        synchronized (entry) {
+            entry.refreshing = false;
+        }
+    }
+
+    /**
+     * Returns how long the resolved addresses of a host may be cached
+     *
+     * @param host The host name in lower case
+     * @param addresses
+     * @return
+     */
+    protected long getTtlMillis(final String host, final InetAddress[] addresses) {
+
+        final Long hostTtl = hostTtls.get(host);
+
+        return (null != hostTtl) ? hostTtl.longValue() : ttlMillis;
+    }
+
+    /**
+     * Sets the TTL of a single host, overriding the default TTL
+     *
+     * @param host
+     * @param ttlMillis
+     * @return
+     */
+    public CachingDnsResolver setTtlMillis(final String host, final long ttlMillis) {
+        hostTtls.put(host.toLowerCase(Locale.ENGLISH), ttlMillis);
+        return this;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Sets how long resolved addresses are cached unless a TTL is set for the host
+     *
+     * @param ttlMillis
+     * @return
+     */
+    public CachingDnsResolver setTtlMillis(final long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        return this;
+    }
+
+    public long getNegativeTtlMillis() {
+        return negativeTtlMillis;
+    }
+
+    /**
+     * Sets how long a failed resolution is cached
+     *
+     * @param negativeTtlMillis The duration, or 0 to resolve again on every request
+     * @return
+     */
+    public CachingDnsResolver setNegativeTtlMillis(final long negativeTtlMillis) {
+        this.negativeTtlMillis = negativeTtlMillis;
+        return this;
+    }
+
+    public long getMaxStaleMillis() {
+        return maxStaleMillis;
+    }
+
+    /**
+     * Sets how long after expiry addresses may still be served while the resolver fails
+     *
+     * @param maxStaleMillis
+     * @return
+     */
+    public CachingDnsResolver setMaxStaleMillis(final long maxStaleMillis) {
+        this.maxStaleMillis = maxStaleMillis;
+        return this;
+    }
+
+    public double getRefreshAheadFactor() {
+        return refreshAheadFactor;
+    }
+
+    /**
+     * Sets the fraction of the TTL after which a used entry is refreshed in the background
+     *
+     * @param refreshAheadFactor Between 0 and 1, a value of 1 or more disables refreshing ahead
+     * @return
+     */
+    public CachingDnsResolver setRefreshAheadFactor(final double refreshAheadFactor) {
+        this.refreshAheadFactor = refreshAheadFactor;
+        return this;
+    }
+
+    /**
+     * Removes every cached entry
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of resolutions answered from the cache, including cached failures
+     *
+     * @return
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of resolutions that had to wait for the underlying resolver
+     *
+     * @return
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of expired entries served because the underlying resolver failed
+     *
+     * @return
+     */
+    public long getStaleHitCount() {
+        return staleHitCount.get();
+    }
+
+    /**
+     * Returns the number of entries refreshed in the background
+     *
+     * @return
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * Returns the number of failed resolutions by the underlying resolver
+     *
+     * @return
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    public double getHitRate() {
+
+        final long lookups = getHitCount() + getMissCount();
+
+        return (lookups == 0) ? 0 : getHitCount() * 100.0 / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "CachingDnsResolver [size=" + getSize() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", staleHits=" + getStaleHitCount()
+                + ", refreshes=" + getRefreshCount() + ", failures=" + getFailureCount() + ", hitRate=" + getHitRate() + "%]";
+    }
+
+    /**
+     * Addresses resolved for a host, or a cached failure if the addresses are null
+     */
+    private static final class Entry {
+
+        private final InetAddress[] addresses;
+
+        private final long resolvedAt;
+
+        private final long expiresAt;
+
+        /**
+         * Time until which the addresses may be served while the resolver fails
+         */
+        private final long staleUntil;
+
+        private boolean refreshing = false;
+
+        private Entry(final InetAddress[] addresses, final long resolvedAt, final long expiresAt, final long staleUntil) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+            this.expiresAt = expiresAt;
+            this.staleUntil = staleUntil;
+        }
+
+        private boolean isExpired(final long now) {
+            return now - expiresAt >= 0;
+        }
+
+        private boolean isRefreshDue(final long now, final double refreshAheadFactor) {
+            return refreshAheadFactor < 1 && now - resolvedAt >= (long) ((expiresAt - resolvedAt) * refreshAheadFactor);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aicer.hibiscus.exception.CircuitBreakerOpenException;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Circuit breaker for a single scheme, host and port
+ *
+ * While closed, the outcomes of the most recent calls are kept in a sliding window. Once the
+ * window holds enough calls and either the failure rate or the slow-call rate reaches its
+ * threshold, the breaker opens and calls are rejected immediately. After the open period a
+ * limited number of probe calls is let through; once they have all succeeded the breaker
+ * closes again, while a single failed or slow probe reopens it.
+ *
+ * Instances are created by a CircuitBreakerRegistry and are thread-safe.
+ *
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = Logger.getLogger(CircuitBreaker.class);
+
+    /**
+     * The states of a circuit breaker
+     */
+    public enum State {
+
+        /** Calls go through and their outcomes are recorded */
+        CLOSED,
+
+        /** Calls are rejected */
+        OPEN,
+
+        /** A limited number of probe calls go through */
+        HALF_OPEN
+    }
+
+    private static final byte OUTCOME_FAILURE = 1;
+
+    private static final byte OUTCOME_SLOW = 2;
+
+    private final String key;
+
+    private final CircuitBreakerRegistry settings;
+
+    /**
+     * Ring buffer of outcome flags for the most recent calls
+     */
+    private final byte[] window;
+
+    private int windowPosition = 0;
+
+    private int windowCount = 0;
+
+    private int windowFailures = 0;
+
+    private int windowSlowCalls = 0;
+
+    private State state = State.CLOSED;
+
+    private long openedAt = 0;
+
+    private int probesPermitted = 0;
+
+    private int probesCompleted = 0;
+
+    private int probeFailures = 0;
+
+    private final AtomicLong rejectedCount = new AtomicLong(0);
+
+    private final AtomicLong openedCount = new AtomicLong(0);
+
+    CircuitBreaker(final String key, final CircuitBreakerRegistry settings) {
+        this.key = key;
+        this.settings = settings;
+        this.window = new byte[Math.max(1, settings.getWindowSize())];
+    }
+
+    /**
+     * Asks permission to send a call
+     *
+     * @throws CircuitBreakerOpenException If the breaker is open or all probe calls are in flight
+     */
+    public synchronized void acquire() throws CircuitBreakerOpenException {
+
+        if (state == State.OPEN) {
+
+            final long remaining = settings.getOpenMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openedAt);
+
+            if (remaining > 0) {
+                rejectedCount.incrementAndGet();
+                throw new CircuitBreakerOpenException(key, remaining);
+            }
+
+            transition(State.HALF_OPEN);
+        }
+
+        if (state == State.HALF_OPEN) {
+
+            if (probesPermitted >= settings.getHalfOpenCalls()) {
+                rejectedCount.incrementAndGet();
+                throw new CircuitBreakerOpenException(key, 0);
+            }
+
+            probesPermitted++;
+        }
+    }
+
+    /**
+     * Records the outcome of a permitted call
+     *
+     * @param failed Whether the call failed
+     * @param durationNanos How long the call took
+     */
+    public synchronized void record(final boolean failed, final long durationNanos) {
+
+        final boolean slow = durationNanos >= TimeUnit.MILLISECONDS.toNanos(settings.getSlowCallMillis());
+
+        if (state == State.HALF_OPEN) {
+
+            probesCompleted++;
+
+            if (failed || slow) {
+                probeFailures++;
+                transition(State.OPEN);
+            } else if (probesCompleted >= settings.getHalfOpenCalls()) {
+                transition(State.CLOSED);
+            }
+
+            return;
+        }
+
+        if (state == State.OPEN) {
+            /* Calls that were already in flight when the breaker opened are ignored */
+            return;
+        }
+
+        if (windowCount == window.length) {
+
+            final byte evicted = window[windowPosition];
+
+            windowFailures -= ((evicted & OUTCOME_FAILURE) != 0) ? 1 : 0;
+            windowSlowCalls -= ((evicted & OUTCOME_SLOW) != 0) ? 1 : 0;
+
+        } else {
+            windowCount++;
+        }
+
+        window[windowPosition] = (byte) ((failed ? OUTCOME_FAILURE : 0) | (slow ? OUTCOME_SLOW : 0));
+        windowPosition = (windowPosition + 1) % window.length;
+
+        windowFailures += failed ? 1 : 0;
+        windowSlowCalls += slow ? 1 : 0;
+
+        if (windowCount >= settings.getMinimumCalls() && exceedsThresholds(windowFailures, windowSlowCalls, windowCount)) {
+            transition(State.OPEN);
+        }
+    }
+
+    /**
+     * Gives back a permission without recording an outcome, for calls abandoned by the caller
+     */
+    public synchronized void release() {
+
+        if (state == State.HALF_OPEN && probesPermitted > probesCompleted) {
+            probesPermitted--;
+        }
+    }
+
+    private boolean exceedsThresholds(final int failures, final int slowCalls, final int calls) {
+        return (failures * 100.0 / calls) >= settings.getFailureRateThreshold()
+                || (slowCalls * 100.0 / calls) >= settings.getSlowCallRateThreshold();
+    }
+
+    private void transition(final State newState) {
+
+        if (newState == State.OPEN) {
+            openedAt = System.nanoTime();
+            openedCount.incrementAndGet();
+            log.warn("Opening the circuit breaker for " + key + " " + describeWindow());
+        } else if (newState == State.CLOSED) {
+            log.info("Closing the circuit breaker for " + key);
+        }
+
+        state = newState;
+
+        windowPosition = 0;
+        windowCount = 0;
+        windowFailures = 0;
+        windowSlowCalls = 0;
+
+        probesPermitted = 0;
+        probesCompleted = 0;
+        probeFailures = 0;
+    }
+
+    private String describeWindow() {
+        return (state == State.HALF_OPEN) ? "after " + probeFailures + " of " + probesCompleted + " probe calls failed"
+                : "after " + windowFailures + " failed and " + windowSlowCalls + " slow calls out of " + windowCount;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the percentage of failed calls in the current window
+     *
+     * @return
+     */
+    public synchronized double getFailureRate() {
+        return (windowCount == 0) ? 0 : windowFailures * 100.0 / windowCount;
+    }
+
+    /**
+     * Returns the percentage of slow calls in the current window
+     *
+     * @return
+     */
+    public synchronized double getSlowCallRate() {
+        return (windowCount == 0) ? 0 : windowSlowCalls * 100.0 / windowCount;
+    }
+
+    /**
+     * Returns the number of calls rejected without being sent
+     *
+     * @return
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns how many times the breaker has opened
+     *
+     * @return
+     */
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker [" + key + ", state=" + state + ", failureRate=" + getFailureRate() + "%, slowCallRate=" + getSlowCallRate()
+                + "%, rejected=" + getRejectedCount() + ", opened=" + getOpenedCount() + "]";
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Holds one circuit breaker per scheme, host and port, along with the settings they share
+ *
+ * A failing or slow upstream therefore only rejects its own calls and leaves calls to other
+ * hosts untouched. Requests that fail with an I/O error or receive a 5xx status count as
+ * failures. Settings may be changed at any time, except the window size which only applies
+ * to circuit breakers created afterwards.
+ *
+ * Instances are thread-safe and are usually attached to a HttpTransport.
+ *
+ */
+public class CircuitBreakerRegistry {
+
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+
+    public static final int DEFAULT_MINIMUM_CALLS = 20;
+
+    public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+
+    public static final double DEFAULT_SLOW_CALL_RATE_THRESHOLD = 100;
+
+    public static final long DEFAULT_SLOW_CALL_MILLIS = 10000;
+
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+
+    public static final int DEFAULT_HALF_OPEN_CALLS = 5;
+
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private volatile int windowSize = DEFAULT_WINDOW_SIZE;
+
+    private volatile int minimumCalls = DEFAULT_MINIMUM_CALLS;
+
+    private volatile double failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+
+    private volatile double slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+
+    private volatile long slowCallMillis = DEFAULT_SLOW_CALL_MILLIS;
+
+    private volatile long openMillis = DEFAULT_OPEN_MILLIS;
+
+    private volatile int halfOpenCalls = DEFAULT_HALF_OPEN_CALLS;
+
+    /**
+     * Returns the key identifying the upstream of a URI
+     *
+     * @param uri
+     * @return The scheme, host and port, for instance http://example.com:80
+     */
+    public static String getKey(final URI uri) {
+
+        final String scheme = (null != uri.getScheme()) ? uri.getScheme().toLowerCase(Locale.ENGLISH) : "http";
+        final String host = (null != uri.getHost()) ? uri.getHost().toLowerCase(Locale.ENGLISH) : "";
+
+        int port = uri.getPort();
+
+        if (port == -1) {
+            port = scheme.equals("https") ? 443 : 80;
+        }
+
+        return scheme + "://" + host + ":" + port;
+    }
+
+    /**
+     * Returns the circuit breaker protecting the upstream of the URI, creating it if needed
+     *
+     * @param uri
+     * @return
+     */
+    public CircuitBreaker getCircuitBreaker(final URI uri) {
+
+        final String key = getKey(uri);
+
+        CircuitBreaker circuitBreaker = circuitBreakers.get(key);
+
+        if (null == circuitBreaker) {
+
+            circuitBreaker = new CircuitBreaker(key, this);
+
+            final CircuitBreaker existing = circuitBreakers.putIfAbsent(key, circuitBreaker);
+
+            if (null != existing) {
+                circuitBreaker = existing;
+            }
+        }
+
+        return circuitBreaker;
+    }
+
+    public Collection<CircuitBreaker> getCircuitBreakers() {
+        return new ArrayList<CircuitBreaker>(circuitBreakers.values());
+    }
+
+    /**
+     * Whether a response with the specified status counts as a failed call
+     *
+     * @param statusCode
+     * @return
+     */
+    public boolean isFailureStatus(final int statusCode) {
+        return statusCode >= 500;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Sets the number of most recent calls the failure and slow-call rates are computed over
+     *
+     * @param windowSize
+     * @return
+     */
+    public CircuitBreakerRegistry setWindowSize(final int windowSize) {
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    /**
+     * Sets the number of calls the window must hold before the breaker may open
+     *
+     * @param minimumCalls
+     * @return
+     */
+    public CircuitBreakerRegistry setMinimumCalls(final int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+        return this;
+    }
+
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * Sets the percentage of failed calls at which the breaker opens
+     *
+     * @param failureRateThreshold
+     * @return
+     */
+    public CircuitBreakerRegistry setFailureRateThreshold(final double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+        return this;
+    }
+
+    public double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * Sets the percentage of slow calls at which the breaker opens
+     *
+     * @param slowCallRateThreshold
+     * @return
+     */
+    public CircuitBreakerRegistry setSlowCallRateThreshold(final double slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        return this;
+    }
+
+    public long getSlowCallMillis() {
+        return slowCallMillis;
+    }
+
+    /**
+     * Sets the duration from which a call counts as slow
+     *
+     * @param slowCallMillis
+     * @return
+     */
+    public CircuitBreakerRegistry setSlowCallMillis(final long slowCallMillis) {
+        this.slowCallMillis = slowCallMillis;
+        return this;
+    }
+
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    /**
+     * Sets how long the breaker rejects calls before letting probe calls through
+     *
+     * @param openMillis
+     * @return
+     */
+    public CircuitBreakerRegistry setOpenMillis(final long openMillis) {
+        this.openMillis = openMillis;
+        return this;
+    }
+
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    /**
+     * Sets the number of probe calls that must succeed before the breaker closes again
+     *
+     * @param halfOpenCalls
+     * @return
+     */
+    public CircuitBreakerRegistry setHalfOpenCalls(final int halfOpenCalls) {
+        this.halfOpenCalls = halfOpenCalls;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreakerRegistry " + getCircuitBreakers();
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.aicer.hibiscus.util.StreamUtil;
+
+
+/**
+ * Writes the body of a successful response directly to a file
+ *
+ * The body is moved from the connection into the file channel in large chunks, so it is never
+ * decoded into characters and binary content is preserved byte for byte.
+ *
+ */
+public class FileResponseBodyHandler implements ResponseBodyHandler {
+
+    /**
+     * Maximum number of bytes moved into the file per transfer call
+     */
+    public static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+
+    private final File file;
+
+    public FileResponseBodyHandler(final File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void handleResponseBody(final Response response, final InputStream body) throws IOException {
+
+        final int responseCode = response.getResponseCode();
+
+        if (responseCode < 200 || responseCode > 299) {
+            response.setResponseBody(StreamUtil.inputStreamToByteArray(body, -1), response.getResponseCharset());
+            return;
+        }
+
+        final long startTime = System.nanoTime();
+        final ReadableByteChannel source = Channels.newChannel(body);
+        final FileOutputStream out = new FileOutputStream(file);
+        final FileChannel target = out.getChannel();
+
+        long position = 0;
+        boolean completed = false;
+
+        try {
+
+            long transferred = 0;
+
+            while ((transferred = target.transferFrom(source, position, TRANSFER_CHUNK_SIZE)) > 0) {
+                position += transferred;
+            }
+
+            completed = true;
+
+        } finally {
+
+            out.close();
+
+            /* Does not leave a truncated download behind */
+            if (!completed) {
+                file.delete();
+            }
+        }
+
+        response.setBytesTransferred(position);
+        response.setTransferTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+}
@@ -0,0 +1,532 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.http.metrics.LatencyHistogram;
+import org.aicer.hibiscus.http.workers.HttpWorkerAbstract;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Sends a second copy of slow GET and HEAD requests and keeps whichever response arrives first
+ *
+ * If the original request has not completed after the hedge delay, a duplicate is sent on the
+ * transport's executor, optionally to one of the alternate endpoints. The first successful
+ * response is returned and the other request is aborted, releasing its connection. The delay
+ * is either fixed or, once enough requests have completed, the configured percentile of their
+ * observed latency, so that only the slowest few percent of requests are hedged.
+ *
+ * Hedges draw from a budget so that an overloaded upstream does not receive twice the traffic.
+ * Requests with a body, a response body handler or a streamed response are never hedged.
+ *
+ * Instances are thread-safe and are usually attached to a HttpTransport.
+ *
+ */
+public class HedgingPolicy {
+
+    private static final Logger log = Logger.getLogger(HedgingPolicy.class);
+
+    public static final long DEFAULT_HEDGE_DELAY_MILLIS = 100;
+
+    public static final int DEFAULT_MINIMUM_SAMPLES = 100;
+
+    /**
+     * Fires the hedges of every policy, the requests themselves run on the transport's executor
+     */
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        public Thread newThread(final Runnable runnable) {
+
+            final Thread thread = new Thread(runnable, "hibiscus-hedging-timer");
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    });
+
+    private volatile long hedgeDelayMillis = DEFAULT_HEDGE_DELAY_MILLIS;
+
+    private volatile double hedgeDelayPercentile = 0;
+
+    private volatile int minimumSamples = DEFAULT_MINIMUM_SAMPLES;
+
+    private volatile RetryBudget hedgeBudget = new RetryBudget();
+
+    private final List<URI> alternateEndpoints = new CopyOnWriteArrayList<URI>();
+
+    private final AtomicInteger nextEndpoint = new AtomicInteger(0);
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    private final AtomicLong requestCount = new AtomicLong(0);
+
+    private final AtomicLong hedgeCount = new AtomicLong(0);
+
+    private final AtomicLong hedgeWinCount = new AtomicLong(0);
+
+    /**
+     * Whether the request may be sent twice
+     *
+     * @param request
+     * @return
+     */
+    public static boolean isHedgeable(final Request request) {
+
+        final String requestMethod = request.getRequestMethod();
+
+        if (!requestMethod.equals(HttpWorkerAbstract.GET) && !requestMethod.equals(HttpWorkerAbstract.HEAD)) {
+            return false;
+        }
+
+        return null == request.getRequestEntity() && null == request.getResponseBodyHandler() && !request.isStreamingResponse();
+    }
+
+    /**
+     * Sends the request, hedging it if it is still outstanding after the hedge delay
+     *
+     * @param request
+     * @param transport
+     * @return The first successful response
+     * @throws HibiscusException If the original request failed and no hedge succeeded
+     */
+    public Response execute(final Request request, final HttpTransport transport) throws HibiscusException {
+
+        final Race race = new Race(request, transport, HttpWorkerAbstract.getWorkerStrategy(request, transport));
+        final RetryBudget hedgeBudget = this.hedgeBudget;
+
+        if (null != hedgeBudget) {
+            hedgeBudget.recordRequest();
+        }
+
+        requestCount.incrementAndGet();
+
+        final long startTime = System.nanoTime();
+
+        final ScheduledFuture<?> hedge = timer.schedule(new Runnable() {
+
+            public void run() {
+                race.hedge(hedgeBudget);
+            }
+
+        }, getHedgeDelayMillis(), TimeUnit.MILLISECONDS);
+
+        RuntimeException failure = null;
+
+        try {
+            race.primary.execute();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        hedge.cancel(false);
+
+        if (null != failure) {
+            race.runQueuedHedge();
+        }
+
+        return race.complete(failure, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Returns the delay after which the next request is hedged
+     *
+     * @return
+     */
+    public long getHedgeDelayMillis() {
+
+        if (hedgeDelayPercentile > 0 && latencies.getCount() >= minimumSamples) {
+            return (long) Math.ceil(latencies.getMillisAtPercentile(hedgeDelayPercentile));
+        }
+
+        return hedgeDelayMillis;
+    }
+
+    /**
+     * Sets the delay used until enough latencies have been observed, or always if no percentile is set
+     *
+     * @param hedgeDelayMillis
+     * @return
+     */
+    public HedgingPolicy setHedgeDelayMillis(final long hedgeDelayMillis) {
+        this.hedgeDelayMillis = hedgeDelayMillis;
+        return this;
+    }
+
+    public double getHedgeDelayPercentile() {
+        return hedgeDelayPercentile;
+    }
+
+    /**
+     * Derives the hedge delay from the observed latency of the original requests
+     *
+     * A value of 95 hedges roughly the slowest 5% of requests.
+     *
+     * @param hedgeDelayPercentile The percentile, or 0 to always use the fixed delay
+     * @return
+     */
+    public HedgingPolicy setHedgeDelayPercentile(final double hedgeDelayPercentile) {
+        this.hedgeDelayPercentile = hedgeDelayPercentile;
+        return this;
+    }
+
+    public int getMinimumSamples() {
+        return minimumSamples;
+    }
+
+    /**
+     * Sets the number of latencies that must be observed before the percentile is used
+     *
+     * @param minimumSamples
+     * @return
+     */
+    public HedgingPolicy setMinimumSamples(final int minimumSamples) {
+        this.minimumSamples = minimumSamples;
+        return this;
+    }
+
+    public RetryBudget getHedgeBudget() {
+        return hedgeBudget;
+    }
+
+    /**
+     * Limits the number of hedges to a fraction of the requests sent
+     *
+     * @param hedgeBudget The budget or null to hedge every slow request
+     * @return
+     */
+    public HedgingPolicy setHedgeBudget(final RetryBudget hedgeBudget) {
+        this.hedgeBudget = hedgeBudget;
+        return this;
+    }
+
+    /**
+     * Sends hedges to the specified endpoint instead of the host of the original request
+     *
+     * When several endpoints are added they are used in turn. Only the scheme, host and port of
+     * the endpoint are used, the path and query string are taken from the original request.
+     *
+     * @param endpoint The base URL of a replica, for instance http://replica-2:8080
+     * @return
+     * @throws HibiscusException If the endpoint is not a valid absolute URL
+     */
+    public HedgingPolicy addAlternateEndpoint(final String endpoint) throws HibiscusException {
+
+        try {
+
+            final URI uri = new URI(endpoint);
+
+            if (null == uri.getScheme() || null == uri.getHost()) {
+                throw new HibiscusException("The alternate endpoint " + endpoint + " must contain a scheme and a host");
+            }
+
+            alternateEndpoints.add(uri);
+
+        } catch (URISyntaxException e) {
+            throw new HibiscusException(e);
+        }
+
+        return this;
+    }
+
+    /**
+     * Returns the request sent as a hedge, aimed at the next alternate endpoint if any
+     *
+     * @param request
+     * @return
+     * @throws HibiscusException
+     */
+    private Request getHedgeRequest(final Request request) throws HibiscusException {
+
+        if (alternateEndpoints.isEmpty()) {
+            return request;
+        }
+
+        final URI endpoint = alternateEndpoints.get((nextEndpoint.getAndIncrement() & Integer.MAX_VALUE) % alternateEndpoints.size());
+
+        try {
+
+            final URI uri = new URI(request.getRawUrl());
+
+            final String rawUrl = new URI(endpoint.getScheme(), null, endpoint.getHost(), endpoint.getPort(), null, null, null).toString()
+                    + ((null != uri.getRawPath()) ? uri.getRawPath() : "")
+                    + ((null != uri.getRawQuery()) ? "?" + uri.getRawQuery() : "")
+                    + ((null != uri.getRawFragment()) ? "#" + uri.getRawFragment() : "");
+
+            return request.toBuilder().setRawUrl(rawUrl).build();
+
+        } catch (URISyntaxException e) {
+            throw new HibiscusException(e);
+        }
+    }
+
+    /**
+     * Returns the number of requests eligible for hedging
+     *
+     * @return
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of hedges sent
+     *
+     * @return
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * Returns the number of hedges whose response was returned instead of the original one
+     *
+     * @return
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * Returns the percentage of requests that were hedged
+     *
+     * @return
+     */
+    public double getHedgeRate() {
+
+        final long requests = getRequestCount();
+
+        return (requests == 0) ? 0 : getHedgeCount() * 100.0 / requests;
+    }
+
+    /**
+     * Returns the percentage of hedges that beat the original request
+     *
+     * A low win rate means the delay is too short and hedges mostly add load.
+     *
+     * @return
+     */
+    public double getHedgeWinRate() {
+
+        final long hedges = getHedgeCount();
+
+        return (hedges == 0) ? 0 : getHedgeWinCount() * 100.0 / hedges;
+    }
+
+    /**
+     * Returns the latencies of the original requests the hedge delay percentile is computed from
+     *
+     * @return
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public String toString() {
+        return "HedgingPolicy [requests=" + getRequestCount() + ", hedges=" + getHedgeCount() + ", hedgeWins=" + getHedgeWinCount()
+                + ", hedgeRate=" + getHedgeRate() + "%, hedgeWinRate=" + getHedgeWinRate() + "%, delay=" + getHedgeDelayMillis() + "ms]";
+    }
+
+    /**
+     * Tracks the original request and its hedge until one of them wins
+     */
+    private final class Race {
+
+        private final Request request;
+
+        private final HttpTransport transport;
+
+        private final HttpWorkerAbstract primary;
+
+        private HttpWorkerAbstract secondary = null;
+
+        private Future<Void> hedgeTask = null;
+
+        private Response winner = null;
+
+        private boolean primaryDone = false;
+
+        private boolean hedgeStarted = false;
+
+        private boolean hedgeDone = false;
+
+        private Race(final Request request, final HttpTransport transport, final HttpWorkerAbstract primary) {
+            this.request = request;
+            this.transport = transport;
+            this.primary = primary;
+        }
+
+        /**
+         * Starts the hedge on the transport's executor unless the original request already completed
+         *
+         * @param hedgeBudget
+         */
+        private void hedge(final RetryBudget hedgeBudget) {
+
+            synchronized (this) {
+
+                if (primaryDone || (null != hedgeBudget && !hedgeBudget.tryAcquire())) {
+                    return;
+                }
+
+                hedgeStarted = true;
+                hedgeCount.incrementAndGet();
+
+                try {
+
+                    hedgeTask = transport.submit(new Callable<Void>() {
+
+                        public Void call() {
+                            runHedge();
+                            return null;
+                        }
+                    });
+
+                    return;
+
+                } catch (RuntimeException e) {
+                    log.debug("Unable to send the hedge", e);
+                }
+            }
+
+            hedgeCompleted(null);
+        }
+
+        /**
+         * Runs the hedge on the calling thread if it is still waiting for an executor thread
+         *
+         * The original request may itself run on the transport's executor. If every thread is
+         * busy waiting for a hedge in the same way, the queued hedges would never run.
+         */
+        private void runQueuedHedge() {
+
+            synchronized (this) {
+
+                primaryDone = true;
+
+                if (null == hedgeTask || null != secondary || !hedgeTask.cancel(false)) {
+                    return;
+                }
+            }
+
+            runHedge();
+        }
+
+        private void runHedge() {
+
+            Response response = null;
+
+            try {
+
+                final HttpWorkerAbstract worker = HttpWorkerAbstract.getWorkerStrategy(getHedgeRequest(request), transport);
+
+                synchronized (this) {
+
+                    if (null != winner) {
+                        hedgeDone = true;
+                        notifyAll();
+                        return;
+                    }
+
+                    secondary = worker;
+                }
+
+                worker.execute();
+                response = worker.getResponse();
+
+            } catch (RuntimeException e) {
+                log.debug("The hedge of " + request.getRawUrl() + " failed", e);
+            }
+
+            hedgeCompleted(response);
+        }
+
+        private synchronized void hedgeCompleted(final Response response) {
+
+            hedgeDone = true;
+
+            if (null != response && null == winner) {
+                winner = response;
+                hedgeWinCount.incrementAndGet();
+                primary.abort();
+            }
+
+            notifyAll();
+        }
+
+        /**
+         * Settles the race once the original request has returned or failed
+         *
+         * @param failure Why the original request failed, or null if it succeeded
+         * @param elapsedNanos
+         * @return
+         * @throws HibiscusException
+         */
+        private synchronized Response complete(final RuntimeException failure, final long elapsedNanos) throws HibiscusException {
+
+            primaryDone = true;
+
+            if (null == failure || null != winner) {
+                /* Hedged requests are recorded when they lose too, as a lower bound of their latency */
+                latencies.record(elapsedNanos);
+            }
+
+            if (null == failure && null == winner) {
+
+                winner = primary.getResponse();
+
+                if (null != secondary) {
+                    secondary.abort();
+                }
+            }
+
+            try {
+
+                while (null == winner && hedgeStarted && !hedgeDone) {
+                    wait();
+                }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HibiscusException("Interrupted while waiting for the hedged request", e);
+            }
+
+            if (null != winner) {
+                return winner;
+            }
+
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.http.workers.HttpPipeline;
+import org.aicer.hibiscus.http.workers.HttpWorkerAbstract;
+
+
+/**
+ * Sends a group of requests in parallel with bounded concurrency
+ *
+ * Requests are immutable Request objects sent through the batch's transport, so all of them
+ * share the pooled connections of that transport. Configured HttpClient instances may also be
+ * added, in which case a snapshot of the client is sent through the client's own transport.
+ *
+ * Results are returned in the order the requests were added. In collect-all mode every request
+ * is attempted and failures are reported on the individual results. In fail-fast mode the first
+ * failure aborts the requests that are still in flight, closing their connections, cancels those
+ * that have not started and is thrown to the caller.
+ *
+ * With pipelining enabled, GET and HEAD requests to the same server are pipelined over a
+ * single keep-alive connection.
+ *
+ */
+public class HttpBatch {
+
+    public static final int DEFAULT_CONCURRENCY = 16;
+
+    public static final int DEFAULT_PIPELINE_DEPTH = 16;
+
+    private final List<Request> requests = new ArrayList<Request>();
+
+    private final List<HttpTransport> transports = new ArrayList<HttpTransport>();
+
+    private final HttpTransport transport;
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+    private boolean failFast = false;
+
+    private boolean pipelining = false;
+
+    private int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+
+    /**
+     * Creates a batch that sends its requests through the process-wide shared transport
+     */
+    public HttpBatch() {
+        this(HttpTransport.getSharedTransport());
+    }
+
+    /**
+     * Creates a batch that sends its requests through the specified transport
+     *
+     * @param transport
+     */
+    public HttpBatch(final HttpTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Sends all the requests in parallel and waits for them to complete
+     *
+     * @param requests
+     * @param concurrency Maximum number of requests in flight at the same time
+     * @return The results in the same order as the requests
+     * @throws HibiscusException
+     */
+    public static List<BatchResult> executeAll(final Collection<Request> requests, final int concurrency) throws HibiscusException {
+        return executeAll(HttpTransport.getSharedTransport(), requests, concurrency);
+    }
+
+    /**
+     * Sends all the requests through the specified transport in parallel and waits for them to complete
+     *
+     * @param transport
+     * @param requests
+     * @param concurrency Maximum number of requests in flight at the same time
+     * @return The results in the same order as the requests
+     * @throws HibiscusException
+     */
+    public static List<BatchResult> executeAll(final HttpTransport transport, final Collection<Request> requests, final int concurrency) throws HibiscusException {
+
+        final HttpBatch batch = new HttpBatch(transport).setConcurrency(concurrency);
+
+        for (final Request request : requests) {
+            batch.add(request);
+        }
+
+        return batch.execute();
+    }
+
+    public HttpBatch add(final Request request) {
+        requests.add(request);
+        transports.add(transport);
+        return this;
+    }
+
+    /**
+     * Adds a snapshot of the request currently described by the client
+     *
+     * @param client
+     * @return
+     * @throws HibiscusException
+     */
+    public HttpBatch add(final HttpClient client) throws HibiscusException {
+        requests.add(client.toRequest());
+        transports.add(client.getTransport());
+        return this;
+    }
+
+    public List<Request> getRequests() {
+        return requests;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets the maximum number of requests in flight at the same time
+     *
+     * @param concurrency
+     * @return
+     * @throws HibiscusException If the concurrency is less than 1
+     */
+    public HttpBatch setConcurrency(final int concurrency) throws HibiscusException {
+
+        if (concurrency < 1) {
+            throw new HibiscusException("The batch concurrency must be at least 1");
+        }
+
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    /**
+     * Whether the first failed request aborts the whole batch
+     *
+     * @param failFast
+     * @return
+     */
+    public HttpBatch setFailFast(final boolean failFast) {
+        this.failFast = failFast;
+        return this;
+    }
+
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    /**
+     * Whether GET and HEAD requests to the same server are pipelined over one connection
+     *
+     * Each pipeline writes its requests back to back and reads the responses in order, saving a
+     * round trip per request on high-latency links. A pipeline occupies one slot of the batch
+     * concurrency. Requests left unanswered when the server closes the connection are sent again
+     * one at a time. Only enable pipelining for servers known to support it.
+     *
+     * @param pipelining
+     * @return
+     */
+    public HttpBatch setPipelining(final boolean pipelining) {
+        this.pipelining = pipelining;
+        return this;
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * Sets the maximum number of requests written to a connection before their responses are read
+     *
+     * @param pipelineDepth
+     * @return
+     * @throws HibiscusException If the depth is less than 2
+     */
+    public HttpBatch setPipelineDepth(final int pipelineDepth) throws HibiscusException {
+
+        if (pipelineDepth < 2) {
+            throw new HibiscusException("The pipeline depth must be at least 2");
+        }
+
+        this.pipelineDepth = pipelineDepth;
+        return this;
+    }
+
+    /**
+     * Sends all the requests and waits for them to complete
+     *
+     * @return The results in the same order as the requests were added
+     * @throws HibiscusException In fail-fast mode, the first failure encountered
+     */
+    public List<BatchResult> execute() throws HibiscusException {
+
+        final int size = requests.size();
+        final List<int[]> units = getUnits();
+        final BatchResult[] results = new BatchResult[size];
+        final List<Future<Response>> futures = new ArrayList<Future<Response>>(units.size());
+        final List<HttpWorkerAbstract> workers = new ArrayList<HttpWorkerAbstract>(units.size());
+        final List<HttpPipeline> pipelines = new ArrayList<HttpPipeline>();
+        final BlockingQueue<BatchResult> completed = new LinkedBlockingQueue<BatchResult>();
+        final Semaphore permits = new Semaphore(concurrency);
+
+        int submitted = 0;
+        int finished = 0;
+        HibiscusException failure = null;
+
+        try {
+
+            for (final int[] unit : units) {
+
+                permits.acquire();
+
+                /* Collects whatever finished while we were waiting for a free slot */
+                BatchResult result = null;
+
+                while (null != (result = completed.poll())) {
+
+                    results[result.getIndex()] = result;
+                    finished++;
+
+                    if (null == failure && !result.isSuccessful()) {
+                        failure = result.getException();
+                    }
+                }
+
+                if (failFast && null != failure) {
+                    break;
+                }
+
+                submitted += unit.length;
+
+                /* Each unit holds one slot until all of its requests have completed */
+                final AtomicInteger pending = new AtomicInteger(unit.length);
+
+                if (unit.length == 1) {
+
+                    final Request request = requests.get(unit[0]);
+                    final HttpTransport transport = transports.get(unit[0]);
+                    final ResponseCallback callback = newCallback(unit[0], completed, permits, pending);
+
+                    try {
+
+                        /* Keeps the worker so that failing fast can abort its exchange, interrupts do not stop blocking reads */
+                        if (transport.isShared(request)) {
+                            futures.add(transport.executeAsync(request, callback));
+                        } else {
+
+                            final HttpWorkerAbstract worker = HttpWorkerAbstract.getWorkerStrategy(request, transport);
+
+                            workers.add(worker);
+                            futures.add(worker.executeAsync(callback));
+                        }
+
+                    } catch (HibiscusException e) {
+                        callback.failed(e);
+                    }
+
+                    continue;
+                }
+
+                final HttpPipeline pipeline = new HttpPipeline(transports.get(unit[0]));
+
+                pipelines.add(pipeline);
+
+                for (final int index : unit) {
+                    pipeline.add(requests.get(index), newCallback(index, completed, permits, pending));
+                }
+
+                try {
+
+                    futures.add(transports.get(unit[0]).submit(new Callable<Response>() {
+
+                        public Response call() {
+                            pipeline.execute();
+                            return null;
+                        }
+                    }));
+
+                } catch (HibiscusException e) {
+
+                    for (final int index : unit) {
+                        completed.add(new BatchResult(index, requests.get(index), null, e, 0));
+                    }
+
+                    permits.release();
+                }
+            }
+
+            while (finished < submitted && !(failFast && null != failure)) {
+
+                final BatchResult result = completed.take();
+
+                results[result.getIndex()] = result;
+                finished++;
+
+                if (null == failure && !result.isSuccessful()) {
+                    failure = result.getException();
+                }
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(futures, workers, pipelines);
+            throw new HibiscusException("Interrupted while waiting for the batch to complete", e);
+        }
+
+        if (failFast && null != failure) {
+            abort(futures, workers, pipelines);
+            throw failure;
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Groups the requests into the units sent together, in the order the requests were added
+     *
+     * Without pipelining every request is a unit of its own. With pipelining, the requests that
+     * can be pipelined are grouped by transport and server, up to the pipeline depth per unit.
+     *
+     * @return The indexes of the requests of each unit
+     */
+    private List<int[]> getUnits() {
+
+        final List<int[]> units = new ArrayList<int[]>();
+        final Map<List<Object>, List<Integer>> pipelines = new LinkedHashMap<List<Object>, List<Integer>>();
+
+        for (int index = 0; index < requests.size(); index++) {
+
+            final Request request = requests.get(index);
+            final HttpTransport requestTransport = transports.get(index);
+
+            if (!pipelining || !HttpPipeline.isPipelinable(request, requestTransport)) {
+                units.add(new int[] { index });
+                continue;
+            }
+
+            final List<Object> key = Arrays.<Object> asList(requestTransport, HttpPipeline.getTarget(request));
+
+            List<Integer> pipeline = pipelines.get(key);
+
+            if (null == pipeline) {
+                pipeline = new ArrayList<Integer>();
+                pipelines.put(key, pipeline);
+            }
+
+            pipeline.add(index);
+
+            if (pipeline.size() == pipelineDepth) {
+                units.add(toArray(pipeline));
+                pipelines.remove(key);
+            }
+        }
+
+        for (final List<Integer> pipeline : pipelines.values()) {
+            units.add(toArray(pipeline));
+        }
+
+        return units;
+    }
+
+    private static int[] toArray(final List<Integer> indexes) {
+
+        final int[] array = new int[indexes.size()];
+
+        for (int i = 0; i < array.length; i++) {
+            array[i] = indexes.get(i);
+        }
+
+        return array;
+    }
+
+    /**
+     * Returns a callback queueing the result of a request, which frees the slot of its unit once all the unit's requests completed
+     */
+    private ResponseCallback newCallback(final int index, final BlockingQueue<BatchResult> completed, final Semaphore permits,
+            final AtomicInteger pending) {
+
+        final Request request = requests.get(index);
+        final long startTime = System.nanoTime();
+
+        return new ResponseCallback() {
+
+            public void completed(final Response response) {
+                finish(new BatchResult(index, request, response, null, elapsedSince(startTime)));
+            }
+
+            public void failed(final HibiscusException e) {
+                finish(new BatchResult(index, request, null, e, elapsedSince(startTime)));
+            }
+
+            private void finish(final BatchResult result) {
+
+                completed.add(result);
+
+                if (pending.decrementAndGet() == 0) {
+                    permits.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * Aborts the exchanges still in flight and cancels the requests that have not started
+     *
+     * Coalesced and hedged requests are only cancelled, they may be shared with other callers.
+     */
+    private static void abort(final List<Future<Response>> futures, final List<HttpWorkerAbstract> workers, final List<HttpPipeline> pipelines) {
+
+        for (final Future<Response> future : futures) {
+            future.cancel(true);
+        }
+
+        for (final HttpWorkerAbstract worker : workers) {
+            worker.abort();
+        }
+
+        for (final HttpPipeline pipeline : pipelines) {
+            pipeline.abort();
+        }
+    }
+
+    private static long elapsedSince(final long startTime) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+}
@@ -17,13 +17,19 @@
  */
 package org.aicer.hibiscus.http.client;
 
+import java.io.File;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.aicer.hibiscus.exception.HibiscusException;
-import org.aicer.hibiscus.http.workers.HttpWorkerAbstract;
+import org.aicer.hibiscus.http.entity.ByteBufferEntity;
+import org.aicer.hibiscus.http.entity.JsonEntity;
+import org.apache.http.HttpEntity;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
@@ -31,9 +37,15 @@ import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.log4j.Logger;
 
+import com.google.gson.Gson;
+
 
 public class HttpClient {
 
@@ -72,10 +84,16 @@ public class HttpClient {
 
     private String requestBody = null;
 
+    private HttpEntity requestEntity = null;
+
     private String lastRequest = null;
 
     private Response lastResponse = null;
 
+    private ResponseBodyHandler responseBodyHandler = null;
+
+    private boolean streamingResponse = false;
+
     private final List <String> validHttpRequestMethods = new ArrayList<String>();
     private final List <BasicNameValuePair> nameValuePairs = new ArrayList <BasicNameValuePair>();
     private final List <BasicNameValuePair> queryParameters = new ArrayList <BasicNameValuePair>();
@@ -83,7 +101,44 @@ public class HttpClient {
 
     private String rawUrl;
 
+    private final HttpTransport transport;
+
+    private final boolean ownsTransport;
+
+    /**
+     * Creates a client backed by the process-wide shared transport
+     */
     public HttpClient() {
+        this(HttpTransport.getSharedTransport(), false);
+    }
+
+    /**
+     * Creates a client backed by the specified transport
+     *
+     * The transport is managed by the caller and is not shut down when this client is closed
+     *
+     * @param transport
+     */
+    public HttpClient(final HttpTransport transport) {
+        this(transport, false);
+    }
+
+    /**
+     * Creates a client with its own connection pool
+     *
+     * The pool is shut down when this client is closed
+     *
+     * @param maxTotalConnections Maximum number of pooled connections across all routes
+     * @param maxConnectionsPerRoute Maximum number of pooled connections per scheme, host and port
+     */
+    public HttpClient(final int maxTotalConnections, final int maxConnectionsPerRoute) {
+        this(new HttpTransport(maxTotalConnections, maxConnectionsPerRoute), true);
+    }
+
+    private HttpClient(final HttpTransport transport, final boolean ownsTransport) {
+
+        this.transport = transport;
+        this.ownsTransport = ownsTransport;
 
         validHttpRequestMethods.add(HEAD);
         validHttpRequestMethods.add(GET);
@@ -106,6 +161,10 @@ public class HttpClient {
         lastResponse = null;
 
         requestBody = null;
+        requestEntity = null;
+
+        responseBodyHandler = null;
+        streamingResponse = false;
 
         encoding = DEFAULT_HTTP_ENCODING;
 
@@ -170,6 +229,108 @@ public class HttpClient {
 
     public final HttpClient setRequestBody(final String requestBody) {
         this.requestBody = requestBody;
+        this.requestEntity = null;
+        return this;
+    }
+
+    /**
+     * Streams the request body from the specified input stream using chunked transfer encoding
+     *
+     * The stream is read once while the request is sent and is closed afterwards
+     *
+     * @param requestBody
+     * @return
+     */
+    public final HttpClient setRequestBody(final InputStream requestBody) {
+        return setRequestBody(requestBody, -1);
+    }
+
+    /**
+     * Streams the request body from the specified input stream
+     *
+     * @param requestBody
+     * @param contentLength Number of bytes to send, or a negative value to use chunked transfer encoding
+     * @return
+     */
+    public final HttpClient setRequestBody(final InputStream requestBody, final long contentLength) {
+
+        final InputStreamEntity entity = new InputStreamEntity(requestBody, contentLength, ContentType.APPLICATION_OCTET_STREAM);
+
+        entity.setChunked(contentLength < 0);
+
+        return setRequestEntity(entity);
+    }
+
+    /**
+     * Streams the request body from the specified file with a known Content-Length
+     *
+     * The file is read in small blocks while the request is sent and is never held in memory
+     *
+     * @param requestBody
+     * @return
+     */
+    public final HttpClient setRequestBody(final File requestBody) {
+        return setRequestEntity(new FileEntity(requestBody, ContentType.APPLICATION_OCTET_STREAM));
+    }
+
+    /**
+     * Sends the specified bytes as the request body without copying them
+     *
+     * @param requestBody
+     * @return
+     */
+    public final HttpClient setRequestBody(final byte[] requestBody) {
+        return setRequestEntity(new ByteArrayEntity(requestBody, ContentType.APPLICATION_OCTET_STREAM));
+    }
+
+    /**
+     * Sends the remaining bytes of the specified buffer as the request body
+     *
+     * @param requestBody
+     * @return
+     */
+    public final HttpClient setRequestBody(final ByteBuffer requestBody) {
+        return setRequestEntity(new ByteBufferEntity(requestBody));
+    }
+
+    /**
+     * Sends the specified object serialized as JSON, written straight onto the connection
+     *
+     * The Content-Type is set to application/json. The body is sent with chunked transfer encoding.
+     *
+     * @param requestBody The object to send
+     * @return
+     */
+    public final HttpClient setJsonRequestBody(final Object requestBody) {
+        return setRequestEntity(new JsonEntity(requestBody));
+    }
+
+    /**
+     * Sends the specified object serialized as JSON with the specified Gson instance
+     *
+     * @param requestBody The object to send
+     * @param gson A Gson instance that may be shared between requests
+     * @return
+     */
+    public final HttpClient setJsonRequestBody(final Object requestBody, final Gson gson) {
+        return setRequestEntity(new JsonEntity(requestBody, gson));
+    }
+
+    public final HttpEntity getRequestEntity() {
+        return requestEntity;
+    }
+
+    /**
+     * Sends the specified entity as the request body
+     *
+     * Used by Entity-Enclosing HTTP Requests. Takes precedence over String bodies and name-value pairs.
+     *
+     * @param requestEntity
+     * @return
+     */
+    public final HttpClient setRequestEntity(final HttpEntity requestEntity) {
+        this.requestEntity = requestEntity;
+        this.requestBody = null;
         return this;
     }
 
@@ -230,6 +391,7 @@ public class HttpClient {
     public final HttpClient resetRequestBody() {
         this.resetNameValuePairs();
         this.requestBody = null;
+        this.requestEntity = null;
         return this;
     }
 
@@ -346,6 +508,69 @@ public class HttpClient {
         return query;
     }
 
+    /**
+     * Takes an immutable snapshot of the request currently described by this client
+     *
+     * The snapshot can be shared between threads and executed through any transport
+     *
+     * @return
+     * @throws HibiscusException If no URL has been set
+     */
+    public Request toRequest() throws HibiscusException {
+
+        final Request.Builder builder = new Request.Builder()
+                .setRequestMethod(requestMethod)
+                .setRawUrl(getRequestUrl())
+                .setEncoding(encoding)
+                .setResponseBodyHandler(responseBodyHandler)
+                .setStreamingResponse(streamingResponse);
+
+        for (final BasicNameValuePair header : requestHeaders) {
+            builder.addHeader(header.getName(), header.getValue());
+        }
+
+        if (null != requestEntity) {
+            builder.setRequestEntity(requestEntity);
+        } else {
+            builder.setRequestBody(getRequestBody());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Returns the raw URL if one was set, otherwise builds it from the individual URI components
+     *
+     * @return
+     * @throws HibiscusException
+     */
+    private String getRequestUrl() throws HibiscusException {
+
+        if (null != rawUrl) {
+            return rawUrl;
+        }
+
+        final URIBuilder builder = new URIBuilder()
+                .setScheme(scheme)
+                .setHost(host)
+                .setPath(path)
+                .setFragment(fragment);
+
+        if (port > 0) {
+            builder.setPort(port);
+        }
+
+        for (final BasicNameValuePair nvp : queryParameters) {
+            builder.addParameter(nvp.getName(), nvp.getValue());
+        }
+
+        try {
+            return builder.build().toString();
+        } catch (URISyntaxException e) {
+            throw new HibiscusException(e);
+        }
+    }
+
     /**
      * Retrieves the HTTP worker and makes the request to the server
      *
@@ -356,17 +581,97 @@ public class HttpClient {
      */
     public HttpClient execute() throws HibiscusException {
 
-        HttpWorkerAbstract httpWorker = HttpWorkerAbstract.getWorkerStrategy(requestMethod, this);
+        lastResponse = transport.execute(toRequest());
 
-        httpWorker.execute();
+        return this;
+    }
 
-        lastResponse = httpWorker.getResponse();
+    /**
+     * Makes the request and hands the response body to the specified handler
+     *
+     * The handler only applies to this request and takes precedence over the body handling
+     * configured on this client
+     *
+     * @param handler
+     * @return
+     * @throws HibiscusException
+     */
+    public HttpClient execute(final ResponseBodyHandler handler) throws HibiscusException {
 
-        lastResponse.setElapsedTime(httpWorker.getResponseTime());
+        lastResponse = transport.execute(toRequest(), handler);
 
         return this;
     }
 
+    /**
+     * Makes the request and binds the JSON body of a successful response to the handler's type
+     *
+     * The body is streamed into the object without being read into a String first. Unsuccessful
+     * responses are read into the response body of the last response instead.
+     *
+     * @param handler A handler that may be shared between requests
+     * @return The bound object, or null if the response was unsuccessful or its body empty
+     * @throws HibiscusException If the request failed or the body is not valid JSON for the type
+     */
+    public <T> T executeJson(final JsonResponseBodyHandler<T> handler) throws HibiscusException {
+
+        execute(handler);
+
+        return lastResponse.<T> getResponseObject();
+    }
+
+    /**
+     * Makes the request and binds the JSON body of a successful response to the specified class
+     *
+     * @param type The class, or JsonElement to keep the parse tree
+     * @return The bound object, or null if the response was unsuccessful or its body empty
+     * @throws HibiscusException If the request failed or the body is not valid JSON for the type
+     */
+    public <T> T executeJson(final Class<T> type) throws HibiscusException {
+        return executeJson(new JsonResponseBodyHandler<T>(type));
+    }
+
+    /**
+     * Makes the request and writes a successful response body directly to the specified file
+     *
+     * The number of bytes written and the transfer throughput are reported on the response.
+     * Unsuccessful responses are read into the response body instead and the file is left untouched.
+     *
+     * @param file
+     * @return
+     * @throws HibiscusException
+     */
+    public HttpClient executeToFile(final File file) throws HibiscusException {
+        return execute(new FileResponseBodyHandler(file));
+    }
+
+    /**
+     * Sends the request without blocking the calling thread
+     *
+     * The request is built from the current state of this client before the method returns.
+     * The response is not recorded as the last response of this client.
+     *
+     * @return A future holding the response from the server
+     * @throws HibiscusException If the request could not be prepared
+     */
+    public Future<Response> executeAsync() throws HibiscusException {
+        return executeAsync(null);
+    }
+
+    /**
+     * Sends the request without blocking the calling thread
+     *
+     * The callback is invoked on one of the transport's worker threads.
+     *
+     * @param callback Notified when the request completes or fails, may be null
+     * @return A future holding the response from the server
+     * @throws HibiscusException If the request could not be prepared
+     */
+    public Future<Response> executeAsync(final ResponseCallback callback) throws HibiscusException {
+
+        return transport.executeAsync(toRequest(), callback);
+    }
+
     public String getRequestMethod() {
         return requestMethod;
     }
@@ -403,4 +708,61 @@ public class HttpClient {
         this.rawUrl = rawUrl;
         return this;
     }
+
+    public ResponseBodyHandler getResponseBodyHandler() {
+        return responseBodyHandler;
+    }
+
+    /**
+     * Hands the response body to the specified handler instead of reading it into a String
+     *
+     * The connection is released once the handler returns
+     *
+     * @param responseBodyHandler The handler or null to read the body into the response
+     * @return
+     */
+    public HttpClient setResponseBodyHandler(final ResponseBodyHandler responseBodyHandler) {
+        this.responseBodyHandler = responseBodyHandler;
+        return this;
+    }
+
+    public boolean isStreamingResponse() {
+        return streamingResponse;
+    }
+
+    /**
+     * Leaves the response body on the connection for the caller to read
+     *
+     * The body is then available from Response.getResponseStream() and the connection is only
+     * released once that stream has been closed, so callers must always close it.
+     *
+     * @param streamingResponse
+     * @return
+     */
+    public HttpClient setStreamingResponse(final boolean streamingResponse) {
+        this.streamingResponse = streamingResponse;
+        return this;
+    }
+
+    /**
+     * Returns the transport used to send requests to the server
+     *
+     * @return
+     */
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Releases the resources held by this client
+     *
+     * Only a connection pool created by this client itself is shut down.
+     * Shared or caller-supplied transports are left open.
+     */
+    public void close() {
+
+        if (ownsTransport) {
+            transport.close();
+        }
+    }
 }
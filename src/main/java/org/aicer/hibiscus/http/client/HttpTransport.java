@@ -0,0 +1,686 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.http.balancer.LoadBalancer;
+import org.aicer.hibiscus.http.cache.ResponseCache;
+import org.aicer.hibiscus.http.http2.Http2Transport;
+import org.aicer.hibiscus.http.metrics.LatencyRecorder;
+import org.aicer.hibiscus.http.metrics.TimingConnectionManager;
+import org.aicer.hibiscus.http.metrics.TimingRequestExecutor;
+import org.aicer.hibiscus.http.metrics.TimingSocketFactory;
+import org.aicer.hibiscus.http.workers.HttpWorkerAbstract;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Pooled HTTP transport shared by the workers
+ *
+ * The transport is also the thread-safe client for immutable Request objects: one instance
+ * per service can be shared by every thread and returns each Response directly.
+ *
+ * Keeps a single connection manager and request client alive so that keep-alive
+ * connections are reused across requests instead of being re-established each time.
+ *
+ * Asynchronous requests are run on a bounded executor owned by the transport, so they share
+ * the same pool of keep-alive connections as blocking requests.
+ *
+ * Instances are thread-safe and are meant to be long-lived. Call close() to release the
+ * pooled sockets once the transport is no longer needed.
+ *
+ */
+public class HttpTransport {
+
+    private static final Logger log = Logger.getLogger(HttpTransport.class);
+
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 200;
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+    public static final int DEFAULT_ASYNC_THREADS = 32;
+
+    private static HttpTransport sharedTransport = null;
+
+    private final TimingConnectionManager connectionManager;
+
+    private final DefaultHttpClient requestClient;
+
+    private ExecutorService executor = null;
+
+    private boolean ownsExecutor = false;
+
+    private int asyncThreads = DEFAULT_ASYNC_THREADS;
+
+    private volatile RequestIdGenerator requestIdGenerator = new SequentialRequestIdGenerator();
+
+    private volatile boolean responseDecompression = true;
+
+    private volatile ResponseCache responseCache = null;
+
+    private volatile long requestCompressionThreshold = -1;
+
+    private volatile RequestCoalescer requestCoalescer = null;
+
+    private volatile LatencyRecorder latencyRecorder = null;
+
+    private volatile RetryPolicy retryPolicy = null;
+
+    private volatile CircuitBreakerRegistry circuitBreakerRegistry = null;
+
+    private volatile HedgingPolicy hedgingPolicy = null;
+
+    private volatile Http2Transport http2Transport = null;
+
+    private final ConcurrentMap<String, LoadBalancer> loadBalancers = new ConcurrentHashMap<String, LoadBalancer>();
+
+    private volatile boolean closed = false;
+
+    public HttpTransport() {
+        this(DEFAULT_MAX_TOTAL_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+    }
+
+    /**
+     * Creates a transport with the specified pool limits
+     *
+     * @param maxTotalConnections Maximum number of pooled connections across all routes
+     * @param maxConnectionsPerRoute Maximum number of pooled connections per scheme, host and port
+     */
+    public HttpTransport(final int maxTotalConnections, final int maxConnectionsPerRoute) {
+
+        // Creates a registry for HTTP and HTTPS setting default ports to 80 and 443 respectively for these schemes
+        // HTTP uses org.apache.http.conn.scheme.PlainSocketFactory
+        // HTTPS uses org.apache.http.conn.ssl.SSLSocketFactory
+        // The socket factories and connection manager are instrumented to time each phase of a request
+        final SchemeRegistry registry = TimingSocketFactory.instrument(SchemeRegistryFactory.createDefault());
+
+        connectionManager = new TimingConnectionManager(registry, new SystemDefaultDnsResolver());
+        connectionManager.setMaxTotal(maxTotalConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        // This is necessary because of https://issues.apache.org/jira/browse/HTTPCLIENT-1193
+        // We cannot use the Default constructor without overriding the connection manager from the default
+        requestClient = new DefaultHttpClient(connectionManager) {
+
+            @Override
+            protected HttpRequestExecutor createRequestExecutor() {
+                return new TimingRequestExecutor();
+            }
+        };
+    }
+
+    /**
+     * Returns the process-wide transport used by clients that were not given one explicitly
+     *
+     * @return
+     */
+    public static synchronized HttpTransport getSharedTransport() {
+
+        if (null == sharedTransport || sharedTransport.isClosed()) {
+            sharedTransport = new HttpTransport();
+        }
+
+        return sharedTransport;
+    }
+
+    /**
+     * Sends the request and waits for the response
+     *
+     * If request coalescing is enabled, identical GET and HEAD requests already in flight are
+     * awaited instead of being sent again. If a hedging policy is set, GET and HEAD requests
+     * that are slow to complete are raced against a duplicate.
+     *
+     * @param request
+     * @return
+     * @throws HibiscusException
+     */
+    public Response execute(final Request request) throws HibiscusException {
+
+        final RequestCoalescer requestCoalescer = this.requestCoalescer;
+
+        if (null != requestCoalescer && RequestCoalescer.isCoalescable(request)) {
+
+            return requestCoalescer.execute(request, new Callable<Response>() {
+
+                public Response call() throws HibiscusException {
+                    return send(request);
+                }
+            });
+        }
+
+        return send(request);
+    }
+
+    private Response send(final Request request) throws HibiscusException {
+
+        final HedgingPolicy hedgingPolicy = this.hedgingPolicy;
+
+        if (null != hedgingPolicy && HedgingPolicy.isHedgeable(request)) {
+            return hedgingPolicy.execute(request, this);
+        }
+
+        final HttpWorkerAbstract httpWorker = HttpWorkerAbstract.getWorkerStrategy(request, this);
+
+        httpWorker.execute();
+
+        return httpWorker.getResponse();
+    }
+
+    /**
+     * Sends the request and hands the response body to the specified handler
+     *
+     * The handler takes precedence over the body handling configured on the request. Since the
+     * handler consumes the body, such requests are never coalesced or hedged.
+     *
+     * @param request
+     * @param handler The handler, or null to send the request as execute(Request) does
+     * @return
+     * @throws HibiscusException
+     */
+    public Response execute(final Request request, final ResponseBodyHandler handler) throws HibiscusException {
+
+        if (null == handler) {
+            return execute(request);
+        }
+
+        final HttpWorkerAbstract httpWorker = HttpWorkerAbstract.getWorkerStrategy(request, this);
+
+        httpWorker.execute(handler);
+
+        return httpWorker.getResponse();
+    }
+
+    /**
+     * Sends the request without blocking the calling thread
+     *
+     * @param request
+     * @return A future holding the response from the server
+     * @throws HibiscusException If the request could not be prepared
+     */
+    public Future<Response> executeAsync(final Request request) throws HibiscusException {
+        return executeAsync(request, null);
+    }
+
+    /**
+     * Sends the request without blocking the calling thread
+     *
+     * The callback is invoked on one of the transport's worker threads. Requests are coalesced
+     * and hedged as they are by execute(Request). Such requests are prepared on the worker
+     * thread, so failures to prepare them are reported to the callback and the future.
+     *
+     * @param request
+     * @param callback Notified when the request completes or fails, may be null
+     * @return A future holding the response from the server
+     * @throws HibiscusException If the request could not be prepared
+     */
+    public Future<Response> executeAsync(final Request request, final ResponseCallback callback) throws HibiscusException {
+
+        if (!isShared(request)) {
+            return HttpWorkerAbstract.getWorkerStrategy(request, this).executeAsync(callback);
+        }
+
+        return submit(new Callable<Response>() {
+
+            public Response call() throws HibiscusException {
+
+                final Response response;
+
+                try {
+                    response = execute(request);
+                } catch (RuntimeException e) {
+
+                    final HibiscusException failure = (e instanceof HibiscusException) ? (HibiscusException) e : new HibiscusException(e);
+
+                    if (null != callback) {
+                        callback.failed(failure);
+                    }
+
+                    throw failure;
+                }
+
+                if (null != callback) {
+                    callback.completed(response);
+                }
+
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Whether the request may be coalesced or hedged, which only execute(Request) arranges
+     *
+     * Such requests are not sent by a worker of their own, so they cannot be aborted through one.
+     */
+    boolean isShared(final Request request) {
+        return (null != requestCoalescer && RequestCoalescer.isCoalescable(request))
+                || (null != hedgingPolicy && HedgingPolicy.isHedgeable(request));
+    }
+
+    /**
+     * Returns the underlying request client backed by the connection pool
+     *
+     * @return
+     * @throws HibiscusException If the transport has already been closed
+     */
+    public DefaultHttpClient getRequestClient() throws HibiscusException {
+
+        if (closed) {
+            throw new HibiscusException("The HTTP transport has already been closed");
+        }
+
+        return requestClient;
+    }
+
+    public int getMaxTotalConnections() {
+        return connectionManager.getMaxTotal();
+    }
+
+    public HttpTransport setMaxTotalConnections(final int maxTotalConnections) {
+        connectionManager.setMaxTotal(maxTotalConnections);
+        return this;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return connectionManager.getDefaultMaxPerRoute();
+    }
+
+    public HttpTransport setMaxConnectionsPerRoute(final int maxConnectionsPerRoute) {
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        return this;
+    }
+
+    public synchronized int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    /**
+     * Sets the number of threads used to run asynchronous requests
+     *
+     * Only takes effect if the executor has not been created yet
+     *
+     * @param asyncThreads
+     * @return
+     */
+    public synchronized HttpTransport setAsyncThreads(final int asyncThreads) {
+        this.asyncThreads = asyncThreads;
+        return this;
+    }
+
+    /**
+     * Runs asynchronous requests on the specified executor instead of the built-in one
+     *
+     * The executor is managed by the caller and is not shut down when the transport is closed
+     *
+     * @param executor
+     * @return
+     */
+    public synchronized HttpTransport setExecutor(final ExecutorService executor) {
+
+        if (ownsExecutor && null != this.executor) {
+            this.executor.shutdown();
+        }
+
+        this.executor = executor;
+        this.ownsExecutor = false;
+
+        return this;
+    }
+
+    /**
+     * Submits a task to the executor used for asynchronous requests
+     *
+     * @param task
+     * @return
+     * @throws HibiscusException If the transport has already been closed
+     */
+    public <T> Future<T> submit(final Callable<T> task) throws HibiscusException {
+        return getExecutor().submit(task);
+    }
+
+    private synchronized ExecutorService getExecutor() throws HibiscusException {
+
+        if (closed) {
+            throw new HibiscusException("The HTTP transport has already been closed");
+        }
+
+        if (null == executor) {
+            executor = Executors.newFixedThreadPool(asyncThreads, new TransportThreadFactory());
+            ownsExecutor = true;
+        }
+
+        return executor;
+    }
+
+    public RequestIdGenerator getRequestIdGenerator() {
+        return requestIdGenerator;
+    }
+
+    /**
+     * Sets the generator for the X-Conversation-Id header
+     *
+     * Requests that already carry the header keep the identifier supplied by the caller
+     *
+     * @param requestIdGenerator The generator or null to stop sending generated identifiers
+     * @return
+     */
+    public HttpTransport setRequestIdGenerator(final RequestIdGenerator requestIdGenerator) {
+        this.requestIdGenerator = requestIdGenerator;
+        return this;
+    }
+
+    public boolean isResponseDecompression() {
+        return responseDecompression;
+    }
+
+    /**
+     * Whether gzip and deflate responses are negotiated with Accept-Encoding and decoded transparently
+     *
+     * Enabled by default
+     *
+     * @param responseDecompression
+     * @return
+     */
+    public HttpTransport setResponseDecompression(final boolean responseDecompression) {
+        this.responseDecompression = responseDecompression;
+        return this;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Answers GET and HEAD requests from the specified cache when possible
+     *
+     * Streaming requests and requests with a response body handler always go to the server
+     *
+     * @param responseCache The cache or null to disable caching
+     * @return
+     */
+    public HttpTransport setResponseCache(final ResponseCache responseCache) {
+        this.responseCache = responseCache;
+        return this;
+    }
+
+    public RequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    /**
+     * Shares one upstream call between identical concurrent GET and HEAD requests
+     *
+     * Disabled by default. Coalesced callers each receive their own copy of the shared response.
+     *
+     * @param requestCoalescer The coalescer or null to send every request separately
+     * @return
+     */
+    public HttpTransport setRequestCoalescer(final RequestCoalescer requestCoalescer) {
+        this.requestCoalescer = requestCoalescer;
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Retries failed idempotent requests according to the specified policy
+     *
+     * While a policy is set it replaces the automatic retries of the underlying request client,
+     * so that failed requests are not retried at both levels.
+     *
+     * @param retryPolicy The policy or null to restore the default behaviour
+     * @return
+     */
+    public synchronized HttpTransport setRetryPolicy(final RetryPolicy retryPolicy) {
+
+        this.retryPolicy = retryPolicy;
+
+        requestClient.setHttpRequestRetryHandler((null != retryPolicy)
+                ? new DefaultHttpRequestRetryHandler(0, false) : new DefaultHttpRequestRetryHandler());
+
+        return this;
+    }
+
+    public CircuitBreakerRegistry getCircuitBreakerRegistry() {
+        return circuitBreakerRegistry;
+    }
+
+    /**
+     * Fails requests fast with a CircuitBreakerOpenException while their upstream is unhealthy
+     *
+     * Rejected requests are never sent and are not retried by the retry policy
+     *
+     * @param circuitBreakerRegistry The registry or null to always send requests
+     * @return
+     */
+    public HttpTransport setCircuitBreakerRegistry(final CircuitBreakerRegistry circuitBreakerRegistry) {
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        return this;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Sends a duplicate of GET and HEAD requests that are still outstanding after the policy's delay
+     *
+     * The first response wins and the other request is aborted. Hedges run on the transport's executor.
+     *
+     * @param hedgingPolicy The policy or null to never hedge requests
+     * @return
+     */
+    public HttpTransport setHedgingPolicy(final HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+        return this;
+    }
+
+    /**
+     * Sends requests addressed to the load balancer's service name to its endpoints
+     *
+     * Replaces any load balancer previously registered for the same service name
+     *
+     * @param loadBalancer
+     * @return
+     */
+    public HttpTransport addLoadBalancer(final LoadBalancer loadBalancer) {
+        loadBalancers.put(loadBalancer.getServiceName(), loadBalancer);
+        return this;
+    }
+
+    public HttpTransport removeLoadBalancer(final String serviceName) {
+        loadBalancers.remove(serviceName.toLowerCase(Locale.ENGLISH));
+        return this;
+    }
+
+    /**
+     * Returns the load balancer registered for a host name
+     *
+     * @param host
+     * @return The load balancer or null if the host is not a logical service
+     */
+    public LoadBalancer getLoadBalancer(final String host) {
+
+        if (null == host || loadBalancers.isEmpty()) {
+            return null;
+        }
+
+        return loadBalancers.get(host.toLowerCase(Locale.ENGLISH));
+    }
+
+    public DnsResolver getDnsResolver() {
+        return connectionManager.getDnsResolver();
+    }
+
+    /**
+     * Resolves the host names of new connections with the specified resolver
+     *
+     * A CachingDnsResolver keeps slow resolvers off the request path. Pooled connections keep
+     * the address they were opened with.
+     *
+     * @param dnsResolver The resolver, for instance a CachingDnsResolver
+     * @return
+     */
+    public HttpTransport setDnsResolver(final DnsResolver dnsResolver) {
+        connectionManager.setDnsResolver(dnsResolver);
+        return this;
+    }
+
+    public Http2Transport getHttp2Transport() {
+        return http2Transport;
+    }
+
+    /**
+     * Sends requests over HTTP/2 where the server supports it, multiplexing them over one connection per server
+     *
+     * https requests use HTTP/2 when the server selects it during the TLS handshake, and http
+     * requests only for the servers added with Http2Transport.addCleartextServer(). All other
+     * requests go through the HTTP/1.1 connection pool. The HTTP/2 transport is closed with this transport.
+     *
+     * @param http2Transport The HTTP/2 transport or null to only use HTTP/1.1
+     * @return
+     */
+    public HttpTransport setHttp2Transport(final Http2Transport http2Transport) {
+        this.http2Transport = http2Transport;
+        return this;
+    }
+
+    public LatencyRecorder getLatencyRecorder() {
+        return latencyRecorder;
+    }
+
+    /**
+     * Aggregates the phase timings of every request into histograms keyed by method and host
+     *
+     * Timings are available on each Response whether or not a recorder is set
+     *
+     * @param latencyRecorder The recorder or null to stop aggregating timings
+     * @return
+     */
+    public HttpTransport setLatencyRecorder(final LatencyRecorder latencyRecorder) {
+        this.latencyRecorder = latencyRecorder;
+        return this;
+    }
+
+    public long getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * Gzip-compresses POST and PUT bodies whose size is at least the specified number of bytes
+     *
+     * Bodies of unknown length are always compressed once this is enabled. The server must
+     * accept gzip Content-Encoding on requests.
+     *
+     * @param requestCompressionThreshold Size in bytes, or a negative value to disable compression
+     * @return
+     */
+    public HttpTransport setRequestCompressionThreshold(final long requestCompressionThreshold) {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+        return this;
+    }
+
+    /**
+     * Closes pooled connections that have been idle for longer than the specified time
+     *
+     * @param idleTime
+     * @param timeUnit
+     * @return
+     */
+    public HttpTransport closeIdleConnections(final long idleTime, final TimeUnit timeUnit) {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(idleTime, timeUnit);
+        return this;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Shuts down the connection pool and closes all pooled connections
+     */
+    public void close() {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        if (log.isDebugEnabled()) {
+            log.debug("Shutting down HTTP transport " + connectionManager.getTotalStats());
+        }
+
+        synchronized (this) {
+
+            if (ownsExecutor && null != executor) {
+                executor.shutdownNow();
+            }
+
+            executor = null;
+        }
+
+        if (null != http2Transport) {
+            http2Transport.close();
+        }
+
+        connectionManager.shutdown();
+    }
+
+    /**
+     * Creates daemon threads so that pending asynchronous requests do not keep the JVM alive
+     */
+    private static final class TransportThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger transportCount = new AtomicInteger(0);
+
+        private final AtomicInteger threadCount = new AtomicInteger(0);
+
+        private final String namePrefix = "hibiscus-transport-" + transportCount.incrementAndGet() + "-";
+
+        public Thread newThread(final Runnable runnable) {
+
+            final Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+
+import org.aicer.hibiscus.util.StreamUtil;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+
+/**
+ * Binds the JSON body of a successful response to a Java type as it is read from the connection
+ *
+ * The body is streamed through a JsonReader into the type adapter, so the raw JSON is never held
+ * in memory as a String next to the objects built from it. The bound object is available from
+ * Response.getResponseObject(), and an empty body binds to null.
+ *
+ * Handlers are immutable and can be shared between threads and requests, which also reuses the
+ * type adapter looked up once from Gson. Unsuccessful responses are read into the response body
+ * instead, as error payloads rarely match the type.
+ *
+ */
+public class JsonResponseBodyHandler<T> implements ResponseBodyHandler {
+
+    private static final Gson DEFAULT_GSON = new Gson();
+
+    private final TypeAdapter<T> typeAdapter;
+
+    private final Type type;
+
+    /**
+     * Creates a handler binding bodies to the specified class with a default Gson instance
+     *
+     * @param type The class, or JsonElement to keep the parse tree
+     */
+    public JsonResponseBodyHandler(final Class<T> type) {
+        this(DEFAULT_GSON, TypeToken.get(type));
+    }
+
+    public JsonResponseBodyHandler(final Gson gson, final Class<T> type) {
+        this(gson, TypeToken.get(type));
+    }
+
+    /**
+     * Creates a handler binding bodies to a generic type, such as new TypeToken&lt;List&lt;Hit&gt;&gt;() {}
+     *
+     * @param gson
+     * @param typeToken
+     */
+    public JsonResponseBodyHandler(final Gson gson, final TypeToken<T> typeToken) {
+        this.typeAdapter = gson.getAdapter(typeToken);
+        this.type = typeToken.getType();
+    }
+
+    /**
+     * Creates a handler binding bodies with the specified type adapter
+     *
+     * @param typeAdapter
+     * @param type The type produced by the adapter, used in error messages
+     */
+    public JsonResponseBodyHandler(final TypeAdapter<T> typeAdapter, final Type type) {
+        this.typeAdapter = typeAdapter;
+        this.type = type;
+    }
+
+    /**
+     * Returns a handler keeping the parse tree of the body as a JsonElement
+     *
+     * @param gson
+     * @return
+     */
+    public static JsonResponseBodyHandler<JsonElement> forJsonElement(final Gson gson) {
+        return new JsonResponseBodyHandler<JsonElement>(gson, JsonElement.class);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void handleResponseBody(final Response response, final InputStream body) throws IOException {
+
+        final int responseCode = response.getResponseCode();
+
+        if (responseCode < 200 || responseCode > 299) {
+            response.setResponseBody(StreamUtil.inputStreamToByteArray(body, -1), response.getResponseCharset());
+            return;
+        }
+
+        response.setResponseObject(read(new JsonReader(new InputStreamReader(body, response.getResponseCharset()))));
+    }
+
+    /**
+     * Binds the JSON value read from the reader
+     *
+     * @param reader
+     * @return The bound object, or null if the body is empty
+     * @throws IOException If the body is not valid JSON for the type
+     */
+    public T read(final JsonReader reader) throws IOException {
+
+        try {
+            reader.peek();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        try {
+            return typeAdapter.read(reader);
+        } catch (JsonParseException e) {
+            throw new IOException("Unable to bind the response body to " + type, e);
+        } catch (IllegalStateException e) {
+            throw new IOException("Unable to bind the response body to " + type, e);
+        }
+    }
+}
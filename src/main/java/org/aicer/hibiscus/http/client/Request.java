@@ -0,0 +1,266 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.message.BasicNameValuePair;
+
+
+/**
+ * Immutable description of a single HTTP request
+ *
+ * Holds the request method, the absolute URL, the headers and the body, together with how the
+ * response body should be consumed. Instances are built with a Request.Builder or taken as a
+ * snapshot of an HttpClient, and can be shared freely between threads and executed any number
+ * of times through a HttpTransport.
+ *
+ * A body given as a non-repeatable entity, such as an InputStream, can only be sent once.
+ *
+ */
+public final class Request {
+
+    private static final List<String> VALID_REQUEST_METHODS = Arrays.asList(
+            HttpHead.METHOD_NAME, HttpGet.METHOD_NAME, HttpPost.METHOD_NAME, HttpPut.METHOD_NAME, HttpDelete.METHOD_NAME);
+
+    private final String requestMethod;
+
+    private final String rawUrl;
+
+    private final List<BasicNameValuePair> requestHeaders;
+
+    private final String requestBody;
+
+    private final HttpEntity requestEntity;
+
+    private final String encoding;
+
+    private final ResponseBodyHandler responseBodyHandler;
+
+    private final boolean streamingResponse;
+
+    private Request(final Builder builder) {
+        this.requestMethod = builder.requestMethod;
+        this.rawUrl = builder.rawUrl;
+        this.requestHeaders = Collections.unmodifiableList(new ArrayList<BasicNameValuePair>(builder.requestHeaders));
+        this.requestBody = builder.requestBody;
+        this.requestEntity = builder.requestEntity;
+        this.encoding = builder.encoding;
+        this.responseBodyHandler = builder.responseBodyHandler;
+        this.streamingResponse = builder.streamingResponse;
+    }
+
+    public String getRequestMethod() {
+        return requestMethod;
+    }
+
+    public String getRawUrl() {
+        return rawUrl;
+    }
+
+    /**
+     * Returns the headers sent with the request
+     *
+     * @return An unmodifiable list of headers
+     */
+    public List<BasicNameValuePair> getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    /**
+     * Returns the value of the first header with the specified name, ignoring case
+     *
+     * @param headerName
+     * @return The header value or null if the header is not present
+     */
+    public String getRequestHeader(final String headerName) {
+
+        for (final BasicNameValuePair header : requestHeaders) {
+            if (header.getName().equalsIgnoreCase(headerName)) {
+                return header.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    public String getRequestBody() {
+        return requestBody;
+    }
+
+    public HttpEntity getRequestEntity() {
+        return requestEntity;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public ResponseBodyHandler getResponseBodyHandler() {
+        return responseBodyHandler;
+    }
+
+    public boolean isStreamingResponse() {
+        return streamingResponse;
+    }
+
+    /**
+     * Returns a builder initialised with the values of this request
+     *
+     * @return
+     */
+    public Builder toBuilder() {
+
+        final Builder builder = new Builder()
+                .setRequestMethod(requestMethod)
+                .setRawUrl(rawUrl)
+                .setEncoding(encoding)
+                .setResponseBodyHandler(responseBodyHandler)
+                .setStreamingResponse(streamingResponse);
+
+        builder.requestHeaders.addAll(requestHeaders);
+        builder.requestBody = requestBody;
+        builder.requestEntity = requestEntity;
+
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return requestMethod + " " + rawUrl;
+    }
+
+    /**
+     * Builds immutable requests
+     *
+     * Builders are not thread-safe but can be reused to build several requests
+     */
+    public static final class Builder {
+
+        private String requestMethod = HttpGet.METHOD_NAME;
+
+        private String rawUrl = null;
+
+        private final List<BasicNameValuePair> requestHeaders = new ArrayList<BasicNameValuePair>();
+
+        private String requestBody = null;
+
+        private HttpEntity requestEntity = null;
+
+        private String encoding = HttpClient.DEFAULT_HTTP_ENCODING;
+
+        private ResponseBodyHandler responseBodyHandler = null;
+
+        private boolean streamingResponse = false;
+
+        public Builder() {
+
+        }
+
+        /**
+         * Must be One of HEAD, GET, POST, PUT or DELETE
+         *
+         * @param requestMethod
+         * @return
+         * @throws HibiscusException If the request method is not allowed or valid
+         */
+        public Builder setRequestMethod(final String requestMethod) throws HibiscusException {
+
+            if (null == requestMethod || false == VALID_REQUEST_METHODS.contains(requestMethod)) {
+                throw new HibiscusException(requestMethod + " is not a valid HTTP Request Method");
+            }
+
+            this.requestMethod = requestMethod;
+            return this;
+        }
+
+        /**
+         * Expects the Absolute URL for the Request
+         *
+         * @param rawUrl
+         * @return
+         */
+        public Builder setRawUrl(final String rawUrl) {
+            this.rawUrl = rawUrl;
+            return this;
+        }
+
+        public Builder addHeader(final String param, final String value) {
+            requestHeaders.add(new BasicNameValuePair(param, value));
+            return this;
+        }
+
+        public Builder setRequestBody(final String requestBody) {
+            this.requestBody = requestBody;
+            this.requestEntity = null;
+            return this;
+        }
+
+        /**
+         * Sends the specified entity as the request body
+         *
+         * @param requestEntity
+         * @return
+         */
+        public Builder setRequestEntity(final HttpEntity requestEntity) {
+            this.requestEntity = requestEntity;
+            this.requestBody = null;
+            return this;
+        }
+
+        public Builder setEncoding(final String encoding) {
+            this.encoding = encoding;
+            return this;
+        }
+
+        public Builder setResponseBodyHandler(final ResponseBodyHandler responseBodyHandler) {
+            this.responseBodyHandler = responseBodyHandler;
+            return this;
+        }
+
+        public Builder setStreamingResponse(final boolean streamingResponse) {
+            this.streamingResponse = streamingResponse;
+            return this;
+        }
+
+        /**
+         * Creates the request
+         *
+         * @return
+         * @throws HibiscusException If no URL has been set
+         */
+        public Request build() throws HibiscusException {
+
+            if (null == rawUrl) {
+                throw new HibiscusException("The request URL has not been set");
+            }
+
+            return new Request(this);
+        }
+    }
+}
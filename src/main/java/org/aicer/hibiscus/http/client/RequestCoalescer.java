@@ -0,0 +1,192 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.http.workers.HttpWorkerAbstract;
+import org.apache.http.message.BasicNameValuePair;
+
+
+/**
+ * Collapses identical concurrent requests into a single upstream call
+ *
+ * While a GET or HEAD request is in flight, other threads sending the same method, URL and
+ * headers wait for it instead of contacting the server themselves. Every caller receives its
+ * own copy of the response, sharing the body bytes, or the same exception if the call failed.
+ *
+ * Requests with a body, a response body handler or a streamed response are never coalesced.
+ * Instances are thread-safe and are usually attached to a HttpTransport.
+ *
+ */
+public class RequestCoalescer {
+
+    private final ConcurrentMap<String, FutureTask<Response>> inFlight = new ConcurrentHashMap<String, FutureTask<Response>>();
+
+    private final AtomicLong upstreamCount = new AtomicLong(0);
+
+    private final AtomicLong coalescedCount = new AtomicLong(0);
+
+    /**
+     * Whether the request may share its response with identical concurrent requests
+     *
+     * @param request
+     * @return
+     */
+    public static boolean isCoalescable(final Request request) {
+
+        final String requestMethod = request.getRequestMethod();
+
+        if (!requestMethod.equals("GET") && !requestMethod.equals("HEAD")) {
+            return false;
+        }
+
+        return null == request.getRequestEntity() && null == request.getResponseBodyHandler() && !request.isStreamingResponse();
+    }
+
+    /**
+     * Returns the key identifying identical requests
+     *
+     * Header names are compared case-insensitively and their order does not matter. The
+     * conversation identifier is ignored since it differs between otherwise identical requests.
+     *
+     * @param request
+     * @return
+     */
+    public static String getKey(final Request request) {
+
+        final List<String> headers = new ArrayList<String>();
+
+        for (final BasicNameValuePair header : request.getRequestHeaders()) {
+
+            final String name = header.getName().toLowerCase(Locale.ENGLISH);
+
+            if (!name.equalsIgnoreCase(HttpWorkerAbstract.HEADER_CONVERSATION_ID)) {
+                headers.add(name + ": " + header.getValue());
+            }
+        }
+
+        Collections.sort(headers);
+
+        final StringBuilder key = new StringBuilder(request.getRequestMethod()).append(' ').append(request.getRawUrl());
+
+        for (final String header : headers) {
+            key.append('\n').append(header);
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Runs the call unless an identical request is already in flight, in which case its response is awaited
+     *
+     * @param request The request used to identify identical calls
+     * @param call Sends the request to the server
+     * @return
+     * @throws HibiscusException If the shared call failed or the wait was interrupted
+     */
+    public Response execute(final Request request, final Callable<Response> call) throws HibiscusException {
+
+        final String key = getKey(request);
+        final FutureTask<Response> task = new FutureTask<Response>(call);
+
+        FutureTask<Response> shared = inFlight.putIfAbsent(key, task);
+
+        if (null == shared) {
+
+            shared = task;
+            upstreamCount.incrementAndGet();
+
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+
+        } else {
+            coalescedCount.incrementAndGet();
+        }
+
+        try {
+
+            /* Responses decode their body lazily, so each caller gets a copy of its own */
+            final Response response = shared.get();
+
+            return (null != response) ? response.copy() : null;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HibiscusException("Interrupted while waiting for an identical request in flight", e);
+        } catch (ExecutionException e) {
+
+            final Throwable cause = e.getCause();
+
+            if (cause instanceof HibiscusException) {
+                throw (HibiscusException) cause;
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new HibiscusException(cause);
+        }
+    }
+
+    /**
+     * Returns the number of calls that actually went to the server
+     *
+     * @return
+     */
+    public long getUpstreamCount() {
+        return upstreamCount.get();
+    }
+
+    /**
+     * Returns the number of requests answered by waiting on an identical call
+     *
+     * @return
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    @Override
+    public String toString() {
+        return "RequestCoalescer [upstream=" + getUpstreamCount() + ", coalesced=" + getCoalescedCount()
+                + ", inFlight=" + getInFlightCount() + "]";
+    }
+}
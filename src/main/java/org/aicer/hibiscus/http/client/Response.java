@@ -17,13 +17,28 @@
  */
 package org.aicer.hibiscus.http.client;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.http.metrics.RequestTimings;
+import org.aicer.hibiscus.http.metrics.RequestTimings.Phase;
+import org.aicer.hibiscus.util.StreamUtil;
 import org.apache.http.Header;
+import org.apache.http.conn.ConnectionReleaseTrigger;
 
 
 public class Response {
 
     private String body = null;
 
+    private byte[] bodyBytes = null;
+
+    private Charset bodyCharset = null;
+
     private String statusLine = null;
 
     private int responseCode = 0;
@@ -32,10 +47,60 @@ public class Response {
 
     private Header[] responseHeaders;
 
+    private InputStream responseStream = null;
+
+    private ConnectionReleaseTrigger responseReleaseTrigger = null;
+
+    private long bytesTransferred = 0;
+
+    private long transferTime = 0;
+
+    private boolean fromCache = false;
+
+    private long compressedBytes = 0;
+
+    private long decompressedBytes = 0;
+
+    private RequestTimings timings = null;
+
+    private int retryCount = 0;
+
+    private Object responseObject = null;
+
     public Response() {
 
     }
 
+    /**
+     * Returns a copy of this response that shares the body bytes but not the lazily decoded body or the timings
+     *
+     * @return
+     */
+    Response copy() {
+
+        final Response copy = new Response();
+
+        copy.body = body;
+        copy.bodyBytes = bodyBytes;
+        copy.bodyCharset = bodyCharset;
+        copy.statusLine = statusLine;
+        copy.responseCode = responseCode;
+        copy.elapsedTime = elapsedTime;
+        copy.responseHeaders = (null != responseHeaders) ? responseHeaders.clone() : null;
+        copy.responseStream = responseStream;
+        copy.responseReleaseTrigger = responseReleaseTrigger;
+        copy.bytesTransferred = bytesTransferred;
+        copy.transferTime = transferTime;
+        copy.fromCache = fromCache;
+        copy.compressedBytes = compressedBytes;
+        copy.decompressedBytes = decompressedBytes;
+        copy.timings = (null != timings) ? timings.copy() : null;
+        copy.retryCount = retryCount;
+        copy.responseObject = responseObject;
+
+        return copy;
+    }
+
     public String getStatusLine() {
         return statusLine;
     }
@@ -71,11 +136,75 @@ public class Response {
         return this;
     }
 
-    public String getResponseBody() {
+    /**
+     * Returns the body of the response as a String
+     *
+     * Raw body bytes are decoded on the first call using the charset of the response
+     *
+     * @return
+     * @throws HibiscusException
+     */
+    public String getResponseBody() throws HibiscusException {
+
+        if (null == body && null != bodyBytes) {
+
+            final long start = System.nanoTime();
+
+            body = StreamUtil.decode(bodyBytes, bodyCharset);
+
+            if (null != timings) {
+                timings.add(Phase.DECODE, System.nanoTime() - start);
+            }
+        }
+
         return body;
     }
+
     public Response setResponseBody(final String body) {
         this.body = body;
+        this.bodyBytes = null;
+        return this;
+    }
+
+    /**
+     * Returns the raw bytes of the response body
+     *
+     * @return
+     */
+    public byte[] getResponseBodyBytes() {
+
+        if (null == bodyBytes && null != body) {
+            return body.getBytes(getResponseCharset());
+        }
+
+        return bodyBytes;
+    }
+
+    /**
+     * Sets the raw body bytes which are decoded lazily with the specified charset
+     *
+     * @param bodyBytes
+     * @param charset
+     * @return
+     */
+    public Response setResponseBody(final byte[] bodyBytes, final Charset charset) {
+        this.bodyBytes = bodyBytes;
+        this.bodyCharset = charset;
+        this.body = null;
+        return this;
+    }
+
+    /**
+     * Returns the charset used to decode the response body
+     *
+     * @return
+     */
+    public Charset getResponseCharset() {
+        return (null != bodyCharset) ? bodyCharset : Charset.forName(HttpClient.DEFAULT_HTTP_ENCODING);
+    }
+
+    public Response setResponseCharset(final Charset charset) {
+        this.bodyCharset = charset;
         return this;
     }
 
@@ -87,4 +216,212 @@ public class Response {
         this.elapsedTime = elapsedTime;
         return this;
     }
+
+    /**
+     * Returns the number of body bytes written out by a response body handler
+     *
+     * @return
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    public Response setBytesTransferred(final long bytesTransferred) {
+        this.bytesTransferred = bytesTransferred;
+        return this;
+    }
+
+    /**
+     * Returns how long in milliseconds it took to transfer the body
+     *
+     * @return
+     */
+    public long getTransferTime() {
+        return transferTime;
+    }
+
+    public Response setTransferTime(final long transferTime) {
+        this.transferTime = transferTime;
+        return this;
+    }
+
+    /**
+     * Returns the body transfer rate in bytes per second
+     *
+     * @return
+     */
+    public double getThroughput() {
+
+        if (transferTime <= 0) {
+            return 0;
+        }
+
+        return (bytesTransferred * 1000.0) / transferTime;
+    }
+
+    /**
+     * Whether the response was served from a response cache
+     *
+     * True both for fresh cache hits and for cached responses revalidated by the server
+     *
+     * @return
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    public Response setFromCache(final boolean fromCache) {
+        this.fromCache = fromCache;
+        return this;
+    }
+
+    /**
+     * Returns the number of body bytes received on the wire, before any Content-Encoding was decoded
+     *
+     * Not available for streaming responses
+     *
+     * @return
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    public Response setCompressedBytes(final long compressedBytes) {
+        this.compressedBytes = compressedBytes;
+        return this;
+    }
+
+    /**
+     * Returns the number of body bytes after any Content-Encoding was decoded
+     *
+     * Not available for streaming responses
+     *
+     * @return
+     */
+    public long getDecompressedBytes() {
+        return decompressedBytes;
+    }
+
+    public Response setDecompressedBytes(final long decompressedBytes) {
+        this.decompressedBytes = decompressedBytes;
+        return this;
+    }
+
+    /**
+     * Returns the time spent in each phase of the request
+     *
+     * Decoding the body into a String is added to the decode phase when it first happens.
+     *
+     * @return The timings or null if the response was served from a cache without contacting the server
+     */
+    public RequestTimings getTimings() {
+        return timings;
+    }
+
+    public Response setTimings(final RequestTimings timings) {
+        this.timings = timings;
+        return this;
+    }
+
+    /**
+     * Returns the number of times the request was retried before this response was received
+     *
+     * @return
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public Response setRetryCount(final int retryCount) {
+        this.retryCount = retryCount;
+        return this;
+    }
+
+    /**
+     * Returns the object a JsonResponseBodyHandler bound the body to
+     *
+     * @return The object, or null if the body was not bound or was empty
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getResponseObject() {
+        return (T) responseObject;
+    }
+
+    public Response setResponseObject(final Object responseObject) {
+        this.responseObject = responseObject;
+        return this;
+    }
+
+    /**
+     * Returns the body of a streaming response
+     *
+     * Closing the stream releases the connection. Any unread content is drained first so that
+     * the connection can be reused; use abortResponseStream() to discard it instead.
+     *
+     * @return The body stream or null if the response was not streamed
+     */
+    public InputStream getResponseStream() {
+        return responseStream;
+    }
+
+    /**
+     * Returns the body of a streaming response as a channel
+     *
+     * Closing the channel releases the connection
+     *
+     * @return The body channel or null if the response was not streamed
+     */
+    public ReadableByteChannel getResponseChannel() {
+
+        if (null == responseStream) {
+            return null;
+        }
+
+        return Channels.newChannel(responseStream);
+    }
+
+    public Response setResponseStream(final InputStream responseStream) {
+        this.responseStream = responseStream;
+        return this;
+    }
+
+    /**
+     * Sets how the connection of a streaming response is aborted
+     *
+     * The response stream may be wrapped for decoding and timing, so aborting it needs the
+     * trigger of the underlying connection stream
+     *
+     * @param responseReleaseTrigger
+     * @return
+     */
+    public Response setResponseReleaseTrigger(final ConnectionReleaseTrigger responseReleaseTrigger) {
+        this.responseReleaseTrigger = responseReleaseTrigger;
+        return this;
+    }
+
+    /**
+     * Closes the connection of a streaming response without reading the rest of the body
+     *
+     * @throws HibiscusException
+     */
+    public void abortResponseStream() throws HibiscusException {
+
+        if (null == responseStream) {
+            return;
+        }
+
+        try {
+
+            if (null != responseReleaseTrigger) {
+                responseReleaseTrigger.abortConnection();
+            } else if (responseStream instanceof ConnectionReleaseTrigger) {
+                ((ConnectionReleaseTrigger) responseStream).abortConnection();
+            } else {
+                responseStream.close();
+            }
+
+        } catch (IOException e) {
+            throw new HibiscusException(e);
+        }
+    }
 }
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Consumes the body of a response as it is read from the connection
+ *
+ * Used to process large responses in constant memory instead of reading them into a String
+ *
+ */
+public interface ResponseBodyHandler {
+
+    /**
+     * Invoked once the status line and headers have been set on the response
+     *
+     * The stream does not need to be closed by the handler. Any content left unread is
+     * discarded before the connection is released.
+     *
+     * @param response The response being received
+     * @param body The body of the response
+     * @throws IOException
+     */
+    void handleResponseBody(Response response, InputStream body) throws IOException;
+}
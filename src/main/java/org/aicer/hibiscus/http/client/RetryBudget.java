@@ -0,0 +1,151 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Caps retries to a fraction of the requests sent
+ *
+ * Every request deposits a fraction of a token and every retry withdraws a whole one. A small
+ * number of tokens is also granted per second so that retries remain possible under light
+ * traffic. When a dependency fails entirely, retries are therefore limited to a percentage of
+ * normal traffic instead of multiplying the load on it.
+ *
+ * Instances are thread-safe and are usually shared by every request of a transport.
+ *
+ */
+public class RetryBudget {
+
+    public static final double DEFAULT_RETRY_RATIO = 0.1;
+
+    public static final double DEFAULT_MIN_RETRIES_PER_SECOND = 10;
+
+    public static final double DEFAULT_MAX_BALANCE = 100;
+
+    private final double retryRatio;
+
+    private final double minRetriesPerSecond;
+
+    private final double maxBalance;
+
+    private double balance;
+
+    private long lastRefill = System.nanoTime();
+
+    private final AtomicLong requestCount = new AtomicLong(0);
+
+    private final AtomicLong grantedCount = new AtomicLong(0);
+
+    private final AtomicLong deniedCount = new AtomicLong(0);
+
+    public RetryBudget() {
+        this(DEFAULT_RETRY_RATIO, DEFAULT_MIN_RETRIES_PER_SECOND, DEFAULT_MAX_BALANCE);
+    }
+
+    /**
+     * Creates a budget
+     *
+     * @param retryRatio Retries allowed per request, for instance 0.1 for 10% of traffic
+     * @param minRetriesPerSecond Retries allowed per second regardless of traffic
+     * @param maxBalance Maximum number of retries that can be saved up
+     */
+    public RetryBudget(final double retryRatio, final double minRetriesPerSecond, final double maxBalance) {
+        this.retryRatio = retryRatio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.maxBalance = maxBalance;
+        this.balance = Math.min(minRetriesPerSecond, maxBalance);
+    }
+
+    /**
+     * Records a request sent for the first time
+     */
+    public synchronized void recordRequest() {
+
+        refill();
+
+        balance = Math.min(maxBalance, balance + retryRatio);
+
+        requestCount.incrementAndGet();
+    }
+
+    /**
+     * Withdraws a retry from the budget
+     *
+     * @return Whether the retry may take place
+     */
+    public synchronized boolean tryAcquire() {
+
+        refill();
+
+        if (balance >= 1) {
+            balance -= 1;
+            grantedCount.incrementAndGet();
+            return true;
+        }
+
+        deniedCount.incrementAndGet();
+
+        return false;
+    }
+
+    private void refill() {
+
+        final long now = System.nanoTime();
+
+        balance = Math.min(maxBalance, balance + (now - lastRefill) * minRetriesPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+
+    public double getRetryRatio() {
+        return retryRatio;
+    }
+
+    public double getMinRetriesPerSecond() {
+        return minRetriesPerSecond;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of retries that were allowed
+     *
+     * @return
+     */
+    public long getGrantedCount() {
+        return grantedCount.get();
+    }
+
+    /**
+     * Returns the number of retries refused because the budget was exhausted
+     *
+     * @return
+     */
+    public long getDeniedCount() {
+        return deniedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RetryBudget [requests=" + getRequestCount() + ", granted=" + getGrantedCount() + ", denied=" + getDeniedCount() + "]";
+    }
+}
@@ -0,0 +1,337 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+
+/**
+ * Decides which failed requests are retried and how long to wait before each retry
+ *
+ * Only idempotent methods are retried, and only if their body, if any, can be sent again.
+ * Requests are retried after I/O errors other than unknown hosts and TLS failures, and after
+ * the configured status codes, 503 and 429 by default. The Retry-After header of these
+ * responses is honoured; other retries wait for an exponentially growing delay with full
+ * jitter. Every retry must also be granted by the retry budget.
+ *
+ * Instances are thread-safe once configured and are usually attached to a HttpTransport.
+ *
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 10000;
+
+    public static final long DEFAULT_MAX_RETRY_AFTER_MILLIS = 30000;
+
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    private final Random random = new Random();
+
+    private final Set<String> retryableMethods = new HashSet<String>();
+
+    private final Set<Integer> retryableStatusCodes = new HashSet<Integer>();
+
+    private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+
+    private volatile long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+
+    private volatile long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+
+    private volatile double backoffMultiplier = 2.0;
+
+    private volatile long maxRetryAfterMillis = DEFAULT_MAX_RETRY_AFTER_MILLIS;
+
+    private volatile RetryBudget retryBudget = new RetryBudget();
+
+    public RetryPolicy() {
+
+        retryableMethods.add(HttpHead.METHOD_NAME);
+        retryableMethods.add(HttpGet.METHOD_NAME);
+        retryableMethods.add(HttpPut.METHOD_NAME);
+        retryableMethods.add(HttpDelete.METHOD_NAME);
+
+        retryableStatusCodes.add(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        retryableStatusCodes.add(429);
+    }
+
+    /**
+     * Whether the request may be sent again if it fails
+     *
+     * @param httpRequest
+     * @return
+     */
+    public boolean isRetryable(final HttpRequestBase httpRequest) {
+
+        synchronized (retryableMethods) {
+
+            if (!retryableMethods.contains(httpRequest.getMethod())) {
+                return false;
+            }
+        }
+
+        if (httpRequest instanceof HttpEntityEnclosingRequest) {
+
+            final HttpEntity entity = ((HttpEntityEnclosingRequest) httpRequest).getEntity();
+
+            return null == entity || entity.isRepeatable();
+        }
+
+        return true;
+    }
+
+    /**
+     * Whether a request that failed with the specified error may be retried
+     *
+     * @param cause
+     * @return
+     */
+    public boolean isRetryableException(final Throwable cause) {
+        return (cause instanceof IOException) && !(cause instanceof UnknownHostException) && !(cause instanceof SSLException);
+    }
+
+    /**
+     * Whether a request answered with the specified status code may be retried
+     *
+     * @param statusCode
+     * @return
+     */
+    public boolean isRetryableStatus(final int statusCode) {
+
+        synchronized (retryableStatusCodes) {
+            return retryableStatusCodes.contains(statusCode);
+        }
+    }
+
+    /**
+     * Returns how long to wait before the next retry after an error
+     *
+     * @param retryCount Number of retries already made
+     * @return A random delay between zero and the exponential backoff, in milliseconds
+     */
+    public long getBackoffMillis(final int retryCount) {
+
+        final double backoff = Math.min(maxBackoffMillis, initialBackoffMillis * Math.pow(backoffMultiplier, retryCount));
+
+        synchronized (random) {
+            return (long) (random.nextDouble() * backoff);
+        }
+    }
+
+    /**
+     * Returns how long to wait before retrying a request answered with a retryable status
+     *
+     * @param retryCount Number of retries already made
+     * @param response
+     * @return The delay in milliseconds, or -1 if the server asked for a longer wait than allowed
+     */
+    public long getRetryDelayMillis(final int retryCount, final Response response) {
+
+        final long retryAfter = getRetryAfterMillis(response);
+
+        if (retryAfter > maxRetryAfterMillis) {
+            return -1;
+        }
+
+        return (retryAfter >= 0) ? retryAfter : getBackoffMillis(retryCount);
+    }
+
+    /**
+     * Parses the Retry-After header of the response, given either in seconds or as a date
+     *
+     * @param response
+     * @return The delay in milliseconds, or -1 if the header is absent or invalid
+     */
+    public static long getRetryAfterMillis(final Response response) {
+
+        final Header[] headers = response.getResponseHeaders();
+
+        if (null == headers) {
+            return -1;
+        }
+
+        for (final Header header : headers) {
+
+            if (!header.getName().equalsIgnoreCase(HEADER_RETRY_AFTER) || null == header.getValue()) {
+                continue;
+            }
+
+            final String value = header.getValue().trim();
+
+            try {
+
+                final long seconds = Long.parseLong(value);
+
+                /* Saturates rather than overflowing, so that absurd delays exceed any limit */
+                return (seconds > Long.MAX_VALUE / 1000) ? Long.MAX_VALUE : Math.max(0, seconds * 1000);
+
+            } catch (NumberFormatException e) {
+
+                /* Too many digits for a long */
+                if (value.matches("[0-9]+")) {
+                    return Long.MAX_VALUE;
+                }
+
+                /* Not a number of seconds, the value should be a date */
+            }
+
+            try {
+                final Date date = DateUtils.parseDate(value);
+                return Math.max(0, date.getTime() - System.currentTimeMillis());
+            } catch (DateParseException e) {
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public RetryPolicy setMaxRetries(final int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public RetryPolicy setInitialBackoffMillis(final long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+        return this;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public RetryPolicy setMaxBackoffMillis(final long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    public double getBackoffMultiplier() {
+        return backoffMultiplier;
+    }
+
+    public RetryPolicy setBackoffMultiplier(final double backoffMultiplier) {
+        this.backoffMultiplier = backoffMultiplier;
+        return this;
+    }
+
+    public long getMaxRetryAfterMillis() {
+        return maxRetryAfterMillis;
+    }
+
+    /**
+     * Sets the longest Retry-After delay that is waited for
+     *
+     * Responses asking for a longer wait are returned to the caller without being retried
+     *
+     * @param maxRetryAfterMillis
+     * @return
+     */
+    public RetryPolicy setMaxRetryAfterMillis(final long maxRetryAfterMillis) {
+        this.maxRetryAfterMillis = maxRetryAfterMillis;
+        return this;
+    }
+
+    /**
+     * Allows requests with the specified method to be retried
+     *
+     * Only idempotent methods should be added
+     *
+     * @param requestMethod
+     * @return
+     */
+    public RetryPolicy addRetryableMethod(final String requestMethod) {
+
+        synchronized (retryableMethods) {
+            retryableMethods.add(requestMethod);
+        }
+
+        return this;
+    }
+
+    public RetryPolicy removeRetryableMethod(final String requestMethod) {
+
+        synchronized (retryableMethods) {
+            retryableMethods.remove(requestMethod);
+        }
+
+        return this;
+    }
+
+    public RetryPolicy addRetryableStatus(final int statusCode) {
+
+        synchronized (retryableStatusCodes) {
+            retryableStatusCodes.add(statusCode);
+        }
+
+        return this;
+    }
+
+    public RetryPolicy removeRetryableStatus(final int statusCode) {
+
+        synchronized (retryableStatusCodes) {
+            retryableStatusCodes.remove(statusCode);
+        }
+
+        return this;
+    }
+
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Sets the budget every retry must be granted by
+     *
+     * @param retryBudget The budget or null to retry without limit
+     * @return
+     */
+    public RetryPolicy setRetryBudget(final RetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+        return this;
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.client;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Default request identifier generator
+ *
+ * Combines a random prefix chosen once per instance with an atomic counter, so identifiers are
+ * unique within the process without locking, hashing or clock lookups, and collisions across
+ * processes are very unlikely.
+ *
+ * Identifiers look like 3f9a0c1b7d2e4a68-000000000000002a
+ *
+ */
+public class SequentialRequestIdGenerator implements RequestIdGenerator {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final int HEX_LONG_LENGTH = 16;
+
+    private final char[] prefix;
+
+    private final AtomicLong counter = new AtomicLong(0);
+
+    public SequentialRequestIdGenerator() {
+        this(new SecureRandom().nextLong());
+    }
+
+    /**
+     * Creates a generator with a fixed prefix
+     *
+     * @param prefix
+     */
+    public SequentialRequestIdGenerator(final long prefix) {
+        this.prefix = new char[HEX_LONG_LENGTH + 1];
+        writeHex(prefix, this.prefix, 0);
+        this.prefix[HEX_LONG_LENGTH] = '-';
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String generateRequestId() {
+
+        final char[] id = new char[prefix.length + HEX_LONG_LENGTH];
+
+        System.arraycopy(prefix, 0, id, 0, prefix.length);
+        writeHex(counter.incrementAndGet(), id, prefix.length);
+
+        return new String(id);
+    }
+
+    private static void writeHex(long value, final char[] target, final int offset) {
+
+        for (int i = offset + HEX_LONG_LENGTH - 1; i >= offset; i--) {
+            target[i] = HEX_DIGITS[(int) (value & 0x0F)];
+            value >>>= 4;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.entity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+
+/**
+ * Request entity backed by a ByteBuffer
+ *
+ * The remaining bytes of the buffer are sent as the body. The buffer's position is not changed,
+ * so the entity can be written more than once. Heap buffers are written directly from their
+ * backing array without copying.
+ *
+ */
+public class ByteBufferEntity extends AbstractHttpEntity {
+
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    private final ByteBuffer buffer;
+
+    public ByteBufferEntity(final ByteBuffer buffer) {
+        this(buffer, ContentType.APPLICATION_OCTET_STREAM);
+    }
+
+    public ByteBufferEntity(final ByteBuffer buffer, final ContentType contentType) {
+
+        if (null == buffer) {
+            throw new IllegalArgumentException("Source buffer may not be null");
+        }
+
+        this.buffer = buffer;
+
+        if (null != contentType) {
+            setContentType(contentType.toString());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getContentLength() {
+        return buffer.remaining();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getContent() {
+        return new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeTo(final OutputStream outstream) throws IOException {
+
+        if (null == outstream) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+
+        final ByteBuffer source = buffer.duplicate();
+
+        if (source.hasArray()) {
+            outstream.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+        } else {
+
+            final byte[] chunk = new byte[Math.min(OUTPUT_BUFFER_SIZE, Math.max(source.remaining(), 1))];
+
+            while (source.hasRemaining()) {
+                final int length = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, length);
+                outstream.write(chunk, 0, length);
+            }
+        }
+
+        outstream.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer source;
+
+        ByteBufferInputStream(final ByteBuffer source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read() {
+            return source.hasRemaining() ? (source.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+
+            if (length == 0) {
+                return 0;
+            }
+
+            if (!source.hasRemaining()) {
+                return -1;
+            }
+
+            final int count = Math.min(length, source.remaining());
+
+            source.get(bytes, offset, count);
+
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return source.remaining();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.entity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.aicer.hibiscus.util.CountingInputStream;
+import org.aicer.hibiscus.util.TimingInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.util.EntityUtils;
+
+
+/**
+ * Response entity that decodes gzip and deflate content as it is read
+ *
+ * Keeps track of the number of bytes received on the wire and the number of bytes produced
+ * after decoding. Entities without a supported Content-Encoding are passed through unchanged
+ * and both counts are equal.
+ *
+ * The time spent reading from the connection is also tracked apart from the time spent
+ * decoding, so that slow networks can be told apart from slow decompression.
+ *
+ * Aborting the entity closes the connection through the stream of the wrapped entity, without
+ * reading the rest of the body through the decoding and timing streams.
+ *
+ */
+public class DecompressingEntity extends HttpEntityWrapper implements ConnectionReleaseTrigger {
+
+    public static final String ENCODING_GZIP = "gzip";
+
+    public static final String ENCODING_X_GZIP = "x-gzip";
+
+    public static final String ENCODING_DEFLATE = "deflate";
+
+    private final String encoding;
+
+    private InputStream rawStream = null;
+
+    private CountingInputStream wireStream = null;
+
+    private CountingInputStream decodedStream = null;
+
+    private TimingInputStream wireTimer = null;
+
+    private TimingInputStream contentTimer = null;
+
+    public DecompressingEntity(final HttpEntity wrapped) {
+        super(wrapped);
+        this.encoding = getEncoding(wrapped);
+    }
+
+    /**
+     * Returns the supported encoding of the entity, or null if it is not encoded
+     *
+     * @param entity
+     * @return
+     */
+    public static String getEncoding(final HttpEntity entity) {
+
+        final Header contentEncoding = entity.getContentEncoding();
+
+        if (null == contentEncoding || null == contentEncoding.getValue()) {
+            return null;
+        }
+
+        final String value = contentEncoding.getValue().trim().toLowerCase();
+
+        if (value.equals(ENCODING_GZIP) || value.equals(ENCODING_X_GZIP)) {
+            return ENCODING_GZIP;
+        } else if (value.equals(ENCODING_DEFLATE)) {
+            return ENCODING_DEFLATE;
+        }
+
+        return null;
+    }
+
+    /**
+     * Whether the content is decoded while it is read
+     *
+     * @return
+     */
+    public boolean isDecoding() {
+        return null != encoding;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The decoded stream is created once and returned on subsequent calls
+     */
+    @Override
+    public synchronized InputStream getContent() throws IOException {
+
+        if (null != contentTimer) {
+            return contentTimer;
+        }
+
+        rawStream = wrappedEntity.getContent();
+        wireTimer = new TimingInputStream(rawStream);
+        wireStream = new CountingInputStream(wireTimer);
+
+        if (ENCODING_GZIP.equals(encoding)) {
+            decodedStream = new CountingInputStream(new GZIPInputStream(wireStream));
+        } else if (ENCODING_DEFLATE.equals(encoding)) {
+            decodedStream = new CountingInputStream(inflate(wireStream));
+        } else {
+            decodedStream = wireStream;
+        }
+
+        contentTimer = (decodedStream == wireStream) ? wireTimer : new TimingInputStream(decodedStream);
+
+        return contentTimer;
+    }
+
+    /**
+     * Handles both zlib-wrapped deflate streams, as the specification requires, and the raw
+     * deflate streams some servers send instead
+     */
+    private static InputStream inflate(final InputStream in) throws IOException {
+
+        final PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        final byte[] header = new byte[2];
+
+        int read = 0;
+
+        while (read < header.length) {
+
+            final int count = pushback.read(header, read, header.length - read);
+
+            if (count == -1) {
+                break;
+            }
+
+            read += count;
+        }
+
+        if (read > 0) {
+            pushback.unread(header, 0, read);
+        }
+
+        final int cmf = header[0] & 0xFF;
+        final int flg = header[1] & 0xFF;
+        final boolean zlibWrapped = (read == 2) && ((cmf & 0x0F) == 8) && ((((cmf << 8) | flg) % 31) == 0);
+
+        return new InflaterInputStream(pushback, new Inflater(!zlibWrapped));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeTo(final OutputStream outstream) throws IOException {
+
+        final InputStream in = getContent();
+
+        try {
+
+            final byte[] buffer = new byte[4096];
+            int count;
+
+            while ((count = in.read(buffer)) != -1) {
+                outstream.write(buffer, 0, count);
+            }
+
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Releases the connection once the rest of the body has been read
+     *
+     * {@inheritDoc}
+     */
+    public void releaseConnection() throws IOException {
+        EntityUtils.consume(this);
+    }
+
+    /**
+     * Closes the connection without reading the rest of the body
+     *
+     * {@inheritDoc}
+     */
+    public synchronized void abortConnection() throws IOException {
+
+        if (null == rawStream) {
+            rawStream = wrappedEntity.getContent();
+        }
+
+        if (rawStream instanceof ConnectionReleaseTrigger) {
+            ((ConnectionReleaseTrigger) rawStream).abortConnection();
+        } else {
+            rawStream.close();
+        }
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return isDecoding() ? null : wrappedEntity.getContentEncoding();
+    }
+
+    @Override
+    public long getContentLength() {
+        return isDecoding() ? -1 : wrappedEntity.getContentLength();
+    }
+
+    /**
+     * Returns the number of bytes read from the connection so far
+     *
+     * @return
+     */
+    public synchronized long getCompressedBytes() {
+        return (null == wireStream) ? 0 : wireStream.getCount();
+    }
+
+    /**
+     * Returns the number of bytes produced after decoding so far
+     *
+     * @return
+     */
+    public synchronized long getDecompressedBytes() {
+        return (null == decodedStream) ? 0 : decodedStream.getCount();
+    }
+
+    /**
+     * Returns the time spent reading from the connection so far, in nanoseconds
+     *
+     * @return
+     */
+    public synchronized long getTransferNanos() {
+        return (null == wireTimer) ? 0 : wireTimer.getNanos();
+    }
+
+    /**
+     * Returns the time spent decoding the content so far, in nanoseconds
+     *
+     * @return
+     */
+    public synchronized long getDecodeNanos() {
+
+        if (null == contentTimer || contentTimer == wireTimer) {
+            return 0;
+        }
+
+        return Math.max(0, contentTimer.getNanos() - wireTimer.getNanos());
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.entity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+
+/**
+ * Request entity that gzip-compresses the wrapped entity while it is written
+ *
+ * The compressed length is not known in advance, so the body is always sent with chunked
+ * transfer encoding.
+ *
+ */
+public class GzipCompressingEntity extends HttpEntityWrapper {
+
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    public GzipCompressingEntity(final HttpEntity wrapped) {
+        super(wrapped);
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return new BasicHeader(HTTP.CONTENT_ENCODING, DecompressingEntity.ENCODING_GZIP);
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        throw new UnsupportedOperationException("The compressed content is only available through writeTo()");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeTo(final OutputStream outstream) throws IOException {
+
+        final GZIPOutputStream gzip = new GZIPOutputStream(outstream, OUTPUT_BUFFER_SIZE);
+
+        wrappedEntity.writeTo(gzip);
+
+        /* Writes the trailer without closing the connection's output stream */
+        gzip.finish();
+        gzip.flush();
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.entity;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonNull;
+
+
+/**
+ * Request entity serializing an object to JSON directly onto the connection
+ *
+ * The object is written through Gson's JsonWriter while the request is sent, so the document is never
+ * built as a String or byte array. Its length is not known in advance, so the body is sent with
+ * chunked transfer encoding. The object is serialized again each time the entity is written,
+ * which allows the request to be retried.
+ *
+ */
+public class JsonEntity extends AbstractHttpEntity {
+
+    public static final String MIME_TYPE = "application/json";
+
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Gson DEFAULT_GSON = new Gson();
+
+    private final Object source;
+
+    private final Type type;
+
+    private final Gson gson;
+
+    private final Charset charset;
+
+    /**
+     * Creates an entity serializing the object with a default Gson instance
+     *
+     * @param source The object to send, null sends a JSON null
+     */
+    public JsonEntity(final Object source) {
+        this(source, DEFAULT_GSON);
+    }
+
+    public JsonEntity(final Object source, final Gson gson) {
+        this(source, (null != source) ? source.getClass() : null, gson, UTF_8);
+    }
+
+    /**
+     * Creates an entity serializing the object as the specified type
+     *
+     * @param source The object to send, null sends a JSON null
+     * @param type The type to serialize the object as, such as a generic type from a TypeToken
+     * @param gson
+     * @param charset The charset of the body, UTF-8 unless the server requires otherwise
+     */
+    public JsonEntity(final Object source, final Type type, final Gson gson, final Charset charset) {
+
+        if (null == gson) {
+            throw new IllegalArgumentException("Gson may not be null");
+        }
+
+        this.source = source;
+        this.type = type;
+        this.gson = gson;
+        this.charset = (null != charset) ? charset : UTF_8;
+
+        setContentType(ContentType.create(MIME_TYPE, this.charset).toString());
+        setChunked(true);
+    }
+
+    public Object getSource() {
+        return source;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Serializes the object into memory, only used by callers that need the body as a stream
+     *
+     * {@inheritDoc}
+     */
+    public InputStream getContent() throws IOException {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writeTo(out);
+
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeTo(final OutputStream outstream) throws IOException {
+
+        if (null == outstream) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+
+        /* The writer is flushed but not closed, the connection owns the output stream */
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(outstream, charset), OUTPUT_BUFFER_SIZE);
+
+        try {
+
+            /* Gson writes through its own JsonWriter configured like the Gson instance, pretty printing included */
+            if (null == source) {
+                gson.toJson(JsonNull.INSTANCE, writer);
+            } else {
+                gson.toJson(source, type, writer);
+            }
+
+        } catch (JsonIOException e) {
+
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException("Unable to serialize the request body as JSON", e);
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.http2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Decodes HPACK header blocks received on a connection (RFC 7541)
+ *
+ * Header blocks must be decoded in the order they were received, including those of streams
+ * that were already reset, since every block may update the dynamic table.
+ *
+ */
+final class HpackDecoder {
+
+    private final HpackTable table;
+
+    private final int maxTableSize;
+
+    private final int maxHeaderListSize;
+
+    /**
+     * @param maxTableSize The header table size advertised in our settings
+     * @param maxHeaderListSize The largest header list accepted, in bytes
+     */
+    HpackDecoder(final int maxTableSize, final int maxHeaderListSize) {
+        this.table = new HpackTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+
+    /**
+     * Decodes a complete header block into name and value pairs
+     *
+     * @param block
+     * @return
+     * @throws IOException If the block is malformed, which is a connection error
+     * @throws HeaderListTooLargeException If the headers exceed the maximum size, which only fails the stream
+     */
+    List<String[]> decode(final byte[] block) throws IOException {
+
+        final List<String[]> headers = new ArrayList<String[]>();
+        final int[] position = { 0 };
+
+        int headerListSize = 0;
+        boolean headerSeen = false;
+
+        while (position[0] < block.length) {
+
+            final int b = block[position[0]] & 0xff;
+
+            final String[] header;
+
+            if ((b & 0x80) != 0) {
+
+                /* Indexed header field */
+                final int index = readInteger(block, position, 7);
+
+                header = table.get(index);
+
+                if (null == header) {
+                    throw new IOException("Invalid HPACK index " + index);
+                }
+
+            } else if ((b & 0xc0) == 0x40) {
+
+                /* Literal header field with incremental indexing */
+                header = readLiteral(block, position, 6);
+
+                table.add(header[0], header[1]);
+
+            } else if ((b & 0xe0) == 0x20) {
+
+                /* Dynamic table size update, only allowed before the first header */
+                final int maxSize = readInteger(block, position, 5);
+
+                if (headerSeen || maxSize > maxTableSize) {
+                    throw new IOException("Invalid HPACK dynamic table size update to " + maxSize);
+                }
+
+                table.setMaxSize(maxSize);
+
+                continue;
+
+            } else {
+
+                /* Literal header field without indexing or never indexed */
+                header = readLiteral(block, position, 4);
+            }
+
+            headerSeen = true;
+            headerListSize += header[0].length() + header[1].length() + HpackTable.ENTRY_OVERHEAD;
+
+            headers.add(header);
+        }
+
+        /* Checked once the whole block is decoded so that the dynamic table stays in sync */
+        if (headerListSize > maxHeaderListSize) {
+            throw new HeaderListTooLargeException(maxHeaderListSize);
+        }
+
+        return headers;
+    }
+
+    private String[] readLiteral(final byte[] block, final int[] position, final int prefixBits) throws IOException {
+
+        final int index = readInteger(block, position, prefixBits);
+
+        final String name;
+
+        if (index == 0) {
+            name = readString(block, position);
+        } else {
+
+            final String[] indexed = table.get(index);
+
+            if (null == indexed) {
+                throw new IOException("Invalid HPACK index " + index);
+            }
+
+            name = indexed[0];
+        }
+
+        return new String[] { name, readString(block, position) };
+    }
+
+    private static String readString(final byte[] block, final int[] position) throws IOException {
+
+        if (position[0] >= block.length) {
+            throw new IOException("Truncated HPACK string");
+        }
+
+        final boolean huffman = (block[position[0]] & 0x80) != 0;
+        final int length = readInteger(block, position, 7);
+
+        if (length > block.length - position[0]) {
+            throw new IOException("Truncated HPACK string");
+        }
+
+        final byte[] bytes = huffman ? Huffman.decode(block, position[0], length) : null;
+        final String value = huffman ? new String(bytes, 0, bytes.length, "ISO-8859-1") : new String(block, position[0], length, "ISO-8859-1");
+
+        position[0] += length;
+
+        return value;
+    }
+
+    static int readInteger(final byte[] block, final int[] position, final int prefixBits) throws IOException {
+
+        final int prefixMax = (1 << prefixBits) - 1;
+
+        int value = block[position[0]++] & prefixMax;
+
+        if (value < prefixMax) {
+            return value;
+        }
+
+        int shift = 0;
+
+        while (true) {
+
+            if (position[0] >= block.length || shift > 28) {
+                throw new IOException("Invalid HPACK integer");
+            }
+
+            final int b = block[position[0]++] & 0xff;
+
+            value += (b & 0x7f) << shift;
+
+            if (value < 0) {
+                throw new IOException("Invalid HPACK integer");
+            }
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+
+            shift += 7;
+        }
+    }
+
+    /**
+     * Thrown when the headers of a response exceed the advertised maximum header list size
+     */
+    static final class HeaderListTooLargeException extends IOException {
+
+        private static final long serialVersionUID = 0L;
+
+        HeaderListTooLargeException(final int maxHeaderListSize) {
+            super("The response headers exceed " + maxHeaderListSize + " bytes");
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Encodes HPACK header blocks sent on a connection (RFC 7541)
+ *
+ * Headers are added to the dynamic table so that the ones repeated on every request of a
+ * connection, such as the authority, user agent and accept headers, shrink to a single byte.
+ * Values that change with every request are sent as literals so they do not evict the useful
+ * entries, and credentials are never indexed so that intermediaries do not index them either.
+ *
+ * Header blocks must be encoded and written in the same order, under the connection's write lock.
+ *
+ */
+final class HpackEncoder {
+
+    /**
+     * Headers whose values change with every request and are not worth indexing
+     */
+    private static final Set<String> UNINDEXED_HEADERS = new HashSet<String>(Arrays.asList(
+            ":path", "content-length", "x-conversation-id", "if-none-match", "if-modified-since", "range"));
+
+    /**
+     * Headers carrying credentials
+     */
+    private static final Set<String> SENSITIVE_HEADERS = new HashSet<String>(Arrays.asList(
+            "authorization", "proxy-authorization", "cookie"));
+
+    private final int maxTableSize;
+
+    private final HpackTable table;
+
+    /**
+     * The smallest table size the peer allowed since the last header block, or -1
+     */
+    private int pendingMinSize = -1;
+
+    /**
+     * @param maxTableSize The largest dynamic table this encoder uses, whatever the peer allows
+     */
+    HpackEncoder(final int maxTableSize) {
+        this.maxTableSize = maxTableSize;
+        this.table = new HpackTable(Http2Connection.DEFAULT_HEADER_TABLE_SIZE);
+
+        setPeerTableSize(Http2Connection.DEFAULT_HEADER_TABLE_SIZE);
+    }
+
+    /**
+     * Applies the header table size advertised by the peer
+     *
+     * @param peerTableSize
+     */
+    void setPeerTableSize(final int peerTableSize) {
+
+        final int size = Math.min(maxTableSize, peerTableSize);
+
+        if (size == table.getMaxSize() && pendingMinSize == -1) {
+            return;
+        }
+
+        pendingMinSize = (pendingMinSize == -1) ? Math.min(size, table.getMaxSize()) : Math.min(pendingMinSize, size);
+
+        table.setMaxSize(size);
+    }
+
+    byte[] encode(final List<String[]> headers) {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+        if (pendingMinSize != -1) {
+
+            /* Signals every reduction, then the final size, before the first header (RFC 7541, section 4.2) */
+            if (pendingMinSize < table.getMaxSize()) {
+                writeInteger(out, 0x20, 5, pendingMinSize);
+            }
+
+            writeInteger(out, 0x20, 5, table.getMaxSize());
+
+            pendingMinSize = -1;
+        }
+
+        for (final String[] header : headers) {
+
+            final String name = header[0];
+            final String value = header[1];
+
+            final boolean sensitive = SENSITIVE_HEADERS.contains(name);
+            final int index = table.find(name, value);
+
+            if (index > 0 && !sensitive) {
+                writeInteger(out, 0x80, 7, index);
+                continue;
+            }
+
+            /* A sensitive header matching a whole entry still reuses its name */
+            final int nameIndex = Math.abs(index);
+
+            if (sensitive) {
+                writeInteger(out, 0x10, 4, nameIndex);
+            } else if (UNINDEXED_HEADERS.contains(name)) {
+                writeInteger(out, 0x00, 4, nameIndex);
+            } else {
+                writeInteger(out, 0x40, 6, nameIndex);
+                table.add(name, value);
+            }
+
+            if (nameIndex == 0) {
+                writeString(out, name);
+            }
+
+            writeString(out, value);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static void writeString(final ByteArrayOutputStream out, final String string) {
+
+        final byte[] bytes;
+
+        try {
+            bytes = string.getBytes("ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final int huffmanLength = Huffman.encodedLength(bytes);
+
+        if (huffmanLength < bytes.length) {
+            writeInteger(out, 0x80, 7, huffmanLength);
+            Huffman.encode(bytes, out);
+        } else {
+            writeInteger(out, 0x00, 7, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    static void writeInteger(final ByteArrayOutputStream out, final int flags, final int prefixBits, final int value) {
+
+        final int prefixMax = (1 << prefixBits) - 1;
+
+        if (value < prefixMax) {
+            out.write(flags | value);
+            return;
+        }
+
+        out.write(flags | prefixMax);
+
+        int remaining = value - prefixMax;
+
+        while (remaining >= 0x80) {
+            out.write((remaining & 0x7f) | 0x80);
+            remaining >>>= 7;
+        }
+
+        out.write(remaining);
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.http2;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+
+/**
+ * The HPACK static table followed by a dynamic table (RFC 7541, section 2.3)
+ *
+ * Index 1 is the first static entry and index 62 the most recently added dynamic entry. Every
+ * connection owns one table per direction, used by a single thread at a time.
+ *
+ */
+final class HpackTable {
+
+    /**
+     * Overhead added to the size of every entry, in bytes
+     */
+    static final int ENTRY_OVERHEAD = 32;
+
+    static final String[][] STATIC_TABLE = {
+            { ":authority", "" },
+            { ":method", "GET" },
+            { ":method", "POST" },
+            { ":path", "/" },
+            { ":path", "/index.html" },
+            { ":scheme", "http" },
+            { ":scheme", "https" },
+            { ":status", "200" },
+            { ":status", "204" },
+            { ":status", "206" },
+            { ":status", "304" },
+            { ":status", "400" },
+            { ":status", "404" },
+            { ":status", "500" },
+            { "accept-charset", "" },
+            { "accept-encoding", "gzip, deflate" },
+            { "accept-language", "" },
+            { "accept-ranges", "" },
+            { "accept", "" },
+            { "access-control-allow-origin", "" },
+            { "age", "" },
+            { "allow", "" },
+            { "authorization", "" },
+            { "cache-control", "" },
+            { "content-disposition", "" },
+            { "content-encoding", "" },
+            { "content-language", "" },
+            { "content-length", "" },
+            { "content-location", "" },
+            { "content-range", "" },
+            { "content-type", "" },
+            { "cookie", "" },
+            { "date", "" },
+            { "etag", "" },
+            { "expect", "" },
+            { "expires", "" },
+            { "from", "" },
+            { "host", "" },
+            { "if-match", "" },
+            { "if-modified-since", "" },
+            { "if-none-match", "" },
+            { "if-range", "" },
+            { "if-unmodified-since", "" },
+            { "last-modified", "" },
+            { "link", "" },
+            { "location", "" },
+            { "max-forwards", "" },
+            { "proxy-authenticate", "" },
+            { "proxy-authorization", "" },
+            { "range", "" },
+            { "referer", "" },
+            { "refresh", "" },
+            { "retry-after", "" },
+            { "server", "" },
+            { "set-cookie", "" },
+            { "strict-transport-security", "" },
+            { "transfer-encoding", "" },
+            { "user-agent", "" },
+            { "vary", "" },
+            { "via", "" },
+            { "www-authenticate", "" }
+    };
+
+    /**
+     * Static index of every name, the lowest index when a name appears several times
+     */
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<String, Integer>();
+
+    /**
+     * Static index of every name and value pair with a non-empty value
+     */
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<String, Integer>();
+
+    static {
+
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+
+            if (STATIC_TABLE[i][1].length() > 0) {
+                STATIC_FIELDS.put(STATIC_TABLE[i][0] + '\n' + STATIC_TABLE[i][1], i + 1);
+            }
+        }
+    }
+
+    /**
+     * Dynamic entries, the most recent first
+     */
+    private final LinkedList<String[]> entries = new LinkedList<String[]>();
+
+    private int size = 0;
+
+    private int maxSize;
+
+    HpackTable(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    void setMaxSize(final int maxSize) {
+        this.maxSize = maxSize;
+        evict(0);
+    }
+
+    /**
+     * Returns the name and value at the specified index
+     *
+     * @param index
+     * @return
+     */
+    String[] get(final int index) {
+
+        if (index <= 0 || index > STATIC_TABLE.length + entries.size()) {
+            return null;
+        }
+
+        return (index <= STATIC_TABLE.length) ? STATIC_TABLE[index - 1] : entries.get(index - STATIC_TABLE.length - 1);
+    }
+
+    void add(final String name, final String value) {
+
+        final int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+
+        evict(entrySize);
+
+        /* An entry larger than the table empties it and is not added */
+        if (entrySize <= maxSize) {
+            entries.addFirst(new String[] { name, value });
+            size += entrySize;
+        }
+    }
+
+    private void evict(final int required) {
+
+        while (!entries.isEmpty() && size + required > maxSize) {
+
+            final String[] evicted = entries.removeLast();
+
+            size -= evicted[0].length() + evicted[1].length() + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * Returns the index of the name and value, or the negated index of the name alone, or 0
+     *
+     * @param name
+     * @param value
+     * @return
+     */
+    int find(final String name, final String value) {
+
+        final Integer field = STATIC_FIELDS.get(name + '\n' + value);
+
+        if (null != field) {
+            return field;
+        }
+
+        int nameIndex = 0;
+        int index = STATIC_TABLE.length + 1;
+
+        for (final String[] entry : entries) {
+
+            if (entry[0].equals(name)) {
+
+                if (entry[1].equals(value)) {
+                    return index;
+                }
+
+                if (nameIndex == 0) {
+                    nameIndex = index;
+                }
+            }
+
+            index++;
+        }
+
+        final Integer staticName = STATIC_NAMES.get(name);
+
+        if (null != staticName) {
+            return -staticName;
+        }
+
+        return -nameIndex;
+    }
+}
@@ -0,0 +1,1074 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.http2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.aicer.hibiscus.http.http2.HpackDecoder.HeaderListTooLargeException;
+import org.apache.log4j.Logger;
+
+
+/**
+ * A HTTP/2 connection multiplexing concurrent streams over a single socket (RFC 7540)
+ *
+ * Requesting threads open streams and write their frames under the write lock, while a reader
+ * thread owned by the connection dispatches every frame received. Flow control is enforced in
+ * both directions: request data waits for window updates from the peer, and received data
+ * is only credited back to the peer as callers consume it.
+ *
+ * Locks are always taken in the order stream, connection, write lock.
+ *
+ */
+final class Http2Connection implements Runnable {
+
+    private static final Logger log = Logger.getLogger(Http2Connection.class);
+
+    static final int DEFAULT_HEADER_TABLE_SIZE = 4096;
+
+    static final int DEFAULT_INITIAL_WINDOW_SIZE = 65535;
+
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+    static final int MAX_FRAME_SIZE_LIMIT = 16777215;
+
+    static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    private static final byte[] PREFACE = { 'P', 'R', 'I', ' ', '*', ' ', 'H', 'T', 'T', 'P', '/', '2', '.', '0', '\r', '\n', '\r', '\n',
+            'S', 'M', '\r', '\n', '\r', '\n' };
+
+    private static final int FRAME_HEADER_LENGTH = 9;
+
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+
+    private static final String[] ERROR_NAMES = { "NO_ERROR", "PROTOCOL_ERROR", "INTERNAL_ERROR", "FLOW_CONTROL_ERROR", "SETTINGS_TIMEOUT",
+            "STREAM_CLOSED", "FRAME_SIZE_ERROR", "REFUSED_STREAM", "CANCEL", "COMPRESSION_ERROR", "CONNECT_ERROR", "ENHANCE_YOUR_CALM",
+            "INADEQUATE_SECURITY", "HTTP_1_1_REQUIRED" };
+
+    private final String key;
+
+    private final Socket socket;
+
+    private final DataInputStream in;
+
+    private final OutputStream out;
+
+    private final Object writeLock = new Object();
+
+    private final HpackEncoder encoder;
+
+    private final HpackDecoder decoder;
+
+    private final int localInitialWindowSize;
+
+    private final int localMaxFrameSize;
+
+    private final int localConnectionWindowSize;
+
+    private final int localHeaderTableSize;
+
+    private final int localMaxHeaderListSize;
+
+    private final long readTimeoutMillis;
+
+    private final int localMaxConcurrentStreams;
+
+    private final Map<Integer, Http2Stream> streams = new HashMap<Integer, Http2Stream>();
+
+    private int reservedStreams = 0;
+
+    private int nextStreamId = 1;
+
+    private int peerMaxConcurrentStreams = Integer.MAX_VALUE;
+
+    private int peerInitialWindowSize = DEFAULT_INITIAL_WINDOW_SIZE;
+
+    private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+    private long connectionSendWindow = DEFAULT_INITIAL_WINDOW_SIZE;
+
+    private long connectionReceiveWindow = DEFAULT_INITIAL_WINDOW_SIZE;
+
+    private int connectionUnacknowledged = 0;
+
+    private boolean goingAway = false;
+
+    private IOException failure = null;
+
+    Http2Connection(final String key, final Socket socket, final Http2Transport settings) throws IOException {
+
+        this.key = key;
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 65536);
+
+        this.localInitialWindowSize = settings.getInitialWindowSize();
+        this.localMaxFrameSize = settings.getMaxFrameSize();
+        this.localConnectionWindowSize = Math.max(DEFAULT_INITIAL_WINDOW_SIZE, settings.getConnectionWindowSize());
+        this.localHeaderTableSize = settings.getHeaderTableSize();
+        this.localMaxHeaderListSize = settings.getMaxHeaderListSize();
+        this.readTimeoutMillis = settings.getReadTimeoutMillis();
+        this.localMaxConcurrentStreams = settings.getMaxConcurrentStreams();
+
+        this.encoder = new HpackEncoder(localHeaderTableSize);
+        this.decoder = new HpackDecoder(localHeaderTableSize, localMaxHeaderListSize);
+    }
+
+    /**
+     * Sends the connection preface with our settings and starts the reader thread
+     *
+     * @throws IOException
+     */
+    void start() throws IOException {
+
+        final ByteArrayOutputStream settings = new ByteArrayOutputStream();
+
+        writeSetting(settings, SETTINGS_HEADER_TABLE_SIZE, localHeaderTableSize);
+        writeSetting(settings, SETTINGS_ENABLE_PUSH, 0);
+        writeSetting(settings, SETTINGS_INITIAL_WINDOW_SIZE, localInitialWindowSize);
+        writeSetting(settings, SETTINGS_MAX_FRAME_SIZE, localMaxFrameSize);
+        writeSetting(settings, SETTINGS_MAX_HEADER_LIST_SIZE, localMaxHeaderListSize);
+
+        synchronized (writeLock) {
+
+            out.write(PREFACE);
+
+            writeFrameHeader(settings.size(), SETTINGS, 0, 0);
+            out.write(settings.toByteArray());
+
+            if (localConnectionWindowSize > DEFAULT_INITIAL_WINDOW_SIZE) {
+                writeFrameHeader(4, WINDOW_UPDATE, 0, 0);
+                writeInt(localConnectionWindowSize - DEFAULT_INITIAL_WINDOW_SIZE);
+            }
+
+            out.flush();
+        }
+
+        synchronized (this) {
+            connectionReceiveWindow = localConnectionWindowSize;
+        }
+
+        final Thread reader = new Thread(this, "hibiscus-http2-" + key);
+
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    int getLocalInitialWindowSize() {
+        return localInitialWindowSize;
+    }
+
+    /**
+     * Whether new streams may be opened on this connection
+     *
+     * @return
+     */
+    synchronized boolean isUsable() {
+        return null == failure && !goingAway;
+    }
+
+    synchronized int getActiveStreamCount() {
+        return streams.size();
+    }
+
+    /**
+     * Opens a stream by sending the request headers, waiting while the peer's concurrency limit is reached
+     *
+     * @param headers The request headers, pseudo-headers first
+     * @param endStream Whether the request has no body
+     * @return
+     * @throws ConnectionUnavailableException If the connection can no longer open streams
+     * @throws IOException
+     */
+    Http2Stream newStream(final List<String[]> headers, final boolean endStream) throws IOException {
+
+        synchronized (this) {
+
+            while (true) {
+
+                if (null != failure || goingAway) {
+                    throw new ConnectionUnavailableException(key);
+                }
+
+                if (streams.size() + reservedStreams < Math.min(peerMaxConcurrentStreams, localMaxConcurrentStreams)) {
+                    break;
+                }
+
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a HTTP/2 stream on " + key);
+                }
+            }
+
+            reservedStreams++;
+        }
+
+        final Http2Stream stream;
+
+        synchronized (writeLock) {
+
+            synchronized (this) {
+
+                reservedStreams--;
+
+                if (null != failure || goingAway) {
+                    notifyAll();
+                    throw new ConnectionUnavailableException(key);
+                }
+
+                stream = new Http2Stream(nextStreamId, this, peerInitialWindowSize, localInitialWindowSize, readTimeoutMillis);
+                streams.put(nextStreamId, stream);
+
+                nextStreamId += 2;
+
+                /* Stream identifiers cannot be reused, a new connection is needed once they run out */
+                if (nextStreamId < 0 || nextStreamId > Integer.MAX_VALUE - 2) {
+                    goingAway = true;
+                }
+            }
+
+            final byte[] block = encoder.encode(headers);
+
+            try {
+
+                int offset = 0;
+                int type = HEADERS;
+
+                do {
+
+                    final int length = Math.min(block.length - offset, getPeerMaxFrameSize());
+                    final boolean last = offset + length == block.length;
+
+                    writeFrameHeader(length, type, (last ? FLAG_END_HEADERS : 0) | ((endStream && type == HEADERS) ? FLAG_END_STREAM : 0), stream.getId());
+                    out.write(block, offset, length);
+
+                    offset += length;
+                    type = CONTINUATION;
+
+                } while (offset < block.length);
+
+                out.flush();
+
+            } catch (IOException e) {
+                closeQuietly();
+                throw e;
+            }
+        }
+
+        if (endStream) {
+            stream.localClosed();
+        }
+
+        return stream;
+    }
+
+    private synchronized int getPeerMaxFrameSize() {
+        return peerMaxFrameSize;
+    }
+
+    /**
+     * Sends request data, splitting it into frames as allowed by the frame size and flow-control windows
+     *
+     * @param stream
+     * @param data
+     * @param offset
+     * @param length
+     * @param endStream Whether the last frame ends the request
+     * @throws IOException If the stream or the connection failed
+     */
+    void writeData(final Http2Stream stream, final byte[] data, final int offset, final int length, final boolean endStream) throws IOException {
+
+        int position = offset;
+        int remaining = length;
+
+        do {
+
+            final int chunk;
+
+            synchronized (this) {
+
+                while (true) {
+
+                    if (null != failure) {
+                        throw failure;
+                    }
+
+                    if (null != stream.getFailure()) {
+                        throw stream.getFailure();
+                    }
+
+                    if (remaining == 0 || (stream.sendWindow > 0 && connectionSendWindow > 0)) {
+                        break;
+                    }
+
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the HTTP/2 flow-control window on " + key);
+                    }
+                }
+
+                chunk = (int) Math.min(Math.min(remaining, peerMaxFrameSize), Math.min(stream.sendWindow, connectionSendWindow));
+
+                stream.sendWindow -= chunk;
+                connectionSendWindow -= chunk;
+            }
+
+            final boolean last = endStream && chunk == remaining;
+
+            writeFrame(DATA, last ? FLAG_END_STREAM : 0, stream.getId(), data, position, chunk);
+
+            position += chunk;
+            remaining -= chunk;
+
+            if (last) {
+                stream.localClosed();
+            }
+
+        } while (remaining > 0);
+    }
+
+    /**
+     * Credits consumed or discarded data back to the connection receive window
+     *
+     * @param length
+     */
+    void dataConsumed(final int length) {
+
+        int increment = 0;
+
+        synchronized (this) {
+
+            connectionUnacknowledged += length;
+
+            if (connectionUnacknowledged >= localConnectionWindowSize / 2) {
+                increment = connectionUnacknowledged;
+                connectionReceiveWindow += increment;
+                connectionUnacknowledged = 0;
+            }
+        }
+
+        if (increment > 0) {
+
+            try {
+                writeWindowUpdate(0, increment);
+            } catch (IOException e) {
+                /* The reader thread notices the broken connection and fails the streams */
+                closeQuietly();
+            }
+        }
+    }
+
+    void writeWindowUpdate(final int streamId, final int increment) throws IOException {
+        writeFrame(WINDOW_UPDATE, 0, streamId, toBytes(increment), 0, 4);
+    }
+
+    /**
+     * Resets a stream, for instance when the caller abandoned it
+     *
+     * @param stream
+     * @param errorCode
+     */
+    void resetStream(final Http2Stream stream, final int errorCode) {
+
+        try {
+            writeFrame(RST_STREAM, 0, stream.getId(), toBytes(errorCode), 0, 4);
+        } catch (IOException e) {
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Forgets a stream once both sides have ended it
+     *
+     * @param stream
+     */
+    void streamDone(final Http2Stream stream) {
+
+        final boolean close;
+
+        synchronized (this) {
+
+            if (null != streams.remove(stream.getId())) {
+                notifyAll();
+            }
+
+            close = goingAway && streams.isEmpty() && reservedStreams == 0;
+        }
+
+        if (close) {
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Sends a GOAWAY frame and closes the connection, failing any stream still active
+     */
+    void close() {
+
+        try {
+            synchronized (this) {
+                goingAway = true;
+            }
+
+            writeFrame(GOAWAY, 0, 0, new byte[8], 0, 8);
+
+        } catch (IOException e) {
+            log.debug("Unable to send GOAWAY on " + key, e);
+        }
+
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.debug("Unable to close the HTTP/2 connection to " + key, e);
+        }
+    }
+
+    /**
+     * Fails the connection and every active stream
+     *
+     * @param cause
+     */
+    private void fail(final IOException cause) {
+
+        final List<Http2Stream> active;
+
+        synchronized (this) {
+
+            if (null == failure) {
+                failure = cause;
+            }
+
+            active = new ArrayList<Http2Stream>(streams.values());
+
+            notifyAll();
+        }
+
+        for (final Http2Stream stream : active) {
+            stream.fail(cause);
+        }
+
+        closeQuietly();
+    }
+
+    /**
+     * Reads and dispatches frames until the connection fails or is closed
+     */
+    public void run() {
+
+        try {
+
+            while (true) {
+                readFrame();
+            }
+
+        } catch (ConnectionException e) {
+
+            log.warn("HTTP/2 protocol error on " + key + ": " + e.getMessage());
+
+            try {
+
+                final byte[] payload = new byte[8];
+
+                /* The last stream identifier stays 0 because the client never accepts streams initiated by the server */
+                System.arraycopy(toBytes(e.errorCode), 0, payload, 4, 4);
+
+                writeFrame(GOAWAY, 0, 0, payload, 0, 8);
+
+            } catch (IOException ignored) {
+                log.debug("Unable to send GOAWAY on " + key, ignored);
+            }
+
+            fail(e);
+
+        } catch (EOFException e) {
+            fail(new IOException("The HTTP/2 connection to " + key + " was closed by the server"));
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(new IOException("Unexpected failure reading from " + key, e));
+        }
+    }
+
+    private void readFrame() throws IOException {
+
+        final int length = in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+        final int type = in.readUnsignedByte();
+        final int flags = in.readUnsignedByte();
+        final int streamId = in.readInt() & Integer.MAX_VALUE;
+
+        if (length > localMaxFrameSize) {
+            throw new ConnectionException(FRAME_SIZE_ERROR, "Frame of " + length + " bytes exceeds the maximum frame size");
+        }
+
+        final byte[] payload = new byte[length];
+
+        in.readFully(payload);
+
+        switch (type) {
+
+        case DATA:
+            onData(flags, streamId, payload);
+            break;
+
+        case HEADERS:
+            onHeaders(flags, streamId, payload);
+            break;
+
+        case RST_STREAM:
+            onReset(streamId, payload);
+            break;
+
+        case SETTINGS:
+            onSettings(flags, streamId, payload);
+            break;
+
+        case PUSH_PROMISE:
+            throw new ConnectionException(PROTOCOL_ERROR, "Received PUSH_PROMISE although push is disabled");
+
+        case PING:
+            onPing(flags, streamId, payload);
+            break;
+
+        case GOAWAY:
+            onGoAway(streamId, payload);
+            break;
+
+        case WINDOW_UPDATE:
+            onWindowUpdate(streamId, payload);
+            break;
+
+        case CONTINUATION:
+            throw new ConnectionException(PROTOCOL_ERROR, "Received CONTINUATION without HEADERS");
+
+        default:
+            /* PRIORITY and unknown frame types are ignored */
+            break;
+        }
+    }
+
+    private void onData(final int flags, final int streamId, final byte[] payload) throws IOException {
+
+        if (streamId == 0) {
+            throw new ConnectionException(PROTOCOL_ERROR, "DATA frame on stream 0");
+        }
+
+        final Http2Stream stream;
+
+        synchronized (this) {
+
+            if (payload.length > connectionReceiveWindow) {
+                throw new ConnectionException(FLOW_CONTROL_ERROR, "The server exceeded the connection window");
+            }
+
+            connectionReceiveWindow -= payload.length;
+
+            stream = streams.get(streamId);
+
+            if (null == stream && streamId >= nextStreamId) {
+                throw new ConnectionException(PROTOCOL_ERROR, "DATA frame on idle stream " + streamId);
+            }
+        }
+
+        final int padding = getPadding(flags, payload);
+        final int dataOffset = ((flags & FLAG_PADDED) != 0) ? 1 : 0;
+        final int dataLength = payload.length - dataOffset - padding;
+
+        /* Padding is never read by the caller and is credited back immediately, as is data of closed streams */
+        final int discarded = (null == stream) ? payload.length : payload.length - dataLength;
+
+        if (discarded > 0) {
+            dataConsumed(discarded);
+        }
+
+        if (null == stream) {
+            return;
+        }
+
+        final byte[] data = new byte[dataLength];
+
+        System.arraycopy(payload, dataOffset, data, 0, dataLength);
+
+        if (!stream.onData(data, (flags & FLAG_END_STREAM) != 0)) {
+            dataConsumed(dataLength);
+            resetStream(stream, FLOW_CONTROL_ERROR);
+            stream.fail(new IOException("The server exceeded the window of HTTP/2 stream " + streamId));
+        }
+    }
+
+    private void onHeaders(final int flags, final int streamId, final byte[] payload) throws IOException {
+
+        if (streamId == 0) {
+            throw new ConnectionException(PROTOCOL_ERROR, "HEADERS frame on stream 0");
+        }
+
+        final int padding = getPadding(flags, payload);
+
+        int offset = ((flags & FLAG_PADDED) != 0) ? 1 : 0;
+
+        if ((flags & FLAG_PRIORITY) != 0) {
+            offset += 5;
+        }
+
+        if (offset + padding > payload.length) {
+            throw new ConnectionException(PROTOCOL_ERROR, "Invalid HEADERS padding");
+        }
+
+        final ByteArrayOutputStream block = new ByteArrayOutputStream();
+
+        block.write(payload, offset, payload.length - offset - padding);
+
+        boolean endHeaders = (flags & FLAG_END_HEADERS) != 0;
+
+        while (!endHeaders) {
+
+            final int length = in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+            final int type = in.readUnsignedByte();
+            final int continuationFlags = in.readUnsignedByte();
+            final int continuationStreamId = in.readInt() & Integer.MAX_VALUE;
+
+            if (type != CONTINUATION || continuationStreamId != streamId) {
+                throw new ConnectionException(PROTOCOL_ERROR, "Expected CONTINUATION for stream " + streamId);
+            }
+
+            if (length > localMaxFrameSize || block.size() + length > Math.max(localMaxHeaderListSize, localMaxFrameSize) * 2) {
+                throw new ConnectionException(FRAME_SIZE_ERROR, "Header block for stream " + streamId + " is too large");
+            }
+
+            final byte[] continuation = new byte[length];
+
+            in.readFully(continuation);
+            block.write(continuation, 0, length);
+
+            endHeaders = (continuationFlags & FLAG_END_HEADERS) != 0;
+        }
+
+        final Http2Stream stream;
+
+        synchronized (this) {
+
+            stream = streams.get(streamId);
+
+            if (null == stream && streamId >= nextStreamId) {
+                throw new ConnectionException(PROTOCOL_ERROR, "HEADERS frame on idle stream " + streamId);
+            }
+        }
+
+        final List<String[]> headers;
+
+        try {
+
+            headers = decoder.decode(block.toByteArray());
+
+        } catch (HeaderListTooLargeException e) {
+
+            if (null != stream) {
+                resetStream(stream, REFUSED_STREAM);
+                stream.fail(e);
+            }
+
+            return;
+
+        } catch (IOException e) {
+            throw new ConnectionException(COMPRESSION_ERROR, e.getMessage());
+        }
+
+        if (null == stream) {
+            return;
+        }
+
+        final boolean endStream = (flags & FLAG_END_STREAM) != 0;
+
+        /* Informational responses are skipped, the final response follows on the same stream */
+        if (!endStream && isInformational(headers)) {
+            return;
+        }
+
+        stream.onHeaders(headers, endStream);
+    }
+
+    private static boolean isInformational(final List<String[]> headers) {
+
+        for (final String[] header : headers) {
+
+            if (header[0].equals(":status")) {
+                return header[1].length() == 3 && header[1].charAt(0) == '1';
+            }
+        }
+
+        return false;
+    }
+
+    private void onReset(final int streamId, final byte[] payload) throws IOException {
+
+        if (streamId == 0 || payload.length != 4) {
+            throw new ConnectionException(PROTOCOL_ERROR, "Invalid RST_STREAM frame");
+        }
+
+        final Http2Stream stream;
+
+        synchronized (this) {
+            stream = streams.get(streamId);
+        }
+
+        if (null != stream) {
+
+            final int errorCode = readInt(payload, 0);
+
+            stream.fail((errorCode == REFUSED_STREAM) ? new RefusedStreamException(key, streamId)
+                    : new IOException("HTTP/2 stream " + streamId + " was reset by the server with " + getErrorName(errorCode)));
+        }
+    }
+
+    private void onSettings(final int flags, final int streamId, final byte[] payload) throws IOException {
+
+        if (streamId != 0) {
+            throw new ConnectionException(PROTOCOL_ERROR, "SETTINGS frame on stream " + streamId);
+        }
+
+        if ((flags & FLAG_ACK) != 0) {
+
+            if (payload.length != 0) {
+                throw new ConnectionException(FRAME_SIZE_ERROR, "SETTINGS acknowledgement with a payload");
+            }
+
+            return;
+        }
+
+        if (payload.length % 6 != 0) {
+            throw new ConnectionException(FRAME_SIZE_ERROR, "Invalid SETTINGS frame length");
+        }
+
+        synchronized (writeLock) {
+
+            synchronized (this) {
+
+                for (int i = 0; i < payload.length; i += 6) {
+
+                    final int identifier = (payload[i] & 0xff) << 8 | (payload[i + 1] & 0xff);
+                    final int value = readInt(payload, i + 2);
+
+                    switch (identifier) {
+
+                    case SETTINGS_HEADER_TABLE_SIZE:
+                        encoder.setPeerTableSize(value);
+                        break;
+
+                    case SETTINGS_MAX_CONCURRENT_STREAMS:
+                        peerMaxConcurrentStreams = value;
+                        break;
+
+                    case SETTINGS_INITIAL_WINDOW_SIZE:
+
+                        if (value < 0) {
+                            throw new ConnectionException(FLOW_CONTROL_ERROR, "Invalid initial window size");
+                        }
+
+                        final int delta = value - peerInitialWindowSize;
+
+                        for (final Http2Stream stream : streams.values()) {
+
+                            stream.sendWindow += delta;
+
+                            if (stream.sendWindow > MAX_WINDOW_SIZE) {
+                                throw new ConnectionException(FLOW_CONTROL_ERROR, "Stream window overflow");
+                            }
+                        }
+
+                        peerInitialWindowSize = value;
+                        break;
+
+                    case SETTINGS_MAX_FRAME_SIZE:
+
+                        if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_FRAME_SIZE_LIMIT) {
+                            throw new ConnectionException(PROTOCOL_ERROR, "Invalid maximum frame size " + value);
+                        }
+
+                        peerMaxFrameSize = value;
+                        break;
+
+                    default:
+                        /* SETTINGS_ENABLE_PUSH, SETTINGS_MAX_HEADER_LIST_SIZE and unknown settings do not constrain the client */
+                        break;
+                    }
+                }
+
+                notifyAll();
+            }
+
+            writeFrameHeader(0, SETTINGS, FLAG_ACK, 0);
+            out.flush();
+        }
+    }
+
+    private void onPing(final int flags, final int streamId, final byte[] payload) throws IOException {
+
+        if (streamId != 0 || payload.length != 8) {
+            throw new ConnectionException(PROTOCOL_ERROR, "Invalid PING frame");
+        }
+
+        if ((flags & FLAG_ACK) == 0) {
+            writeFrame(PING, FLAG_ACK, 0, payload, 0, 8);
+        }
+    }
+
+    private void onGoAway(final int streamId, final byte[] payload) throws IOException {
+
+        if (streamId != 0 || payload.length < 8) {
+            throw new ConnectionException(PROTOCOL_ERROR, "Invalid GOAWAY frame");
+        }
+
+        final int lastStreamId = readInt(payload, 0) & Integer.MAX_VALUE;
+        final int errorCode = readInt(payload, 4);
+
+        final List<Http2Stream> refused = new ArrayList<Http2Stream>();
+        final boolean close;
+
+        synchronized (this) {
+
+            goingAway = true;
+
+            for (final Http2Stream stream : streams.values()) {
+
+                if (stream.getId() > lastStreamId) {
+                    refused.add(stream);
+                }
+            }
+
+            close = streams.size() == refused.size() && reservedStreams == 0;
+
+            notifyAll();
+        }
+
+        if (errorCode != NO_ERROR) {
+            log.warn("The server closed the HTTP/2 connection to " + key + " with " + getErrorName(errorCode));
+        }
+
+        /* Streams the server never processed can safely be sent again on a new connection */
+        for (final Http2Stream stream : refused) {
+            stream.fail(new RefusedStreamException(key, stream.getId()));
+        }
+
+        if (close) {
+            throw new EOFException();
+        }
+    }
+
+    private void onWindowUpdate(final int streamId, final byte[] payload) throws IOException {
+
+        if (payload.length != 4) {
+            throw new ConnectionException(FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE frame");
+        }
+
+        final int increment = readInt(payload, 0) & Integer.MAX_VALUE;
+
+        Http2Stream overflowed = null;
+
+        synchronized (this) {
+
+            if (streamId == 0) {
+
+                if (increment == 0 || connectionSendWindow + increment > MAX_WINDOW_SIZE) {
+                    throw new ConnectionException(FLOW_CONTROL_ERROR, "Invalid connection window update");
+                }
+
+                connectionSendWindow += increment;
+
+            } else {
+
+                final Http2Stream stream = streams.get(streamId);
+
+                if (null != stream) {
+
+                    stream.sendWindow += increment;
+
+                    if (increment == 0 || stream.sendWindow > MAX_WINDOW_SIZE) {
+                        overflowed = stream;
+                    }
+                }
+            }
+
+            notifyAll();
+        }
+
+        if (null != overflowed) {
+            resetStream(overflowed, FLOW_CONTROL_ERROR);
+            overflowed.fail(new IOException("Invalid window update for HTTP/2 stream " + streamId));
+        }
+    }
+
+    private static int getPadding(final int flags, final byte[] payload) throws ConnectionException {
+
+        if ((flags & FLAG_PADDED) == 0) {
+            return 0;
+        }
+
+        if (payload.length == 0) {
+            throw new ConnectionException(PROTOCOL_ERROR, "Missing padding length");
+        }
+
+        final int padding = payload[0] & 0xff;
+
+        if (padding >= payload.length) {
+            throw new ConnectionException(PROTOCOL_ERROR, "Padding exceeds the frame");
+        }
+
+        return padding;
+    }
+
+    private void writeFrame(final int type, final int flags, final int streamId, final byte[] payload, final int offset, final int length)
+            throws IOException {
+
+        synchronized (writeLock) {
+            writeFrameHeader(length, type, flags, streamId);
+            out.write(payload, offset, length);
+            out.flush();
+        }
+    }
+
+    private void writeFrameHeader(final int length, final int type, final int flags, final int streamId) throws IOException {
+        out.write(length >>> 16);
+        out.write(length >>> 8);
+        out.write(length);
+        out.write(type);
+        out.write(flags);
+        writeInt(streamId);
+    }
+
+    private void writeInt(final int value) throws IOException {
+        out.write(toBytes(value));
+    }
+
+    private static void writeSetting(final ByteArrayOutputStream settings, final int identifier, final int value) {
+        settings.write(identifier >>> 8);
+        settings.write(identifier);
+        settings.write(toBytes(value), 0, 4);
+    }
+
+    private static byte[] toBytes(final int value) {
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+
+    private static int readInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+
+    static String getErrorName(final int errorCode) {
+        return (errorCode >= 0 && errorCode < ERROR_NAMES.length) ? ERROR_NAMES[errorCode] : "error " + errorCode;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Http2Connection [" + key + ", activeStreams=" + streams.size() + ", nextStreamId=" + nextStreamId
+                + ", usable=" + (null == failure && !goingAway) + "]";
+    }
+
+    /**
+     * A connection error, answered with GOAWAY and the error code
+     */
+    private static final class ConnectionException extends IOException {
+
+        private static final long serialVersionUID = 0L;
+
+        private final int errorCode;
+
+        ConnectionException(final int errorCode, final String message) {
+            super(message + " (" + getErrorName(errorCode) + ")");
+            this.errorCode = errorCode;
+        }
+    }
+
+    /**
+     * Thrown when a stream cannot be opened because the connection is closing or broken
+     */
+    static final class ConnectionUnavailableException extends IOException {
+
+        private static final long serialVersionUID = 0L;
+
+        ConnectionUnavailableException(final String key) {
+            super("The HTTP/2 connection to " + key + " no longer accepts new streams");
+        }
+    }
+
+    /**
+     * Thrown when the server refused a stream without processing it, so the request may be sent again
+     */
+    static final class RefusedStreamException extends IOException {
+
+        private static final long serialVersionUID = 0L;
+
+        RefusedStreamException(final String key, final int streamId) {
+            super("The server at " + key + " refused HTTP/2 stream " + streamId + " without processing it");
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.http2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.http.client.HttpClient;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
+import org.aicer.hibiscus.http.client.Response;
+import org.apache.http.Header;
+
+
+/**
+ * Round trip of concurrent requests through Http2Transport against a StandInHttp2Server
+ *
+ * Usage: Http2RoundTrip
+ *
+ * Checks that the requests share a single multiplexed connection, that header blocks larger
+ * than a frame are sent and received as CONTINUATION frames, and that request and response
+ * bodies larger than the flow-control windows complete through WINDOW_UPDATE frames. Prints a
+ * summary, and fails with a HibiscusException listing the checks that did not pass.
+ *
+ */
+public class Http2RoundTrip {
+
+    private static final int STREAMS = 20;
+
+    private static final long DELAY_MILLIS = 200;
+
+    /**
+     * Larger than the window offered by the client, so the server waits for its window updates
+     */
+    private static final int RESPONSE_BYTES = 256 * 1024;
+
+    /**
+     * Larger than the window offered by the server, so the client waits for its window updates
+     */
+    private static final int REQUEST_BYTES = 64 * 1024;
+
+    /**
+     * Larger than a frame even once Huffman coded, so the request header block needs CONTINUATION frames
+     */
+    private static final int LARGE_HEADER_BYTES = 32 * 1024;
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+
+        final StandInHttp2Server server = new StandInHttp2Server(0);
+
+        final Http2Transport http2Transport = new Http2Transport()
+            .setInitialWindowSize(Http2Connection.DEFAULT_INITIAL_WINDOW_SIZE)
+            .setConnectionWindowSize(Http2Connection.DEFAULT_INITIAL_WINDOW_SIZE)
+            .addCleartextServer("127.0.0.1", server.getPort());
+
+        final HttpTransport transport = new HttpTransport().setHttp2Transport(http2Transport);
+
+        transport.setAsyncThreads(STREAMS);
+
+        final List<String> failures = new ArrayList<String>();
+
+        try {
+
+            final char[] largeHeader = new char[LARGE_HEADER_BYTES];
+            final char[] requestBody = new char[REQUEST_BYTES];
+
+            Arrays.fill(largeHeader, 'h');
+
+            for (int i = 0; i < requestBody.length; i++) {
+                requestBody[i] = (char) ('a' + i % 26);
+            }
+
+            final List<Future<Response>> futures = new ArrayList<Future<Response>>();
+            final List<Integer> expectedLengths = new ArrayList<Integer>();
+            final long start = System.nanoTime();
+
+            for (int i = 0; i < STREAMS; i++) {
+
+                final Request.Builder request = new Request.Builder()
+                    .setRawUrl(server.getBaseUrl() + "/?delay=" + DELAY_MILLIS + "&size=" + RESPONSE_BYTES + "&request=" + i);
+
+                /* Alternates large responses, large request bodies and large request headers */
+                if (i % 3 == 1) {
+                    request.setRequestMethod(HttpClient.POST).setRequestBody(new String(requestBody));
+                    expectedLengths.add(REQUEST_BYTES);
+                } else {
+                    expectedLengths.add(RESPONSE_BYTES);
+                }
+
+                if (i % 3 == 2) {
+                    request.addHeader("X-Large", new String(largeHeader));
+                }
+
+                futures.add(transport.executeAsync(request.build()));
+            }
+
+            for (int i = 0; i < STREAMS; i++) {
+
+                try {
+
+                    final Response response = futures.get(i).get(60, TimeUnit.SECONDS);
+                    final byte[] body = response.getResponseBodyBytes();
+
+                    if (response.getResponseCode() != 200 || null == body || body.length != expectedLengths.get(i)) {
+                        failures.add("Request " + i + " received " + response.getStatusLine() + " with "
+                                + ((null == body) ? 0 : body.length) + " bytes instead of " + expectedLengths.get(i));
+                    } else if (i % 3 == 1 && !new String(body, "US-ASCII").equals(new String(requestBody))) {
+                        failures.add("Request " + i + " received a body different from the one it sent");
+                    } else if (!hasHeader(response, "x-stream-id")) {
+                        failures.add("Request " + i + " lost headers sent in CONTINUATION frames");
+                    }
+
+                } catch (ExecutionException e) {
+                    failures.add("Request " + i + " failed: " + e.getCause());
+                } catch (TimeoutException e) {
+                    failures.add("Request " + i + " timed out");
+                }
+            }
+
+            final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            System.out.println(STREAMS + " requests in " + elapsedMillis + " ms");
+            System.out.println("Connections:       " + server.getConnectionCount());
+            System.out.println("Streams:           " + server.getStreamCount() + " (" + server.getMaxActiveStreams() + " at once)");
+            System.out.println("CONTINUATION in:   " + server.getContinuationFramesReceived());
+            System.out.println("WINDOW_UPDATE in:  " + server.getWindowUpdatesReceived());
+            System.out.println("WINDOW_UPDATE out: " + server.getWindowUpdatesSent());
+
+            if (server.getConnectionCount() != 1 || server.getStreamCount() != STREAMS) {
+                failures.add("Expected " + STREAMS + " streams on 1 connection, the server saw " + server.getStreamCount()
+                        + " streams on " + server.getConnectionCount() + " connections");
+            }
+
+            if (server.getMaxActiveStreams() < 2 || elapsedMillis >= STREAMS * DELAY_MILLIS) {
+                failures.add("The requests were not multiplexed, at most " + server.getMaxActiveStreams() + " streams were open at once");
+            }
+
+            if (server.getContinuationFramesReceived() == 0) {
+                failures.add("No CONTINUATION frame was sent for the large request headers");
+            }
+
+            if (server.getWindowUpdatesReceived() == 0) {
+                failures.add("No WINDOW_UPDATE frame was sent while reading the large responses");
+            }
+
+            if (server.getWindowUpdatesSent() == 0) {
+                failures.add("The large request bodies did not need any WINDOW_UPDATE frame");
+            }
+
+        } finally {
+            transport.close();
+            server.stop();
+        }
+
+        if (!failures.isEmpty()) {
+            throw new HibiscusException("HTTP/2 round trip failed:\n  " + join(failures, "\n  "));
+        }
+
+        System.out.println("HTTP/2 round trip passed");
+    }
+
+    private static boolean hasHeader(final Response response, final String name) {
+
+        if (null == response.getResponseHeaders()) {
+            return false;
+        }
+
+        for (final Header header : response.getResponseHeaders()) {
+
+            if (header.getName().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String join(final List<String> values, final String separator) {
+
+        final StringBuilder builder = new StringBuilder();
+
+        for (final String value : values) {
+
+            if (builder.length() > 0) {
+                builder.append(separator);
+            }
+
+            builder.append(value);
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,428 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A single request and response exchanged over a HTTP/2 connection
+ *
+ * The requesting thread writes the request body through getRequestStream(), waits for the
+ * response headers and reads the response body from getResponseStream(), while the connection's
+ * reader thread delivers headers, data and resets. Received data is buffered up to the stream
+ * receive window, and window updates are sent as the caller consumes it.
+ *
+ */
+final class Http2Stream {
+
+    private final int id;
+
+    private final Http2Connection connection;
+
+    private final long readTimeoutNanos;
+
+    /**
+     * Flow-control window for sending request data, guarded by the connection
+     */
+    long sendWindow;
+
+    private final LinkedList<byte[]> received = new LinkedList<byte[]>();
+
+    private int receiveWindow;
+
+    private int unacknowledgedBytes = 0;
+
+    private List<String[]> headers = null;
+
+    private boolean remoteClosed = false;
+
+    private boolean localClosed = false;
+
+    private volatile IOException failure = null;
+
+    private final InputStream responseStream = new ResponseStream();
+
+    Http2Stream(final int id, final Http2Connection connection, final long sendWindow, final int receiveWindow, final long readTimeoutMillis) {
+        this.id = id;
+        this.connection = connection;
+        this.sendWindow = sendWindow;
+        this.receiveWindow = receiveWindow;
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis);
+    }
+
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Returns a stream writing request data frames, ending the stream when closed
+     *
+     * @return
+     */
+    OutputStream getRequestStream() {
+
+        return new OutputStream() {
+
+            @Override
+            public void write(final int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+
+                if (len > 0) {
+                    connection.writeData(Http2Stream.this, b, off, len, false);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                endRequest();
+            }
+        };
+    }
+
+    /**
+     * Ends the request by sending an empty data frame flagged as the end of the stream
+     *
+     * @throws IOException
+     */
+    void endRequest() throws IOException {
+
+        synchronized (this) {
+
+            if (localClosed) {
+                return;
+            }
+        }
+
+        connection.writeData(this, new byte[0], 0, 0, true);
+    }
+
+    synchronized void localClosed() {
+        localClosed = true;
+        checkDone();
+    }
+
+    /**
+     * Waits until the response headers arrive
+     *
+     * Informational responses are skipped by the connection and never returned here.
+     *
+     * @return The response headers, pseudo-headers included
+     * @throws IOException If the stream or connection failed first, or the read timeout elapsed
+     */
+    synchronized List<String[]> awaitHeaders() throws IOException {
+
+        final long deadline = System.nanoTime() + readTimeoutNanos;
+
+        while (null == headers) {
+
+            if (null != failure) {
+                throw failure;
+            }
+
+            await(deadline);
+        }
+
+        return headers;
+    }
+
+    InputStream getResponseStream() {
+        return responseStream;
+    }
+
+    synchronized boolean hasHeaders() {
+        return null != headers;
+    }
+
+    /**
+     * Called by the reader thread with the response headers or trailers
+     *
+     * @param block
+     * @param endStream
+     */
+    synchronized void onHeaders(final List<String[]> block, final boolean endStream) {
+
+        if (null == headers) {
+            headers = block;
+        }
+
+        if (endStream) {
+            remoteClosed = true;
+            checkDone();
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Called by the reader thread with the payload of a data frame
+     *
+     * @param data
+     * @param endStream
+     * @return False if the peer exceeded the stream receive window
+     */
+    synchronized boolean onData(final byte[] data, final boolean endStream) {
+
+        if (data.length > receiveWindow) {
+            return false;
+        }
+
+        receiveWindow -= data.length;
+
+        if (null != failure) {
+            /* The data of a cancelled stream is never read, the connection window is credited back at once */
+            connection.dataConsumed(data.length);
+        } else if (data.length > 0) {
+            received.add(data);
+        }
+
+        if (endStream) {
+            remoteClosed = true;
+            checkDone();
+        }
+
+        notifyAll();
+
+        return true;
+    }
+
+    /**
+     * Fails the stream, for instance when it was reset by the peer or the connection broke
+     *
+     * @param cause
+     */
+    synchronized void fail(final IOException cause) {
+
+        /* A response received in full can still be read */
+        if (!remoteClosed) {
+
+            if (null == failure) {
+                failure = cause;
+            }
+
+            remoteClosed = true;
+
+            releaseBuffered();
+        }
+
+        localClosed = true;
+
+        checkDone();
+
+        notifyAll();
+    }
+
+    IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Abandons the exchange, resetting the stream unless it has already completed
+     */
+    void cancel() {
+
+        final boolean reset;
+
+        synchronized (this) {
+
+            reset = !(remoteClosed && localClosed);
+
+            if (null == failure) {
+                failure = new InterruptedIOException("The HTTP/2 stream " + id + " was cancelled");
+            }
+
+            remoteClosed = true;
+            localClosed = true;
+
+            releaseBuffered();
+            checkDone();
+
+            notifyAll();
+        }
+
+        if (reset) {
+            connection.resetStream(this, Http2Connection.CANCEL);
+        }
+    }
+
+    synchronized boolean isLocalClosed() {
+        return localClosed;
+    }
+
+    synchronized boolean isDone() {
+        return remoteClosed && localClosed;
+    }
+
+    private void releaseBuffered() {
+
+        int buffered = 0;
+
+        for (final byte[] chunk : received) {
+            buffered += chunk.length;
+        }
+
+        received.clear();
+
+        if (buffered > 0) {
+            connection.dataConsumed(buffered);
+        }
+    }
+
+    private void checkDone() {
+
+        if (remoteClosed && localClosed) {
+            connection.streamDone(this);
+        }
+    }
+
+    private void await(final long deadline) throws IOException {
+
+        try {
+
+            if (readTimeoutNanos <= 0) {
+                wait();
+                return;
+            }
+
+            final long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Timed out waiting for the HTTP/2 stream " + id);
+            }
+
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the HTTP/2 stream " + id);
+        }
+    }
+
+    /**
+     * Reads the response body as data frames arrive
+     */
+    private final class ResponseStream extends InputStream {
+
+        private byte[] chunk = null;
+
+        private int position = 0;
+
+        @Override
+        public int read() throws IOException {
+
+            final byte[] b = new byte[1];
+
+            return (read(b, 0, 1) == -1) ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+
+            if (len == 0) {
+                return 0;
+            }
+
+            if (null == chunk || position == chunk.length) {
+
+                chunk = nextChunk();
+                position = 0;
+
+                if (null == chunk) {
+                    return -1;
+                }
+            }
+
+            final int count = Math.min(len, chunk.length - position);
+
+            System.arraycopy(chunk, position, b, off, count);
+            position += count;
+
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (null == chunk) ? 0 : chunk.length - position;
+        }
+
+        @Override
+        public void close() {
+            cancel();
+        }
+    }
+
+    /**
+     * Takes the next chunk of response data, crediting the flow-control windows
+     *
+     * @return The chunk, or null at the end of the response
+     * @throws IOException
+     */
+    private byte[] nextChunk() throws IOException {
+
+        final byte[] next;
+        int windowUpdate = 0;
+
+        synchronized (this) {
+
+            final long deadline = System.nanoTime() + readTimeoutNanos;
+
+            while (received.isEmpty()) {
+
+                if (null != failure) {
+                    throw failure;
+                }
+
+                if (remoteClosed) {
+                    return null;
+                }
+
+                await(deadline);
+            }
+
+            next = received.removeFirst();
+
+            unacknowledgedBytes += next.length;
+
+            /* Replenishes the window once half of it has been consumed, unless no more data is expected */
+            if (!remoteClosed && unacknowledgedBytes >= connection.getLocalInitialWindowSize() / 2) {
+                windowUpdate = unacknowledgedBytes;
+                receiveWindow += unacknowledgedBytes;
+                unacknowledgedBytes = 0;
+            }
+        }
+
+        connection.dataConsumed(next.length);
+
+        if (windowUpdate > 0) {
+            connection.writeWindowUpdate(id, windowUpdate);
+        }
+
+        return next;
+    }
+}
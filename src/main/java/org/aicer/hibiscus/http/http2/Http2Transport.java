@@ -0,0 +1,930 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.http2;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.http.http2.Http2Connection.ConnectionUnavailableException;
+import org.aicer.hibiscus.http.http2.Http2Connection.RefusedStreamException;
+import org.aicer.hibiscus.http.metrics.RequestTimings;
+import org.aicer.hibiscus.http.metrics.RequestTimings.Phase;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.ssl.BrowserCompatHostnameVerifier;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Sends requests over HTTP/2, multiplexing concurrent requests to a server over a single connection
+ *
+ * Secure requests negotiate h2 with ALPN, which requires a runtime with the ALPN API (Java 8u252
+ * or later). Cleartext requests cannot negotiate, so they only use HTTP/2 with prior knowledge (h2c)
+ * for the servers added with addCleartextServer(), which must accept the HTTP/2 connection preface
+ * on their plain port. All other requests, to servers that do not select h2 and on runtimes
+ * without ALPN, are left to HTTP/1.1 by returning no response from execute().
+ *
+ * The flow-control windows, frame size and header table size offered to servers are configurable.
+ * Larger windows let a single stream use more of the bandwidth of high-latency links, at the cost
+ * of buffering up to the window for each stream whose response is not read.
+ *
+ * Server push is disabled.
+ *
+ * StandInHttp2Server is a local h2c server to test against, and Http2RoundTrip runs concurrent
+ * requests through this transport against it.
+ *
+ */
+public class Http2Transport {
+
+    private static final Logger log = Logger.getLogger(Http2Transport.class);
+
+    public static final int DEFAULT_HEADER_TABLE_SIZE = Http2Connection.DEFAULT_HEADER_TABLE_SIZE;
+
+    public static final int DEFAULT_INITIAL_WINDOW_SIZE = 1024 * 1024;
+
+    public static final int DEFAULT_CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = Http2Connection.DEFAULT_MAX_FRAME_SIZE;
+
+    public static final int DEFAULT_MAX_HEADER_LIST_SIZE = 65536;
+
+    public static final int DEFAULT_MAX_CONCURRENT_STREAMS = 100;
+
+    public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+
+    public static final long DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+
+    private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    private static final String PROTOCOL_H2 = "h2";
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final int REQUEST_BUFFER_SIZE = 16384;
+
+    /**
+     * Headers specific to a HTTP/1.1 connection, which must not be sent over HTTP/2
+     */
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<String>();
+
+    private static final Method SET_APPLICATION_PROTOCOLS;
+
+    private static final Method GET_APPLICATION_PROTOCOL;
+
+    static {
+
+        CONNECTION_HEADERS.add("connection");
+        CONNECTION_HEADERS.add("keep-alive");
+        CONNECTION_HEADERS.add("proxy-connection");
+        CONNECTION_HEADERS.add("transfer-encoding");
+        CONNECTION_HEADERS.add("upgrade");
+        CONNECTION_HEADERS.add("host");
+        CONNECTION_HEADERS.add("expect");
+        CONNECTION_HEADERS.add("te");
+
+        /* The ALPN API is looked up reflectively, it is missing from older runtimes */
+        Method setApplicationProtocols = null;
+        Method getApplicationProtocol = null;
+
+        try {
+            setApplicationProtocols = SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+            getApplicationProtocol = SSLSocket.class.getMethod("getApplicationProtocol");
+        } catch (NoSuchMethodException e) {
+            log.info("ALPN is not supported by this runtime, secure requests will use HTTP/1.1");
+        }
+
+        SET_APPLICATION_PROTOCOLS = setApplicationProtocols;
+        GET_APPLICATION_PROTOCOL = getApplicationProtocol;
+    }
+
+    private final ConcurrentMap<String, FutureTask<Http2Connection>> connections = new ConcurrentHashMap<String, FutureTask<Http2Connection>>();
+
+    /**
+     * Secure servers that did not select h2 during the TLS handshake
+     */
+    private final Set<String> http1Servers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile int headerTableSize = DEFAULT_HEADER_TABLE_SIZE;
+
+    private volatile int initialWindowSize = DEFAULT_INITIAL_WINDOW_SIZE;
+
+    private volatile int connectionWindowSize = DEFAULT_CONNECTION_WINDOW_SIZE;
+
+    private volatile int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+    private volatile int maxHeaderListSize = DEFAULT_MAX_HEADER_LIST_SIZE;
+
+    private volatile int maxConcurrentStreams = DEFAULT_MAX_CONCURRENT_STREAMS;
+
+    private volatile long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+    private volatile long readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    /**
+     * Cleartext servers known to speak HTTP/2, as host:port
+     */
+    private final Set<String> cleartextServers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile SSLSocketFactory sslSocketFactory = null;
+
+    private volatile X509HostnameVerifier hostnameVerifier = new BrowserCompatHostnameVerifier();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Whether the runtime supports negotiating h2 for secure requests
+     *
+     * @return
+     */
+    public static boolean isAlpnSupported() {
+        return null != SET_APPLICATION_PROTOCOLS;
+    }
+
+    /**
+     * Sends a request over HTTP/2
+     *
+     * The response entity streams the body as it arrives, and closing its content releases the
+     * stream. Aborting the request resets its stream without affecting the other streams of the connection.
+     *
+     * @param request The request, addressed with an absolute URI
+     * @param dnsResolver Resolves the host of new connections
+     * @return The response, or null if the request should be sent over HTTP/1.1 instead
+     * @throws IOException If the exchange failed
+     */
+    public HttpResponse execute(final HttpRequestBase request, final DnsResolver dnsResolver) throws IOException {
+
+        final URI uri = request.getURI();
+        final String scheme = (null != uri.getScheme()) ? uri.getScheme().toLowerCase(Locale.ENGLISH) : null;
+        final boolean secure = "https".equals(scheme);
+
+        if (closed || null == uri.getHost() || !(secure || "http".equals(scheme))) {
+            return null;
+        }
+
+        final int port = (uri.getPort() > 0) ? uri.getPort() : (secure ? 443 : 80);
+        final String hostAndPort = uri.getHost().toLowerCase(Locale.ENGLISH) + ":" + port;
+        final String key = scheme + "://" + hostAndPort;
+
+        if (secure ? !isAlpnSupported() : !cleartextServers.contains(hostAndPort)) {
+            return null;
+        }
+
+        if (http1Servers.contains(key)) {
+            return null;
+        }
+
+        final HttpEntity entity = (request instanceof HttpEntityEnclosingRequest) ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+        final List<String[]> headers = getRequestHeaders(request, uri, scheme, entity);
+
+        for (int attempt = 1;; attempt++) {
+
+            final Http2Connection connection = getConnection(key, uri.getHost(), port, secure, dnsResolver);
+
+            if (null == connection) {
+                return null;
+            }
+
+            try {
+                return exchange(connection, request, headers, entity);
+            } catch (ConnectionUnavailableException e) {
+
+                /* The connection started closing, the next attempt opens a new one */
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+
+            } catch (RefusedStreamException e) {
+
+                /* The server did not process the request, so it is sent again unless its body cannot be replayed */
+                if (attempt >= MAX_ATTEMPTS || (null != entity && !entity.isRepeatable())) {
+                    throw e;
+                }
+
+                if (log.isDebugEnabled()) {
+                    log.debug(e.getMessage() + ", sending " + request.getRequestLine() + " again");
+                }
+            }
+        }
+    }
+
+    private HttpResponse exchange(final Http2Connection connection, final HttpRequestBase request, final List<String[]> headers,
+            final HttpEntity entity) throws IOException {
+
+        final long start = System.nanoTime();
+        final Http2Stream stream = connection.newStream(headers, null == entity);
+
+        try {
+
+            request.setReleaseTrigger(new ConnectionReleaseTrigger() {
+
+                public void releaseConnection() {
+                    stream.cancel();
+                }
+
+                public void abortConnection() {
+                    stream.cancel();
+                }
+            });
+
+        } catch (IOException e) {
+            /* The request was aborted before the stream was opened */
+            stream.cancel();
+            throw e;
+        }
+
+        if (null != entity) {
+            writeEntity(stream, entity);
+        }
+
+        final List<String[]> responseHeaders;
+
+        try {
+            responseHeaders = stream.awaitHeaders();
+        } catch (IOException e) {
+            stream.cancel();
+            throw e;
+        }
+
+        RequestTimings.record(Phase.TTFB, start);
+
+        return toResponse(request, stream, responseHeaders);
+    }
+
+    /**
+     * Streams the request body, a response received before the body was sent in full is still returned
+     */
+    private void writeEntity(final Http2Stream stream, final HttpEntity entity) throws IOException {
+
+        try {
+
+            final OutputStream requestStream = new BufferedOutputStream(stream.getRequestStream(), REQUEST_BUFFER_SIZE);
+
+            entity.writeTo(requestStream);
+
+            requestStream.flush();
+
+            stream.endRequest();
+
+        } catch (IOException e) {
+
+            if (!stream.hasHeaders()) {
+                stream.cancel();
+                throw e;
+            }
+        }
+    }
+
+    private static HttpResponse toResponse(final HttpRequestBase request, final Http2Stream stream, final List<String[]> headers)
+            throws IOException {
+
+        int statusCode = -1;
+
+        for (final String[] header : headers) {
+
+            if (header[0].equals(":status")) {
+
+                try {
+                    statusCode = Integer.parseInt(header[1]);
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+        }
+
+        if (statusCode < 100 || statusCode > 999) {
+            stream.cancel();
+            throw new IOException("Invalid or missing :status in the HTTP/2 response to " + request.getRequestLine());
+        }
+
+        final String reasonPhrase = EnglishReasonPhraseCatalog.INSTANCE.getReason(statusCode, Locale.ENGLISH);
+        final HttpResponse response = new BasicHttpResponse(new BasicStatusLine(HTTP_2, statusCode, reasonPhrase));
+
+        long contentLength = -1;
+
+        for (final String[] header : headers) {
+
+            if (header[0].startsWith(":")) {
+                continue;
+            }
+
+            response.addHeader(header[0], header[1]);
+
+            if (header[0].equals("content-length")) {
+
+                try {
+                    contentLength = Long.parseLong(header[1]);
+                } catch (NumberFormatException e) {
+                    contentLength = -1;
+                }
+            }
+        }
+
+        final boolean bodyless = "HEAD".equals(request.getMethod()) || statusCode == HttpStatus.SC_NO_CONTENT
+                || statusCode == HttpStatus.SC_NOT_MODIFIED;
+
+        if (bodyless) {
+            /* Resets the stream if the server still sends anything */
+            stream.cancel();
+            return response;
+        }
+
+        final BasicHttpEntity entity = new BasicHttpEntity();
+
+        entity.setContent(stream.getResponseStream());
+        entity.setContentLength(contentLength);
+        entity.setContentType(response.getFirstHeader("content-type"));
+        entity.setContentEncoding(response.getFirstHeader("content-encoding"));
+
+        response.setEntity(entity);
+
+        return response;
+    }
+
+    /**
+     * Converts the request headers into a HTTP/2 header list, pseudo-headers first
+     */
+    private static List<String[]> getRequestHeaders(final HttpRequestBase request, final URI uri, final String scheme, final HttpEntity entity) {
+
+        final List<String[]> headers = new ArrayList<String[]>();
+
+        final String path = (null != uri.getRawPath() && uri.getRawPath().length() > 0) ? uri.getRawPath() : "/";
+        final String authority = (uri.getPort() > 0) ? uri.getHost() + ":" + uri.getPort() : uri.getHost();
+
+        headers.add(new String[] { ":method", request.getMethod() });
+        headers.add(new String[] { ":scheme", scheme });
+        headers.add(new String[] { ":authority", authority });
+        headers.add(new String[] { ":path", (null != uri.getRawQuery()) ? path + "?" + uri.getRawQuery() : path });
+
+        boolean contentType = false;
+        boolean contentEncoding = false;
+        boolean contentLength = false;
+
+        for (final Header header : request.getAllHeaders()) {
+
+            final String name = header.getName().toLowerCase(Locale.ENGLISH);
+
+            if (CONNECTION_HEADERS.contains(name)) {
+                continue;
+            }
+
+            contentType |= name.equals("content-type");
+            contentEncoding |= name.equals("content-encoding");
+            contentLength |= name.equals("content-length");
+
+            headers.add(new String[] { name, header.getValue() });
+        }
+
+        if (null != entity) {
+
+            if (!contentType && null != entity.getContentType()) {
+                headers.add(new String[] { "content-type", entity.getContentType().getValue() });
+            }
+
+            if (!contentEncoding && null != entity.getContentEncoding()) {
+                headers.add(new String[] { "content-encoding", entity.getContentEncoding().getValue() });
+            }
+
+            if (!contentLength && entity.getContentLength() >= 0) {
+                headers.add(new String[] { "content-length", Long.toString(entity.getContentLength()) });
+            }
+        }
+
+        return headers;
+    }
+
+    /**
+     * Returns the connection to a server, opening it if needed
+     *
+     * Concurrent requests to a server that has no connection yet wait for the first one to open it.
+     *
+     * @return The connection, or null if the server does not speak HTTP/2
+     * @throws IOException
+     */
+    private Http2Connection getConnection(final String key, final String host, final int port, final boolean secure,
+            final DnsResolver dnsResolver) throws IOException {
+
+        final long start = System.nanoTime();
+
+        while (true) {
+
+            if (closed) {
+                throw new IOException("The HTTP/2 transport has been closed");
+            }
+
+            FutureTask<Http2Connection> task = connections.get(key);
+
+            if (null == task) {
+
+                final FutureTask<Http2Connection> connect = new FutureTask<Http2Connection>(new Callable<Http2Connection>() {
+
+                    public Http2Connection call() throws IOException {
+                        return connect(key, host, port, secure, dnsResolver);
+                    }
+                });
+
+                task = connections.putIfAbsent(key, connect);
+
+                if (null == task) {
+                    task = connect;
+                    connect.run();
+                }
+            }
+
+            final Http2Connection connection;
+
+            try {
+
+                connection = task.get();
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while connecting to " + key, e);
+            } catch (ExecutionException e) {
+
+                connections.remove(key, task);
+
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+
+                throw new IOException("Unable to connect to " + key, e.getCause());
+            }
+
+            if (null == connection) {
+                connections.remove(key, task);
+                return null;
+            }
+
+            if (connection.isUsable()) {
+
+                if (null != RequestTimings.current() && !RequestTimings.current().isNewConnection()) {
+                    RequestTimings.record(Phase.LEASE, start);
+                }
+
+                return connection;
+            }
+
+            connections.remove(key, task);
+        }
+    }
+
+    /**
+     * Opens and starts a connection
+     *
+     * @return The connection, or null if the server did not select h2 during the TLS handshake
+     * @throws IOException
+     */
+    private Http2Connection connect(final String key, final String host, final int port, final boolean secure,
+            final DnsResolver dnsResolver) throws IOException {
+
+        long start = System.nanoTime();
+
+        final InetAddress[] addresses;
+
+        try {
+            addresses = dnsResolver.resolve(host);
+        } finally {
+            RequestTimings.record(Phase.DNS, start);
+        }
+
+        start = System.nanoTime();
+
+        Socket socket = null;
+        IOException failure = null;
+
+        try {
+
+            for (final InetAddress address : addresses) {
+
+                final Socket candidate = new Socket();
+
+                try {
+                    candidate.connect(new InetSocketAddress(address, port), (int) connectTimeoutMillis);
+                    socket = candidate;
+                    break;
+                } catch (IOException e) {
+                    candidate.close();
+                    failure = e;
+                }
+            }
+
+        } finally {
+            RequestTimings.record(Phase.CONNECT, start);
+        }
+
+        if (null == socket) {
+            throw (null != failure) ? failure : new IOException("No address found for " + host);
+        }
+
+        if (null != RequestTimings.current()) {
+            RequestTimings.current().setNewConnection(true);
+        }
+
+        try {
+
+            socket.setTcpNoDelay(true);
+
+            if (secure) {
+
+                final SSLSocket sslSocket = handshake(socket, host, port);
+
+                if (null == sslSocket) {
+
+                    http1Servers.add(key);
+                    socket.close();
+
+                    log.info(key + " did not select HTTP/2, sending its requests over HTTP/1.1");
+
+                    return null;
+                }
+
+                socket = sslSocket;
+            }
+
+            final Http2Connection connection = new Http2Connection(key, socket, this);
+
+            connection.start();
+
+            if (log.isDebugEnabled()) {
+                log.debug("Opened HTTP/2 connection " + connection);
+            }
+
+            return connection;
+
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        } catch (RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Performs the TLS handshake offering h2 and HTTP/1.1 with ALPN
+     *
+     * @return The secure socket, or null if the server did not select h2
+     * @throws IOException
+     */
+    private SSLSocket handshake(final Socket socket, final String host, final int port) throws IOException {
+
+        final long start = System.nanoTime();
+
+        try {
+
+            final SSLSocketFactory factory = (null != sslSocketFactory) ? sslSocketFactory : (SSLSocketFactory) SSLSocketFactory.getDefault();
+            final SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, host, port, true);
+            final SSLParameters parameters = sslSocket.getSSLParameters();
+
+            SET_APPLICATION_PROTOCOLS.invoke(parameters, (Object) new String[] { PROTOCOL_H2, "http/1.1" });
+
+            sslSocket.setSSLParameters(parameters);
+            sslSocket.startHandshake();
+
+            if (!PROTOCOL_H2.equals(GET_APPLICATION_PROTOCOL.invoke(sslSocket))) {
+                return null;
+            }
+
+            hostnameVerifier.verify(host, sslSocket);
+
+            return sslSocket;
+
+        } catch (IllegalAccessException e) {
+            throw new IOException("Unable to negotiate HTTP/2 with ALPN", e);
+        } catch (InvocationTargetException e) {
+            throw new IOException("Unable to negotiate HTTP/2 with ALPN", e.getCause());
+        } finally {
+            RequestTimings.record(Phase.TLS, start);
+        }
+    }
+
+    /**
+     * Returns the number of open HTTP/2 connections
+     *
+     * @return
+     */
+    public int getConnectionCount() {
+
+        int count = 0;
+
+        for (final FutureTask<Http2Connection> task : connections.values()) {
+
+            if (task.isDone() && null != getQuietly(task)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the number of streams currently active over all connections
+     *
+     * @return
+     */
+    public int getActiveStreamCount() {
+
+        int count = 0;
+
+        for (final FutureTask<Http2Connection> task : connections.values()) {
+
+            final Http2Connection connection = task.isDone() ? getQuietly(task) : null;
+
+            if (null != connection) {
+                count += connection.getActiveStreamCount();
+            }
+        }
+
+        return count;
+    }
+
+    private static Http2Connection getQuietly(final FutureTask<Http2Connection> task) {
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    public int getHeaderTableSize() {
+        return headerTableSize;
+    }
+
+    /**
+     * Sets the size of the HPACK table the server may use to compress response headers
+     *
+     * Applies to connections opened afterwards
+     *
+     * @param headerTableSize Size in bytes
+     * @return
+     */
+    public Http2Transport setHeaderTableSize(final int headerTableSize) {
+
+        if (headerTableSize < 0) {
+            throw new HibiscusException("The header table size cannot be negative");
+        }
+
+        this.headerTableSize = headerTableSize;
+        return this;
+    }
+
+    public int getInitialWindowSize() {
+        return initialWindowSize;
+    }
+
+    /**
+     * Sets how many bytes of each response the server may send before the client reads them
+     *
+     * Applies to connections opened afterwards
+     *
+     * @param initialWindowSize Size in bytes
+     * @return
+     */
+    public Http2Transport setInitialWindowSize(final int initialWindowSize) {
+
+        if (initialWindowSize <= 0) {
+            throw new HibiscusException("The initial window size must be positive");
+        }
+
+        this.initialWindowSize = initialWindowSize;
+        return this;
+    }
+
+    public int getConnectionWindowSize() {
+        return connectionWindowSize;
+    }
+
+    /**
+     * Sets how many bytes the server may send over a connection, over all streams, before the client reads them
+     *
+     * Applies to connections opened afterwards. Sizes below the protocol default of 65535 bytes are ignored.
+     *
+     * @param connectionWindowSize Size in bytes
+     * @return
+     */
+    public Http2Transport setConnectionWindowSize(final int connectionWindowSize) {
+
+        if (connectionWindowSize <= 0) {
+            throw new HibiscusException("The connection window size must be positive");
+        }
+
+        this.connectionWindowSize = connectionWindowSize;
+        return this;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Sets the largest frame the server may send
+     *
+     * Applies to connections opened afterwards
+     *
+     * @param maxFrameSize Size in bytes, between 16384 and 16777215
+     * @return
+     */
+    public Http2Transport setMaxFrameSize(final int maxFrameSize) {
+
+        if (maxFrameSize < Http2Connection.DEFAULT_MAX_FRAME_SIZE || maxFrameSize > Http2Connection.MAX_FRAME_SIZE_LIMIT) {
+            throw new HibiscusException("The maximum frame size must be between 16384 and 16777215 bytes");
+        }
+
+        this.maxFrameSize = maxFrameSize;
+        return this;
+    }
+
+    public int getMaxHeaderListSize() {
+        return maxHeaderListSize;
+    }
+
+    /**
+     * Sets the largest response header list accepted, larger responses fail their request
+     *
+     * Applies to connections opened afterwards
+     *
+     * @param maxHeaderListSize Size in bytes as defined by HTTP/2
+     * @return
+     */
+    public Http2Transport setMaxHeaderListSize(final int maxHeaderListSize) {
+
+        if (maxHeaderListSize <= 0) {
+            throw new HibiscusException("The maximum header list size must be positive");
+        }
+
+        this.maxHeaderListSize = maxHeaderListSize;
+        return this;
+    }
+
+    public int getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    /**
+     * Limits how many requests are in flight at once on a connection
+     *
+     * The lower of this limit and the one announced by the server applies. Requests beyond it
+     * wait for a stream to complete. Applies to connections opened afterwards.
+     *
+     * @param maxConcurrentStreams
+     * @return
+     */
+    public Http2Transport setMaxConcurrentStreams(final int maxConcurrentStreams) {
+
+        if (maxConcurrentStreams <= 0) {
+            throw new HibiscusException("The maximum number of concurrent streams must be positive");
+        }
+
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        return this;
+    }
+
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public Http2Transport setConnectTimeoutMillis(final long connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        return this;
+    }
+
+    public long getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a request waits for its response headers and for each chunk of its body
+     *
+     * @param readTimeoutMillis Timeout in milliseconds, or 0 to wait indefinitely
+     * @return
+     */
+    public Http2Transport setReadTimeoutMillis(final long readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Sends http requests to the specified server over HTTP/2 without first upgrading from HTTP/1.1
+     *
+     * Only add servers known to speak HTTP/2 on their cleartext port, the others fail to answer
+     * the HTTP/2 connection preface. Cleartext requests to servers not added use HTTP/1.1.
+     *
+     * @param host
+     * @param port
+     * @return
+     */
+    public Http2Transport addCleartextServer(final String host, final int port) {
+        cleartextServers.add(host.toLowerCase(Locale.ENGLISH) + ":" + port);
+        return this;
+    }
+
+    public Http2Transport removeCleartextServer(final String host, final int port) {
+        cleartextServers.remove(host.toLowerCase(Locale.ENGLISH) + ":" + port);
+        return this;
+    }
+
+    public boolean isCleartextServer(final String host, final int port) {
+        return cleartextServers.contains(host.toLowerCase(Locale.ENGLISH) + ":" + port);
+    }
+
+    public SSLSocketFactory getSslSocketFactory() {
+        return sslSocketFactory;
+    }
+
+    /**
+     * Sets the factory creating TLS sockets, for instance to trust a private certificate authority
+     *
+     * @param sslSocketFactory The factory, or null to use the default
+     * @return
+     */
+    public Http2Transport setSslSocketFactory(final SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = sslSocketFactory;
+        return this;
+    }
+
+    public X509HostnameVerifier getHostnameVerifier() {
+        return hostnameVerifier;
+    }
+
+    public Http2Transport setHostnameVerifier(final X509HostnameVerifier hostnameVerifier) {
+        this.hostnameVerifier = hostnameVerifier;
+        return this;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes all connections, failing the requests still in flight
+     */
+    public void close() {
+
+        closed = true;
+
+        for (final FutureTask<Http2Connection> task : connections.values()) {
+
+            final Http2Connection connection = task.isDone() ? getQuietly(task) : null;
+
+            if (null != connection) {
+                connection.close();
+            }
+        }
+
+        connections.clear();
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+
+/**
+ * The static Huffman code HPACK uses for header strings (RFC 7541, Appendix B)
+ *
+ * The code is canonical, so only the code length of every symbol is tabulated and the codes
+ * themselves are derived from the lengths. Symbol 256 is the end-of-string marker, which must
+ * never appear in an encoded string but whose leading bits pad the last byte.
+ *
+ */
+final class Huffman {
+
+    private static final int EOS = 256;
+
+    private static final int MAX_LENGTH = 30;
+
+    private static final int[] LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+
+    private static final int[] CODES = new int[LENGTHS.length];
+
+    /**
+     * Symbols ordered by code length, then by value, which is the order of their codes
+     */
+    private static final int[] SORTED_SYMBOLS = new int[LENGTHS.length];
+
+    private static final int[] FIRST_CODE = new int[MAX_LENGTH + 1];
+
+    private static final int[] FIRST_INDEX = new int[MAX_LENGTH + 1];
+
+    private static final int[] COUNT = new int[MAX_LENGTH + 1];
+
+    static {
+
+        for (final int length : LENGTHS) {
+            COUNT[length]++;
+        }
+
+        int code = 0;
+        int index = 0;
+
+        for (int length = 1; length <= MAX_LENGTH; length++) {
+
+            FIRST_CODE[length] = code;
+            FIRST_INDEX[length] = index;
+
+            int next = code;
+
+            for (int symbol = 0; symbol < LENGTHS.length; symbol++) {
+
+                if (LENGTHS[symbol] == length) {
+                    CODES[symbol] = next++;
+                    SORTED_SYMBOLS[index++] = symbol;
+                }
+            }
+
+            code = (code + COUNT[length]) << 1;
+        }
+    }
+
+    private Huffman() {
+    }
+
+    /**
+     * Returns the number of bytes the string occupies once encoded
+     *
+     * @param bytes
+     * @return
+     */
+    static int encodedLength(final byte[] bytes) {
+
+        long bits = 0;
+
+        for (final byte b : bytes) {
+            bits += LENGTHS[b & 0xff];
+        }
+
+        return (int) ((bits + 7) >> 3);
+    }
+
+    static void encode(final byte[] bytes, final ByteArrayOutputStream out) {
+
+        long buffer = 0;
+        int bufferedBits = 0;
+
+        for (final byte b : bytes) {
+
+            final int symbol = b & 0xff;
+
+            buffer = (buffer << LENGTHS[symbol]) | CODES[symbol];
+            bufferedBits += LENGTHS[symbol];
+
+            while (bufferedBits >= 8) {
+                bufferedBits -= 8;
+                out.write((int) (buffer >> bufferedBits));
+            }
+        }
+
+        if (bufferedBits > 0) {
+            /* Pads the last byte with the most significant bits of the end-of-string code, all ones */
+            out.write((int) ((buffer << (8 - bufferedBits)) | (0xff >>> bufferedBits)));
+        }
+    }
+
+    static byte[] decode(final byte[] data, final int offset, final int length) throws IOException {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(length * 2);
+
+        int code = 0;
+        int codeLength = 0;
+
+        for (int i = offset; i < offset + length; i++) {
+
+            for (int bit = 7; bit >= 0; bit--) {
+
+                code = (code << 1) | ((data[i] >> bit) & 1);
+                codeLength++;
+
+                final int position = code - FIRST_CODE[codeLength];
+
+                if (position >= 0 && position < COUNT[codeLength]) {
+
+                    final int symbol = SORTED_SYMBOLS[FIRST_INDEX[codeLength] + position];
+
+                    if (symbol == EOS) {
+                        throw new IOException("HPACK string contains the end-of-string symbol");
+                    }
+
+                    out.write(symbol);
+
+                    code = 0;
+                    codeLength = 0;
+
+                } else if (codeLength == MAX_LENGTH) {
+                    throw new IOException("Invalid HPACK Huffman code");
+                }
+            }
+        }
+
+        if (codeLength > 7 || code != (1 << codeLength) - 1) {
+            throw new IOException("Invalid HPACK Huffman padding");
+        }
+
+        return out.toByteArray();
+    }
+}
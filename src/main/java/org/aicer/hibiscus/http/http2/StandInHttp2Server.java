@@ -0,0 +1,768 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.http2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Local cleartext HTTP/2 server (h2c with prior knowledge) standing in for a real service when testing Http2Transport
+ *
+ * Every path is answered according to the query parameters of the request:
+ *
+ * delay: milliseconds to wait before responding, 0 by default
+ * size: number of body bytes to return, 64 by default
+ * status: status code of the response, 200 by default
+ *
+ * Requests with a body are answered with the same body instead. Each stream is answered on its
+ * own thread so that delayed responses overlap on a connection. To exercise the client's framing,
+ * every response header block is split into CONTINUATION frames of HEADER_FRAGMENT_BYTES, and the
+ * server offers request windows of INITIAL_WINDOW_SIZE so that larger request bodies wait for its
+ * WINDOW_UPDATE frames. Response data honours the windows offered by the client.
+ *
+ * The server only implements what a client needs to be tested against: it does not validate
+ * every frame, does not support padding in the frames it sends, and never initiates streams.
+ *
+ */
+public class StandInHttp2Server {
+
+    private static final Logger log = Logger.getLogger(StandInHttp2Server.class);
+
+    public static final int HEADER_FRAGMENT_BYTES = 32;
+
+    public static final int INITIAL_WINDOW_SIZE = 16384;
+
+    private static final int MAX_HEADER_LIST_SIZE = 1024 * 1024;
+
+    private static final byte[] PREFACE = { 'P', 'R', 'I', ' ', '*', ' ', 'H', 'T', 'T', 'P', '/', '2', '.', '0', '\r', '\n', '\r', '\n',
+            'S', 'M', '\r', '\n', '\r', '\n' };
+
+    private final ServerSocket serverSocket;
+
+    private final ExecutorService executor;
+
+    private final AtomicInteger connectionCount = new AtomicInteger(0);
+
+    private final AtomicInteger streamCount = new AtomicInteger(0);
+
+    private final AtomicInteger continuationFramesReceived = new AtomicInteger(0);
+
+    private final AtomicInteger windowUpdatesReceived = new AtomicInteger(0);
+
+    private final AtomicInteger windowUpdatesSent = new AtomicInteger(0);
+
+    private int activeStreams = 0;
+
+    private int maxActiveStreams = 0;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * Starts the server on the loopback interface
+     *
+     * @param port The port to listen on, or 0 for an ephemeral port
+     * @throws IOException
+     */
+    public StandInHttp2Server(final int port) throws IOException {
+
+        serverSocket = new ServerSocket(port, 1024, InetAddress.getByName("127.0.0.1"));
+        executor = Executors.newCachedThreadPool();
+
+        executor.execute(new Runnable() {
+
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the base URL of the server, without a trailing slash
+     *
+     * The server only speaks HTTP/2, so it must be added to the cleartext servers of the Http2Transport.
+     *
+     * @return
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + getPort();
+    }
+
+    /**
+     * Returns the number of connections accepted
+     *
+     * @return
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Returns the number of streams opened by clients
+     *
+     * @return
+     */
+    public int getStreamCount() {
+        return streamCount.get();
+    }
+
+    /**
+     * Returns the largest number of streams that were open at the same time, across connections
+     *
+     * @return
+     */
+    public synchronized int getMaxActiveStreams() {
+        return maxActiveStreams;
+    }
+
+    /**
+     * Returns the number of CONTINUATION frames received, which clients send for request header blocks larger than a frame
+     *
+     * @return
+     */
+    public int getContinuationFramesReceived() {
+        return continuationFramesReceived.get();
+    }
+
+    /**
+     * Returns the number of WINDOW_UPDATE frames received from clients as they consumed response data
+     *
+     * @return
+     */
+    public int getWindowUpdatesReceived() {
+        return windowUpdatesReceived.get();
+    }
+
+    /**
+     * Returns the number of WINDOW_UPDATE frames sent to clients as request data was received
+     *
+     * @return
+     */
+    public int getWindowUpdatesSent() {
+        return windowUpdatesSent.get();
+    }
+
+    public void stop() {
+
+        stopped = true;
+
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            log.debug("Unable to close the stand-in HTTP/2 server", e);
+        }
+
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+
+        while (!stopped) {
+
+            final Socket socket;
+
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+
+                if (!stopped) {
+                    log.warn("The stand-in HTTP/2 server stopped accepting connections", e);
+                }
+
+                return;
+            }
+
+            connectionCount.incrementAndGet();
+
+            try {
+                socket.setTcpNoDelay(true);
+                executor.execute(new ServerConnection(socket));
+            } catch (IOException e) {
+                log.warn("Unable to serve a HTTP/2 connection", e);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private synchronized void streamOpened() {
+        activeStreams++;
+        maxActiveStreams = Math.max(maxActiveStreams, activeStreams);
+    }
+
+    private synchronized void streamClosed() {
+        activeStreams--;
+    }
+
+    private static void closeQuietly(final Socket socket) {
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.debug("Unable to close a stand-in HTTP/2 connection", e);
+        }
+    }
+
+    private static Map<String, String> getParameters(final String path) {
+
+        final Map<String, String> parameters = new HashMap<String, String>();
+        final int start = path.indexOf('?');
+
+        if (start < 0) {
+            return parameters;
+        }
+
+        for (final String pair : path.substring(start + 1).split("&")) {
+
+            final int separator = pair.indexOf('=');
+
+            if (separator > 0) {
+                parameters.put(pair.substring(0, separator), pair.substring(separator + 1));
+            }
+        }
+
+        return parameters;
+    }
+
+    private static long getLong(final Map<String, String> parameters, final String name, final long defaultValue) {
+
+        try {
+            return parameters.containsKey(name) ? Long.parseLong(parameters.get(name)) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static String getHeader(final List<String[]> headers, final String name) {
+
+        for (final String[] header : headers) {
+
+            if (header[0].equals(name)) {
+                return header[1];
+            }
+        }
+
+        return null;
+    }
+
+    private static byte[] toBytes(final int value) {
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+
+    private static int readInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+
+    /**
+     * A request received on a connection, and the window for sending its response
+     */
+    private static final class ServerStream {
+
+        private final int id;
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        private List<String[]> headers;
+
+        /**
+         * Guarded by the connection
+         */
+        private long sendWindow;
+
+        private boolean reset = false;
+
+        ServerStream(final int id, final long sendWindow) {
+            this.id = id;
+            this.sendWindow = sendWindow;
+        }
+    }
+
+    /**
+     * Reads the frames of a connection and answers its streams
+     *
+     * Locks are taken in the order write lock, connection.
+     */
+    private final class ServerConnection implements Runnable {
+
+        private final Socket socket;
+
+        private final DataInputStream in;
+
+        private final OutputStream out;
+
+        private final Object writeLock = new Object();
+
+        private final HpackEncoder encoder = new HpackEncoder(Http2Connection.DEFAULT_HEADER_TABLE_SIZE);
+
+        private final HpackDecoder decoder = new HpackDecoder(Http2Connection.DEFAULT_HEADER_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+
+        private final Map<Integer, ServerStream> streams = new HashMap<Integer, ServerStream>();
+
+        private long connectionSendWindow = Http2Connection.DEFAULT_INITIAL_WINDOW_SIZE;
+
+        private int peerInitialWindowSize = Http2Connection.DEFAULT_INITIAL_WINDOW_SIZE;
+
+        private int peerMaxFrameSize = Http2Connection.DEFAULT_MAX_FRAME_SIZE;
+
+        private boolean closed = false;
+
+        ServerConnection(final Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 65536);
+        }
+
+        public void run() {
+
+            try {
+
+                final byte[] preface = new byte[PREFACE.length];
+
+                in.readFully(preface);
+
+                if (!Arrays.equals(preface, PREFACE)) {
+                    throw new IOException("The client did not send the HTTP/2 connection preface");
+                }
+
+                final ByteArrayOutputStream settings = new ByteArrayOutputStream();
+
+                writeSetting(settings, Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE, INITIAL_WINDOW_SIZE);
+                writeSetting(settings, Http2Connection.SETTINGS_MAX_CONCURRENT_STREAMS, Http2Transport.DEFAULT_MAX_CONCURRENT_STREAMS);
+
+                writeFrame(Http2Connection.SETTINGS, 0, 0, settings.toByteArray());
+
+                while (!stopped) {
+                    readFrame();
+                }
+
+            } catch (EOFException e) {
+                log.debug("A client closed its stand-in HTTP/2 connection");
+            } catch (IOException e) {
+
+                if (!stopped && !socket.isClosed()) {
+                    log.warn("Closing a stand-in HTTP/2 connection after an error", e);
+                }
+
+            } finally {
+
+                synchronized (this) {
+
+                    for (int i = 0; i < streams.size(); i++) {
+                        streamClosed();
+                    }
+
+                    streams.clear();
+                    closed = true;
+                    notifyAll();
+                }
+
+                closeQuietly(socket);
+            }
+        }
+
+        private void readFrame() throws IOException {
+
+            final int length = in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+            final int type = in.readUnsignedByte();
+            final int flags = in.readUnsignedByte();
+            final int streamId = in.readInt() & Integer.MAX_VALUE;
+
+            if (length > Http2Connection.DEFAULT_MAX_FRAME_SIZE) {
+                throw new IOException("Frame of " + length + " bytes exceeds the maximum frame size");
+            }
+
+            final byte[] payload = new byte[length];
+
+            in.readFully(payload);
+
+            switch (type) {
+
+            case Http2Connection.HEADERS:
+                onHeaders(flags, streamId, payload);
+                break;
+
+            case Http2Connection.DATA:
+                onData(flags, streamId, payload);
+                break;
+
+            case Http2Connection.SETTINGS:
+                onSettings(flags, payload);
+                break;
+
+            case Http2Connection.PING:
+
+                if ((flags & Http2Connection.FLAG_ACK) == 0) {
+                    writeFrame(Http2Connection.PING, Http2Connection.FLAG_ACK, 0, payload);
+                }
+
+                break;
+
+            case Http2Connection.WINDOW_UPDATE:
+                onWindowUpdate(streamId, payload);
+                break;
+
+            case Http2Connection.RST_STREAM:
+                onReset(streamId);
+                break;
+
+            case Http2Connection.GOAWAY:
+                throw new EOFException();
+
+            case Http2Connection.CONTINUATION:
+                throw new IOException("Received CONTINUATION without HEADERS");
+
+            default:
+                /* PRIORITY and unknown frame types are ignored */
+                break;
+            }
+        }
+
+        private void onHeaders(final int flags, final int streamId, final byte[] payload) throws IOException {
+
+            final int padding = ((flags & Http2Connection.FLAG_PADDED) != 0) ? payload[0] & 0xff : 0;
+
+            int offset = ((flags & Http2Connection.FLAG_PADDED) != 0) ? 1 : 0;
+
+            if ((flags & Http2Connection.FLAG_PRIORITY) != 0) {
+                offset += 5;
+            }
+
+            final ByteArrayOutputStream block = new ByteArrayOutputStream();
+
+            block.write(payload, offset, payload.length - offset - padding);
+
+            boolean endHeaders = (flags & Http2Connection.FLAG_END_HEADERS) != 0;
+
+            while (!endHeaders) {
+
+                final int length = in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+                final int type = in.readUnsignedByte();
+                final int continuationFlags = in.readUnsignedByte();
+                final int continuationStreamId = in.readInt() & Integer.MAX_VALUE;
+
+                if (type != Http2Connection.CONTINUATION || continuationStreamId != streamId
+                        || length > Http2Connection.DEFAULT_MAX_FRAME_SIZE) {
+                    throw new IOException("Expected CONTINUATION for stream " + streamId);
+                }
+
+                final byte[] continuation = new byte[length];
+
+                in.readFully(continuation);
+                block.write(continuation, 0, length);
+
+                continuationFramesReceived.incrementAndGet();
+
+                endHeaders = (continuationFlags & Http2Connection.FLAG_END_HEADERS) != 0;
+            }
+
+            final ServerStream stream;
+
+            synchronized (this) {
+                stream = new ServerStream(streamId, peerInitialWindowSize);
+                streams.put(streamId, stream);
+            }
+
+            stream.headers = decoder.decode(block.toByteArray());
+
+            streamCount.incrementAndGet();
+            streamOpened();
+
+            if ((flags & Http2Connection.FLAG_END_STREAM) != 0) {
+                respond(stream);
+            }
+        }
+
+        private void onData(final int flags, final int streamId, final byte[] payload) throws IOException {
+
+            final ServerStream stream;
+
+            synchronized (this) {
+                stream = streams.get(streamId);
+            }
+
+            final int padding = ((flags & Http2Connection.FLAG_PADDED) != 0) ? payload[0] & 0xff : 0;
+            final int offset = ((flags & Http2Connection.FLAG_PADDED) != 0) ? 1 : 0;
+            final boolean endStream = (flags & Http2Connection.FLAG_END_STREAM) != 0;
+
+            if (payload.length > 0) {
+
+                /* Data is credited back as soon as it is received, so only the window size limits a request */
+                writeWindowUpdate(0, payload.length);
+
+                if (null != stream && !endStream) {
+                    writeWindowUpdate(streamId, payload.length);
+                }
+            }
+
+            if (null == stream) {
+                return;
+            }
+
+            stream.body.write(payload, offset, payload.length - offset - padding);
+
+            if (endStream) {
+                respond(stream);
+            }
+        }
+
+        private void onSettings(final int flags, final byte[] payload) throws IOException {
+
+            if ((flags & Http2Connection.FLAG_ACK) != 0) {
+                return;
+            }
+
+            synchronized (writeLock) {
+
+                synchronized (this) {
+
+                    for (int i = 0; i + 6 <= payload.length; i += 6) {
+
+                        final int identifier = (payload[i] & 0xff) << 8 | (payload[i + 1] & 0xff);
+                        final int value = readInt(payload, i + 2);
+
+                        if (identifier == Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE) {
+
+                            for (final ServerStream stream : streams.values()) {
+                                stream.sendWindow += value - peerInitialWindowSize;
+                            }
+
+                            peerInitialWindowSize = value;
+
+                        } else if (identifier == Http2Connection.SETTINGS_MAX_FRAME_SIZE) {
+                            peerMaxFrameSize = value;
+                        } else if (identifier == Http2Connection.SETTINGS_HEADER_TABLE_SIZE) {
+                            encoder.setPeerTableSize(value);
+                        }
+                    }
+
+                    notifyAll();
+                }
+
+                writeFrame(Http2Connection.SETTINGS, Http2Connection.FLAG_ACK, 0, new byte[0]);
+            }
+        }
+
+        private void onWindowUpdate(final int streamId, final byte[] payload) {
+
+            final int increment = readInt(payload, 0) & Integer.MAX_VALUE;
+
+            windowUpdatesReceived.incrementAndGet();
+
+            synchronized (this) {
+
+                if (streamId == 0) {
+                    connectionSendWindow += increment;
+                } else {
+
+                    final ServerStream stream = streams.get(streamId);
+
+                    if (null != stream) {
+                        stream.sendWindow += increment;
+                    }
+                }
+
+                notifyAll();
+            }
+        }
+
+        private void onReset(final int streamId) {
+
+            synchronized (this) {
+
+                final ServerStream stream = streams.remove(streamId);
+
+                if (null != stream) {
+                    stream.reset = true;
+                    streamClosed();
+                }
+
+                notifyAll();
+            }
+        }
+
+        private void respond(final ServerStream stream) {
+
+            executor.execute(new Runnable() {
+
+                public void run() {
+
+                    try {
+                        sendResponse(stream);
+                    } catch (IOException e) {
+                        log.debug("Unable to answer stream " + stream.id, e);
+                        closeQuietly(socket);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        closeQuietly(socket);
+                    }
+                }
+            });
+        }
+
+        private void sendResponse(final ServerStream stream) throws IOException, InterruptedException {
+
+            final String path = getHeader(stream.headers, ":path");
+            final Map<String, String> parameters = getParameters((null == path) ? "/" : path);
+            final long delay = getLong(parameters, "delay", 0);
+            final int status = (int) getLong(parameters, "status", 200);
+
+            final byte[] body;
+
+            if (stream.body.size() > 0) {
+                body = stream.body.toByteArray();
+            } else {
+                body = new byte[(int) Math.max(getLong(parameters, "size", 64), 0)];
+                Arrays.fill(body, (byte) 'x');
+            }
+
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+
+            final List<String[]> headers = new ArrayList<String[]>();
+
+            headers.add(new String[] { ":status", String.valueOf(status) });
+            headers.add(new String[] { "content-type", "text/plain; charset=UTF-8" });
+            headers.add(new String[] { "content-length", String.valueOf(body.length) });
+            headers.add(new String[] { "x-stream-id", String.valueOf(stream.id) });
+
+            writeHeaders(stream, headers, body.length == 0);
+
+            int position = 0;
+
+            while (position < body.length) {
+
+                final int chunk;
+
+                synchronized (this) {
+
+                    while (!closed && !stream.reset && (stream.sendWindow <= 0 || connectionSendWindow <= 0)) {
+                        wait();
+                    }
+
+                    if (closed || stream.reset) {
+                        return;
+                    }
+
+                    chunk = (int) Math.min(Math.min(body.length - position, peerMaxFrameSize), Math.min(stream.sendWindow, connectionSendWindow));
+
+                    stream.sendWindow -= chunk;
+                    connectionSendWindow -= chunk;
+                }
+
+                final boolean last = position + chunk == body.length;
+
+                writeFrame(Http2Connection.DATA, last ? Http2Connection.FLAG_END_STREAM : 0, stream.id, Arrays.copyOfRange(body, position, position + chunk));
+
+                position += chunk;
+            }
+
+            synchronized (this) {
+
+                if (null != streams.remove(stream.id)) {
+                    streamClosed();
+                }
+            }
+        }
+
+        /**
+         * Encodes and writes a header block split into fragments of HEADER_FRAGMENT_BYTES
+         */
+        private void writeHeaders(final ServerStream stream, final List<String[]> headers, final boolean endStream) throws IOException {
+
+            synchronized (writeLock) {
+
+                final byte[] block = encoder.encode(headers);
+
+                int offset = 0;
+                int type = Http2Connection.HEADERS;
+
+                do {
+
+                    final int length = Math.min(block.length - offset, HEADER_FRAGMENT_BYTES);
+                    final boolean last = offset + length == block.length;
+
+                    int flags = last ? Http2Connection.FLAG_END_HEADERS : 0;
+
+                    if (endStream && type == Http2Connection.HEADERS) {
+                        flags |= Http2Connection.FLAG_END_STREAM;
+                    }
+
+                    writeFrameHeader(length, type, flags, stream.id);
+                    out.write(block, offset, length);
+
+                    offset += length;
+                    type = Http2Connection.CONTINUATION;
+
+                } while (offset < block.length);
+
+                out.flush();
+            }
+        }
+
+        private void writeWindowUpdate(final int streamId, final int increment) throws IOException {
+            writeFrame(Http2Connection.WINDOW_UPDATE, 0, streamId, toBytes(increment));
+            windowUpdatesSent.incrementAndGet();
+        }
+
+        private void writeFrame(final int type, final int flags, final int streamId, final byte[] payload) throws IOException {
+
+            synchronized (writeLock) {
+                writeFrameHeader(payload.length, type, flags, streamId);
+                out.write(payload);
+                out.flush();
+            }
+        }
+
+        private void writeFrameHeader(final int length, final int type, final int flags, final int streamId) throws IOException {
+            out.write(length >>> 16);
+            out.write(length >>> 8);
+            out.write(length);
+            out.write(type);
+            out.write(flags);
+            out.write(toBytes(streamId));
+        }
+
+        private void writeSetting(final ByteArrayOutputStream settings, final int identifier, final int value) {
+            settings.write(identifier >>> 8);
+            settings.write(identifier);
+            settings.write(toBytes(value), 0, 4);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Lock-free histogram of latencies in nanoseconds
+ *
+ * Values are counted in log-linear buckets: each power of two is split into 32 linear
+ * sub-buckets, so percentiles are accurate to about 3% across the whole range while the
+ * histogram keeps a fixed size. Recording a value costs a few atomic increments and never
+ * allocates. Values above roughly 73 minutes are counted in the last bucket.
+ *
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_EXPONENT = 42;
+
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong count = new AtomicLong(0);
+
+    private final AtomicLong sum = new AtomicLong(0);
+
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * Records a latency
+     *
+     * @param nanos Latency in nanoseconds, negative values are recorded as zero
+     */
+    public void record(final long nanos) {
+
+        final long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+
+        buckets.incrementAndGet(getBucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax = max.get();
+
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the largest recorded latency in nanoseconds
+     *
+     * @return
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean latency in nanoseconds
+     *
+     * @return
+     */
+    public double getMean() {
+
+        final long total = count.get();
+
+        return (total == 0) ? 0 : sum.get() / (double) total;
+    }
+
+    /**
+     * Returns the latency below which the specified percentage of recorded values fall
+     *
+     * @param percentile Between 0 and 100, for instance 99.9
+     * @return The latency in nanoseconds or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+
+        final long total = count.get();
+
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil((Math.min(percentile, 100.0) / 100.0) * total));
+
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+
+            seen += buckets.get(i);
+
+            if (seen >= rank) {
+                return Math.min(getBucketMidpoint(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Returns the latency at the specified percentile in milliseconds
+     *
+     * @param percentile
+     * @return
+     */
+    public double getMillisAtPercentile(final double percentile) {
+        return getValueAtPercentile(percentile) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Clears the recorded values
+     *
+     * Values recorded concurrently with a reset may be partially kept
+     */
+    public void reset() {
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    private static int getBucketIndex(final long value) {
+
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int mantissa = (int) (value >>> shift);
+
+        return (shift + 1) * SUB_BUCKET_COUNT + (mantissa - SUB_BUCKET_COUNT);
+    }
+
+    private static long getBucketMidpoint(final int index) {
+
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long lowest = ((long) (index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT)) << shift;
+
+        return lowest + ((1L << shift) >> 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "LatencyHistogram [count=%d, mean=%.3fms, p50=%.3fms, p99=%.3fms, p999=%.3fms, max=%.3fms]",
+                getCount(), getMean() / 1000000.0, getMillisAtPercentile(50), getMillisAtPercentile(99),
+                getMillisAtPercentile(99.9), getMax() / 1000000.0);
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aicer.hibiscus.http.metrics.RequestTimings.Phase;
+
+
+/**
+ * Aggregates request timings into latency histograms keyed by request method and host
+ *
+ * Each key holds one histogram per phase. Phases that did not happen for a request, such as
+ * connecting over a reused connection, are not recorded so that their histograms only
+ * describe the requests that went through them. Requests that failed are recorded up to the
+ * point they failed, and are also counted separately. Instances are thread-safe and are
+ * usually attached to a HttpTransport.
+ *
+ */
+public class LatencyRecorder {
+
+    private final ConcurrentMap<String, LatencyHistogram[]> histograms = new ConcurrentHashMap<String, LatencyHistogram[]>();
+
+    private final ConcurrentMap<String, AtomicLong> failures = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Returns the key under which requests are aggregated
+     *
+     * @param requestMethod
+     * @param host The host name, including the port if it is not the default one
+     * @return
+     */
+    public static String getKey(final String requestMethod, final String host) {
+        return requestMethod + " " + host;
+    }
+
+    /**
+     * Records the timings of a completed request
+     *
+     * @param requestMethod
+     * @param host
+     * @param timings
+     */
+    public void record(final String requestMethod, final String host, final RequestTimings timings) {
+        record(requestMethod, host, timings, false);
+    }
+
+    /**
+     * Records the timings of a request
+     *
+     * @param requestMethod
+     * @param host
+     * @param timings
+     * @param failed Whether the request failed rather than receiving a response
+     */
+    public void record(final String requestMethod, final String host, final RequestTimings timings, final boolean failed) {
+
+        final String key = getKey(requestMethod, host);
+        final LatencyHistogram[] phases = getHistograms(key);
+
+        if (failed) {
+            getFailures(key).incrementAndGet();
+        }
+
+        for (final Phase phase : Phase.values()) {
+
+            final long nanos = timings.getNanos(phase);
+
+            if (nanos > 0 || phase == Phase.TOTAL) {
+                phases[phase.ordinal()].record(nanos);
+            }
+        }
+    }
+
+    /**
+     * Returns the histogram of total request latencies for the method and host
+     *
+     * @param requestMethod
+     * @param host
+     * @return The histogram or null if no request was recorded for them
+     */
+    public LatencyHistogram getHistogram(final String requestMethod, final String host) {
+        return getHistogram(requestMethod, host, Phase.TOTAL);
+    }
+
+    /**
+     * Returns the histogram of a phase for the method and host
+     *
+     * @param requestMethod
+     * @param host
+     * @param phase
+     * @return The histogram or null if no request was recorded for them
+     */
+    public LatencyHistogram getHistogram(final String requestMethod, final String host, final Phase phase) {
+
+        final LatencyHistogram[] phases = histograms.get(getKey(requestMethod, host));
+
+        return (null == phases) ? null : phases[phase.ordinal()];
+    }
+
+    /**
+     * Returns the number of requests for the method and host that failed rather than receiving a response
+     *
+     * @param requestMethod
+     * @param host
+     * @return
+     */
+    public long getFailureCount(final String requestMethod, final String host) {
+
+        final AtomicLong count = failures.get(getKey(requestMethod, host));
+
+        return (null == count) ? 0 : count.get();
+    }
+
+    /**
+     * Returns the keys for which requests have been recorded, sorted
+     *
+     * @return
+     */
+    public List<String> getKeys() {
+
+        final List<String> keys = new ArrayList<String>(histograms.keySet());
+
+        Collections.sort(keys);
+
+        return keys;
+    }
+
+    public void reset() {
+        histograms.clear();
+        failures.clear();
+    }
+
+    private AtomicLong getFailures(final String key) {
+
+        AtomicLong count = failures.get(key);
+
+        if (null == count) {
+
+            count = new AtomicLong(0);
+
+            final AtomicLong existing = failures.putIfAbsent(key, count);
+
+            if (null != existing) {
+                count = existing;
+            }
+        }
+
+        return count;
+    }
+
+    private LatencyHistogram[] getHistograms(final String key) {
+
+        LatencyHistogram[] phases = histograms.get(key);
+
+        if (null == phases) {
+
+            phases = new LatencyHistogram[Phase.values().length];
+
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new LatencyHistogram();
+            }
+
+            final LatencyHistogram[] existing = histograms.putIfAbsent(key, phases);
+
+            if (null != existing) {
+                phases = existing;
+            }
+        }
+
+        return phases;
+    }
+
+    @Override
+    public String toString() {
+
+        final StringBuilder builder = new StringBuilder("LatencyRecorder [");
+
+        for (final String key : getKeys()) {
+            builder.append("\n  ").append(key).append(' ').append(histograms.get(key)[Phase.TOTAL.ordinal()]);
+
+            final AtomicLong count = failures.get(key);
+
+            if (null != count) {
+                builder.append(" failures=").append(count.get());
+            }
+        }
+
+        return builder.append(']').toString();
+    }
+}
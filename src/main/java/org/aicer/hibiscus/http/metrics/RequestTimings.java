@@ -0,0 +1,212 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Time spent in each phase of a single request, measured with System.nanoTime()
+ *
+ * The instrumented transport components find the timings of the request being executed on the
+ * current thread through begin() and current(). Phases that did not happen, such as connecting
+ * when a pooled connection was reused, remain at zero. When a request is redirected or
+ * retried, the phases of every exchange are added up.
+ *
+ */
+public class RequestTimings {
+
+    /**
+     * The phases of a request
+     */
+    public enum Phase {
+
+        /** Waiting for a connection from the pool */
+        LEASE,
+
+        /** Resolving the host name of a new connection */
+        DNS,
+
+        /** Establishing the TCP connection */
+        CONNECT,
+
+        /** Performing the TLS handshake */
+        TLS,
+
+        /** From the start of sending the request until the response headers were read */
+        TTFB,
+
+        /** Reading the response body from the connection */
+        TRANSFER,
+
+        /** Decompressing the body and decoding it into characters */
+        DECODE,
+
+        /** Waiting before retrying the request */
+        BACKOFF,
+
+        /** From leasing the connection until the body was read, including any retries */
+        TOTAL
+    }
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<RequestTimings>();
+
+    private final long[] nanos = new long[Phase.values().length];
+
+    private volatile boolean newConnection = false;
+
+    private volatile int retryCount = 0;
+
+    /**
+     * Starts collecting timings for a request executed on the current thread
+     *
+     * @return
+     */
+    public static RequestTimings begin() {
+        return begin(new RequestTimings());
+    }
+
+    /**
+     * Continues collecting timings for a request on the current thread, for instance when it is retried
+     *
+     * @param timings
+     * @return
+     */
+    public static RequestTimings begin(final RequestTimings timings) {
+
+        CURRENT.set(timings);
+
+        return timings;
+    }
+
+    /**
+     * Returns the timings of the request executed on the current thread
+     *
+     * @return The timings or null if no request is being timed
+     */
+    public static RequestTimings current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Stops collecting timings on the current thread
+     */
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Adds the time elapsed since the start of a phase to the request timed on the current thread
+     *
+     * @param phase
+     * @param startNanos The value of System.nanoTime() when the phase started
+     */
+    public static void record(final Phase phase, final long startNanos) {
+
+        final RequestTimings timings = CURRENT.get();
+
+        if (null != timings) {
+            timings.add(phase, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Returns an independent copy of these timings
+     *
+     * @return
+     */
+    public synchronized RequestTimings copy() {
+
+        final RequestTimings copy = new RequestTimings();
+
+        System.arraycopy(nanos, 0, copy.nanos, 0, nanos.length);
+        copy.newConnection = newConnection;
+        copy.retryCount = retryCount;
+
+        return copy;
+    }
+
+    /**
+     * Adds time spent in a phase
+     *
+     * @param phase
+     * @param elapsedNanos
+     */
+    public synchronized void add(final Phase phase, final long elapsedNanos) {
+        nanos[phase.ordinal()] += elapsedNanos;
+    }
+
+    /**
+     * Returns the time spent in a phase in nanoseconds
+     *
+     * @param phase
+     * @return
+     */
+    public synchronized long getNanos(final Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * Returns the time spent in a phase in milliseconds
+     *
+     * @param phase
+     * @return
+     */
+    public double getMillis(final Phase phase) {
+        return getNanos(phase) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Whether a new connection had to be established for the request
+     *
+     * @return
+     */
+    public boolean isNewConnection() {
+        return newConnection;
+    }
+
+    public void setNewConnection(final boolean newConnection) {
+        this.newConnection = newConnection;
+    }
+
+    /**
+     * Returns the number of times the request was retried
+     *
+     * @return
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public void setRetryCount(final int retryCount) {
+        this.retryCount = retryCount;
+    }
+
+    @Override
+    public String toString() {
+
+        final StringBuilder builder = new StringBuilder("RequestTimings [");
+
+        for (final Phase phase : Phase.values()) {
+            builder.append(phase.name().toLowerCase()).append('=').append(String.format(Locale.ENGLISH, "%.3f", getMillis(phase))).append("ms, ");
+        }
+
+        return builder.append("newConnection=").append(newConnection).append(", retries=").append(retryCount).append(']').toString();
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.metrics;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import org.aicer.hibiscus.http.metrics.RequestTimings.Phase;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+
+
+/**
+ * Pooling connection manager that records how long requests wait for a connection, and how
+ * long host name resolution takes for new connections
+ *
+ * Connect and TLS handshake times are recorded by the socket factories of the registry, see
+ * TimingSocketFactory.instrument().
+ *
+ */
+public class TimingConnectionManager extends PoolingClientConnectionManager {
+
+    private final TimingDnsResolver timingDnsResolver;
+
+    public TimingConnectionManager(final SchemeRegistry schemeRegistry, final DnsResolver dnsResolver) {
+        this(schemeRegistry, new TimingDnsResolver(dnsResolver));
+    }
+
+    private TimingConnectionManager(final SchemeRegistry schemeRegistry, final TimingDnsResolver timingDnsResolver) {
+        super(schemeRegistry, timingDnsResolver);
+        this.timingDnsResolver = timingDnsResolver;
+    }
+
+    public DnsResolver getDnsResolver() {
+        return timingDnsResolver.dnsResolver;
+    }
+
+    /**
+     * Resolves the host names of new connections with the specified resolver
+     *
+     * Pooled connections keep the address they were opened with
+     *
+     * @param dnsResolver
+     */
+    public void setDnsResolver(final DnsResolver dnsResolver) {
+        timingDnsResolver.dnsResolver = dnsResolver;
+    }
+
+    @Override
+    public ClientConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+
+        final ClientConnectionRequest request = super.requestConnection(route, state);
+
+        return new ClientConnectionRequest() {
+
+            public ManagedClientConnection getConnection(final long timeout, final TimeUnit timeUnit)
+                    throws InterruptedException, ConnectionPoolTimeoutException {
+
+                final long start = System.nanoTime();
+
+                try {
+                    return request.getConnection(timeout, timeUnit);
+                } finally {
+                    RequestTimings.record(Phase.LEASE, start);
+                }
+            }
+
+            public void abortRequest() {
+                request.abortRequest();
+            }
+        };
+    }
+
+    /**
+     * Records the time spent resolving host names
+     */
+    private static final class TimingDnsResolver implements DnsResolver {
+
+        private volatile DnsResolver dnsResolver;
+
+        TimingDnsResolver(final DnsResolver dnsResolver) {
+            this.dnsResolver = dnsResolver;
+        }
+
+        public InetAddress[] resolve(final String host) throws UnknownHostException {
+
+            final long start = System.nanoTime();
+
+            try {
+                return dnsResolver.resolve(host);
+            } finally {
+                RequestTimings.record(Phase.DNS, start);
+            }
+        }
+    }
+}
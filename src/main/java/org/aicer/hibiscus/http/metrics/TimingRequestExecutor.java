@@ -0,0 +1,52 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.metrics;
+
+import java.io.IOException;
+
+import org.aicer.hibiscus.http.metrics.RequestTimings.Phase;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+
+/**
+ * Request executor that records the time from the start of sending a request until its
+ * response headers have been read
+ *
+ * The response body is read after the executor returns and is timed separately.
+ *
+ */
+public class TimingRequestExecutor extends HttpRequestExecutor {
+
+    @Override
+    public HttpResponse execute(final HttpRequest request, final HttpClientConnection connection, final HttpContext context)
+            throws IOException, HttpException {
+
+        final long start = System.nanoTime();
+
+        try {
+            return super.execute(request, connection, context);
+        } finally {
+            RequestTimings.record(Phase.TTFB, start);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+import org.aicer.hibiscus.http.metrics.RequestTimings.Phase;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpInetSocketAddress;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeLayeredSocketFactory;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SchemeSocketFactory;
+import org.apache.http.params.HttpParams;
+
+
+/**
+ * Socket factory that records the time spent establishing connections
+ *
+ * Secure schemes are wrapped by the Layered subclass, which opens a plain TCP connection first
+ * and then layers TLS over it through the original factory. This lets the TCP connect and the
+ * TLS handshake be timed separately while the original factory still performs the handshake
+ * and host name verification.
+ *
+ */
+public class TimingSocketFactory implements SchemeSocketFactory {
+
+    protected final SchemeSocketFactory socketFactory;
+
+    public TimingSocketFactory(final SchemeSocketFactory socketFactory) {
+        this.socketFactory = socketFactory;
+    }
+
+    /**
+     * Replaces the socket factory of every scheme in the registry with a timing one
+     *
+     * @param registry
+     * @return The same registry
+     */
+    public static SchemeRegistry instrument(final SchemeRegistry registry) {
+
+        for (final String name : registry.getSchemeNames()) {
+
+            final Scheme scheme = registry.getScheme(name);
+            final SchemeSocketFactory socketFactory = scheme.getSchemeSocketFactory();
+
+            if (socketFactory instanceof TimingSocketFactory) {
+                continue;
+            }
+
+            final SchemeSocketFactory timingFactory = (socketFactory instanceof SchemeLayeredSocketFactory)
+                    ? new Layered((SchemeLayeredSocketFactory) socketFactory) : new TimingSocketFactory(socketFactory);
+
+            registry.register(new Scheme(name, scheme.getDefaultPort(), timingFactory));
+        }
+
+        return registry;
+    }
+
+    public Socket createSocket(final HttpParams params) throws IOException {
+        return socketFactory.createSocket(params);
+    }
+
+    public Socket connectSocket(final Socket socket, final InetSocketAddress remoteAddress, final InetSocketAddress localAddress,
+            final HttpParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+
+        final long start = System.nanoTime();
+
+        try {
+            return socketFactory.connectSocket(socket, remoteAddress, localAddress, params);
+        } finally {
+            recordConnect(start);
+        }
+    }
+
+    public boolean isSecure(final Socket socket) throws IllegalArgumentException {
+        return socketFactory.isSecure(socket);
+    }
+
+    static void recordConnect(final long start) {
+
+        final RequestTimings timings = RequestTimings.current();
+
+        if (null != timings) {
+            timings.add(Phase.CONNECT, System.nanoTime() - start);
+            timings.setNewConnection(true);
+        }
+    }
+
+    /**
+     * Timing factory for schemes that layer TLS over the connection
+     */
+    public static class Layered extends TimingSocketFactory implements SchemeLayeredSocketFactory {
+
+        private final SchemeLayeredSocketFactory layeredSocketFactory;
+
+        public Layered(final SchemeLayeredSocketFactory layeredSocketFactory) {
+            super(layeredSocketFactory);
+            this.layeredSocketFactory = layeredSocketFactory;
+        }
+
+        @Override
+        public Socket createSocket(final HttpParams params) throws IOException {
+            return PlainSocketFactory.getSocketFactory().createSocket(params);
+        }
+
+        @Override
+        public Socket connectSocket(final Socket socket, final InetSocketAddress remoteAddress, final InetSocketAddress localAddress,
+                final HttpParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+
+            final long start = System.nanoTime();
+            final Socket plainSocket;
+
+            try {
+                plainSocket = PlainSocketFactory.getSocketFactory().connectSocket(socket, remoteAddress, localAddress, params);
+            } finally {
+                recordConnect(start);
+            }
+
+            final String hostName = (remoteAddress instanceof HttpInetSocketAddress)
+                    ? ((HttpInetSocketAddress) remoteAddress).getHttpHost().getHostName() : remoteAddress.getHostName();
+
+            try {
+                return createLayeredSocket(plainSocket, hostName, remoteAddress.getPort(), params);
+            } catch (IOException e) {
+                plainSocket.close();
+                throw e;
+            }
+        }
+
+        public Socket createLayeredSocket(final Socket socket, final String target, final int port, final HttpParams params)
+                throws IOException, UnknownHostException {
+
+            final long start = System.nanoTime();
+
+            try {
+                return layeredSocketFactory.createLayeredSocket(socket, target, port, params);
+            } finally {
+                RequestTimings.record(Phase.TLS, start);
+            }
+        }
+    }
+}
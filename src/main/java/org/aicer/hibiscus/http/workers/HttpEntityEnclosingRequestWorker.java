@@ -21,7 +21,10 @@ import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 
 import org.aicer.hibiscus.exception.HibiscusException;
-import org.aicer.hibiscus.http.client.HttpClient;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
+import org.aicer.hibiscus.http.entity.GzipCompressingEntity;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicNameValuePair;
@@ -33,8 +36,8 @@ import org.apache.http.message.BasicNameValuePair;
  */
 abstract class HttpEntityEnclosingRequestWorker extends HttpWorkerAbstract {
 
-    public HttpEntityEnclosingRequestWorker(HttpClient client, HttpEntityEnclosingRequestBase httpRequest) {
-        super(client, httpRequest);
+    public HttpEntityEnclosingRequestWorker(Request request, HttpTransport transport, HttpEntityEnclosingRequestBase httpRequest) {
+        super(request, transport, httpRequest);
     }
 
     /**
@@ -43,28 +46,58 @@ abstract class HttpEntityEnclosingRequestWorker extends HttpWorkerAbstract {
     @Override
     public void prepare() throws HibiscusException {
 
-        HttpEntityEnclosingRequestBase request = (HttpEntityEnclosingRequestBase) this.httpRequest;
+        HttpEntityEnclosingRequestBase entityRequest = (HttpEntityEnclosingRequestBase) this.httpRequest;
 
         try {
-            request.setURI(getURI());
+            entityRequest.setURI(getURI());
 
-            for (BasicNameValuePair header : httpClient.getRequestHeaders()) {
-                request.addHeader(header.getName(), header.getValue());
+            for (BasicNameValuePair header : request.getRequestHeaders()) {
+                entityRequest.addHeader(header.getName(), header.getValue());
             }
 
         } catch (URISyntaxException e1) {
             throw new HibiscusException(e1);
         }
 
-        final String requestBody = httpClient.getRequestBody();
+        final HttpEntity requestEntity = request.getRequestEntity();
+
+        if (null != requestEntity) {
+            entityRequest.setEntity(compress(requestEntity));
+            return;
+        }
+
+        final String requestBody = request.getRequestBody();
         final int contentLength  = (null != requestBody) ? requestBody.length() : 0;
 
          if (contentLength > 0) {
              try {
-                request.setEntity(new StringEntity(requestBody, httpClient.getEncoding()));
+                entityRequest.setEntity(compress(new StringEntity(requestBody, request.getEncoding())));
             } catch (UnsupportedEncodingException e2) {
-                throw new HibiscusException("The encoding " + httpClient.getEncoding() + " is not supported", e2);
+                throw new HibiscusException("The encoding " + request.getEncoding() + " is not supported", e2);
             }
          }
     }
+
+    /**
+     * Wraps the entity for gzip compression if it reaches the transport's compression threshold
+     *
+     * @param entity
+     * @return
+     */
+    private HttpEntity compress(final HttpEntity entity) {
+
+        final long threshold = transport.getRequestCompressionThreshold();
+
+        if (threshold < 0 || null != entity.getContentEncoding()) {
+            return entity;
+        }
+
+        final long contentLength = entity.getContentLength();
+
+        if (contentLength >= 0 && contentLength < threshold) {
+            return entity;
+        }
+
+        return new GzipCompressingEntity(entity);
+    }
 }
@@ -20,7 +20,8 @@ package org.aicer.hibiscus.http.workers;
 import java.net.URISyntaxException;
 
 import org.aicer.hibiscus.exception.HibiscusException;
-import org.aicer.hibiscus.http.client.HttpClient;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.message.BasicNameValuePair;
 
@@ -31,8 +32,8 @@ import org.apache.http.message.BasicNameValuePair;
  */
 abstract class HttpNonEntityEnclosingRequestWorker extends HttpWorkerAbstract {
 
-    public HttpNonEntityEnclosingRequestWorker(HttpClient client, HttpRequestBase httpRequest) {
-        super(client, httpRequest);
+    public HttpNonEntityEnclosingRequestWorker(Request request, HttpTransport transport, HttpRequestBase httpRequest) {
+        super(request, transport, httpRequest);
     }
 
 
@@ -46,7 +47,7 @@ abstract class HttpNonEntityEnclosingRequestWorker extends HttpWorkerAbstract {
 
             httpRequest.setURI(getURI());
 
-            for (BasicNameValuePair header : httpClient.getRequestHeaders()) {
+            for (BasicNameValuePair header : request.getRequestHeaders()) {
                 httpRequest.addHeader(header.getName(), header.getValue());
             }
 
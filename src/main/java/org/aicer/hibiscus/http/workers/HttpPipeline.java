@@ -0,0 +1,491 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.http.workers;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
+import org.aicer.hibiscus.http.client.Response;
+import org.aicer.hibiscus.http.client.ResponseCallback;
+import org.aicer.hibiscus.http.metrics.LatencyRecorder;
+import org.aicer.hibiscus.http.metrics.RequestTimings;
+import org.aicer.hibiscus.http.metrics.RequestTimings.Phase;
+import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Sends a batch of GET and HEAD requests to one server pipelined over a single keep-alive connection
+ *
+ * All the requests are written back to back before the first response is read, so the batch
+ * costs about one round trip instead of one per request. Responses are matched to requests in
+ * the order they were sent, as HTTP/1.1 requires.
+ *
+ * If the server closes the connection or stops keeping it alive part way through, the requests
+ * that did not get a response are sent again one at a time through the transport, which is
+ * safe because they are idempotent. Pipelined requests are prepared like any other request
+ * but bypass request coalescing, hedging, retries and circuit breakers, so only enable
+ * pipelining for servers known to handle it.
+ *
+ */
+public final class HttpPipeline {
+
+    private static final Logger log = Logger.getLogger(HttpPipeline.class);
+
+    private static final ConnectionReuseStrategy REUSE_STRATEGY = new DefaultConnectionReuseStrategy();
+
+    private final HttpTransport transport;
+
+    private final List<Request> requests = new ArrayList<Request>();
+
+    private final List<ResponseCallback> callbacks = new ArrayList<ResponseCallback>();
+
+    private HttpHost target = null;
+
+    private volatile boolean aborted = false;
+
+    private volatile ManagedClientConnection activeConnection = null;
+
+    public HttpPipeline(final HttpTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Whether a request can be sent in a pipeline
+     *
+     * Only GET and HEAD requests whose responses are fully buffered qualify. Requests addressed to
+     * a load balancer and transports with a response cache are never pipelined.
+     *
+     * @param request
+     * @param transport
+     * @return
+     */
+    public static boolean isPipelinable(final Request request, final HttpTransport transport) {
+
+        final String requestMethod = request.getRequestMethod();
+
+        if (!requestMethod.equals(HttpWorkerAbstract.GET) && !requestMethod.equals(HttpWorkerAbstract.HEAD)) {
+            return false;
+        }
+
+        if (null != request.getRequestEntity() || null != request.getResponseBodyHandler() || request.isStreamingResponse()
+                || null != transport.getResponseCache()) {
+            return false;
+        }
+
+        final HttpHost host = getTarget(request);
+
+        return null != host && null == transport.getLoadBalancer(host.getHostName());
+    }
+
+    /**
+     * Returns the scheme, host and port a request is sent to, which identifies the requests that can share a pipeline
+     *
+     * @param request
+     * @return The target, or null if the URL is not an absolute http or https URL
+     */
+    public static HttpHost getTarget(final Request request) {
+
+        try {
+
+            final URI uri = new URI(request.getRawUrl());
+            final String scheme = (null != uri.getScheme()) ? uri.getScheme().toLowerCase(Locale.ENGLISH) : null;
+
+            if (null == uri.getHost() || !("http".equals(scheme) || "https".equals(scheme))) {
+                return null;
+            }
+
+            final int port = (uri.getPort() > 0) ? uri.getPort() : ("https".equals(scheme) ? 443 : 80);
+
+            return new HttpHost(uri.getHost().toLowerCase(Locale.ENGLISH), port, scheme);
+
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds a request to the pipeline
+     *
+     * @param request A GET or HEAD request to the same server as the other requests of the pipeline
+     * @param callback Notified when the request completes or fails
+     * @return
+     * @throws HibiscusException If the request cannot be pipelined with the others
+     */
+    public HttpPipeline add(final Request request, final ResponseCallback callback) throws HibiscusException {
+
+        if (!isPipelinable(request, transport)) {
+            throw new HibiscusException("Only GET and HEAD requests with buffered responses can be pipelined: " + request.getRawUrl());
+        }
+
+        final HttpHost host = getTarget(request);
+
+        if (null != target && !target.equals(host)) {
+            throw new HibiscusException("All the requests of a pipeline must be sent to " + target + ": " + request.getRawUrl());
+        }
+
+        target = host;
+
+        requests.add(request);
+        callbacks.add(callback);
+
+        return this;
+    }
+
+    public int size() {
+        return requests.size();
+    }
+
+    /**
+     * Sends the requests and notifies each callback in order
+     *
+     * Failures are reported to the callbacks, this method does not throw them.
+     */
+    public void execute() {
+
+        final int size = requests.size();
+        final boolean[] notified = new boolean[size];
+
+        try {
+            execute(notified);
+        } catch (RuntimeException e) {
+
+            log.error("Unable to complete the pipelined requests to " + target, e);
+
+            final HibiscusException failure = (e instanceof HibiscusException) ? (HibiscusException) e : new HibiscusException(e);
+
+            /* Every callback must hear about its request, or the batch waiting on it never completes */
+            for (int i = 0; i < size; i++) {
+
+                if (!notified[i]) {
+                    failed(i, failure, notified);
+                }
+            }
+        }
+    }
+
+    private void execute(final boolean[] notified) throws HibiscusException {
+
+        final int size = requests.size();
+        final List<HttpWorkerAbstract> workers = new ArrayList<HttpWorkerAbstract>(size);
+
+        for (int i = 0; i < size; i++) {
+
+            final HttpWorkerAbstract worker = HttpWorkerAbstract.getWorkerStrategy(requests.get(i), transport);
+
+            try {
+                worker.prepareRequest();
+                workers.add(worker);
+            } catch (HibiscusException e) {
+                /* Keeps the indexes of the workers and requests aligned */
+                workers.add(null);
+                failed(i, e, notified);
+            }
+        }
+
+        int completed = 0;
+
+        try {
+            completed = pipeline(workers, notified);
+        } catch (HibiscusException e) {
+            log.debug("Unable to pipeline requests to " + target, e);
+        } catch (IOException e) {
+            log.debug("Unable to pipeline requests to " + target, e);
+        }
+
+        if (completed < size && log.isDebugEnabled()) {
+            log.debug("Sending the last " + (size - completed) + " of " + size + " pipelined requests to " + target + " sequentially");
+        }
+
+        for (int i = completed; i < size; i++) {
+
+            if (notified[i]) {
+                continue;
+            }
+
+            if (aborted) {
+                failed(i, new HibiscusException("The pipelined request to " + target + " was aborted"), notified);
+                continue;
+            }
+
+            final Response response;
+
+            try {
+                response = transport.execute(requests.get(i));
+            } catch (HibiscusException e) {
+                failed(i, e, notified);
+                continue;
+            }
+
+            completed(i, response, notified);
+        }
+    }
+
+    /**
+     * Aborts the pipeline from another thread, closing its connection
+     *
+     * Requests that were not answered yet fail instead of being sent again one at a time. A request
+     * already being sent again completes normally.
+     */
+    public void abort() {
+
+        aborted = true;
+
+        final ManagedClientConnection connection = activeConnection;
+
+        if (null != connection) {
+
+            try {
+                connection.shutdown();
+            } catch (IOException e) {
+                log.debug("Unable to close the pipelined connection to " + target, e);
+            }
+        }
+    }
+
+    private void completed(final int index, final Response response, final boolean[] notified) {
+        notified[index] = true;
+        callbacks.get(index).completed(response);
+    }
+
+    private void failed(final int index, final HibiscusException e, final boolean[] notified) {
+        notified[index] = true;
+        callbacks.get(index).failed(e);
+    }
+
+    /**
+     * Writes every request to one connection, then reads the responses in order
+     *
+     * @param workers The prepared workers, null for requests that could not be prepared
+     * @param notified Which callbacks were notified
+     * @return The number of requests that were answered over the connection
+     * @throws IOException If the connection could not be leased or the requests could not be written
+     */
+    private int pipeline(final List<HttpWorkerAbstract> workers, final boolean[] notified) throws HibiscusException, IOException {
+
+        final DefaultHttpClient client = transport.getRequestClient();
+        final ClientConnectionManager connectionManager = client.getConnectionManager();
+        final HttpParams params = client.getParams();
+        final HttpRoute route = new HttpRoute(target, null, "https".equals(target.getSchemeName()));
+        final HttpContext context = new BasicHttpContext();
+        final int size = workers.size();
+        final RequestTimings[] timings = new RequestTimings[size];
+
+        for (int i = 0; i < size; i++) {
+            timings[i] = new RequestTimings();
+        }
+
+        final long startTime = System.nanoTime();
+        final ManagedClientConnection connection;
+
+        /* The lease and connect phases are attributed to the first request */
+        RequestTimings.begin(timings[0]);
+
+        try {
+
+            connection = connectionManager.requestConnection(route, null).getConnection(HttpClientParams.getConnectionManagerTimeout(params),
+                    TimeUnit.MILLISECONDS);
+
+            if (connection.isOpen() && connection.isStale()) {
+                connection.close();
+            }
+
+            if (!connection.isOpen()) {
+                connection.open(route, context, params);
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HibiscusException("Interrupted while waiting for a connection to " + target, e);
+        } finally {
+            RequestTimings.end();
+        }
+
+        context.setAttribute(ExecutionContext.HTTP_CONNECTION, connection);
+
+        int completed = 0;
+        boolean reusable = false;
+
+        activeConnection = connection;
+
+        try {
+
+            /* An abort that arrived while the connection was being leased could not close it */
+            if (aborted) {
+                throw new IOException("The pipelined requests to " + target + " were aborted");
+            }
+
+            final long writeTime = System.nanoTime();
+
+            try {
+
+                for (int i = 0; i < size; i++) {
+
+                    if (null != workers.get(i)) {
+                        connection.sendRequestHeader(toOriginForm(workers.get(i).httpRequest));
+                    }
+                }
+
+            } catch (HttpException e) {
+                throw new IOException("Unable to send the pipelined requests", e);
+            }
+
+            connection.flush();
+
+            for (int i = 0; i < size; i++, completed++) {
+
+                final HttpWorkerAbstract worker = workers.get(i);
+
+                if (null == worker) {
+                    continue;
+                }
+
+                final HttpResponse response = receiveResponse(connection, worker.httpRequest);
+                final long elapsedNanos = System.nanoTime() - writeTime;
+
+                timings[i].add(Phase.TTFB, elapsedNanos);
+
+                try {
+                    worker.readResponse(response, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), timings[i]);
+                } catch (HibiscusException e) {
+                    /* The body was not read to the end, so the responses that follow cannot be found on the connection */
+                    failed(i, e, notified);
+                    completed++;
+                    return completed;
+                }
+
+                timings[i].add(Phase.TOTAL, System.nanoTime() - startTime);
+
+                final LatencyRecorder latencyRecorder = transport.getLatencyRecorder();
+
+                if (null != latencyRecorder) {
+                    latencyRecorder.record(worker.getRequestMethod(), getHost(), timings[i]);
+                }
+
+                completed(i, worker.getResponse(), notified);
+
+                /* The responses still expected would never arrive on a connection the server is closing */
+                if (!REUSE_STRATEGY.keepAlive(response, context)) {
+                    completed++;
+                    return completed;
+                }
+            }
+
+            reusable = true;
+
+        } catch (IOException e) {
+
+            if (completed == 0) {
+                throw e;
+            }
+
+            log.debug("The pipeline to " + target + " broke after " + completed + " responses", e);
+
+        } finally {
+
+            activeConnection = null;
+
+            if (reusable) {
+                connection.markReusable();
+            } else {
+                connection.unmarkReusable();
+                connection.shutdown();
+            }
+
+            connectionManager.releaseConnection(connection, -1, TimeUnit.MILLISECONDS);
+        }
+
+        return completed;
+    }
+
+    /**
+     * Reads the final response to a request, skipping informational responses
+     */
+    private static HttpResponse receiveResponse(final ManagedClientConnection connection, final HttpRequestBase request) throws IOException {
+
+        try {
+
+            HttpResponse response;
+
+            do {
+                response = connection.receiveResponseHeader();
+            } while (response.getStatusLine().getStatusCode() < HttpStatus.SC_OK);
+
+            final int statusCode = response.getStatusLine().getStatusCode();
+
+            if (!request.getMethod().equals(HttpWorkerAbstract.HEAD) && statusCode != HttpStatus.SC_NO_CONTENT
+                    && statusCode != HttpStatus.SC_NOT_MODIFIED) {
+                connection.receiveResponseEntity(response);
+            }
+
+            return response;
+
+        } catch (HttpException e) {
+            throw new IOException("Invalid response from the server", e);
+        }
+    }
+
+    /**
+     * Copies the request with a path-only request line and a Host header, as sent by HttpClient to origin servers
+     */
+    private BasicHttpRequest toOriginForm(final HttpRequestBase request) {
+
+        final URI uri = request.getURI();
+        final String path = (null != uri.getRawPath() && uri.getRawPath().length() > 0) ? uri.getRawPath() : "/";
+
+        final BasicHttpRequest originRequest = new BasicHttpRequest(request.getMethod(),
+                (null != uri.getRawQuery()) ? path + "?" + uri.getRawQuery() : path, HttpVersion.HTTP_1_1);
+
+        originRequest.setHeaders(request.getAllHeaders());
+
+        if (!originRequest.containsHeader("Host")) {
+            originRequest.addHeader("Host", getHost());
+        }
+
+        return originRequest;
+    }
+
+    private String getHost() {
+        return (target.getPort() == ("https".equals(target.getSchemeName()) ? 443 : 80)) ? target.getHostName() : target.toHostString();
+    }
+}
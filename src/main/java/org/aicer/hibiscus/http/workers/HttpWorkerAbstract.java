@@ -17,18 +17,47 @@
  */
 package org.aicer.hibiscus.http.workers;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-
+import java.nio.charset.Charset;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipException;
+
+import org.aicer.hibiscus.exception.CircuitBreakerOpenException;
 import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.exception.ResponseBodyException;
+import org.aicer.hibiscus.http.balancer.Endpoint;
+import org.aicer.hibiscus.http.balancer.LoadBalancer;
+import org.aicer.hibiscus.http.cache.CacheEntry;
+import org.aicer.hibiscus.http.cache.ResponseCache;
+import org.aicer.hibiscus.http.client.CircuitBreaker;
+import org.aicer.hibiscus.http.client.CircuitBreakerRegistry;
 import org.aicer.hibiscus.http.client.HttpClient;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
+import org.aicer.hibiscus.http.client.RequestIdGenerator;
 import org.aicer.hibiscus.http.client.Response;
-import org.aicer.hibiscus.util.HashGenerator;
+import org.aicer.hibiscus.http.client.ResponseBodyHandler;
+import org.aicer.hibiscus.http.client.ResponseCallback;
+import org.aicer.hibiscus.http.client.RetryBudget;
+import org.aicer.hibiscus.http.client.RetryPolicy;
+import org.aicer.hibiscus.http.entity.DecompressingEntity;
+import org.aicer.hibiscus.http.http2.Http2Transport;
+import org.aicer.hibiscus.http.metrics.LatencyRecorder;
+import org.aicer.hibiscus.http.metrics.RequestTimings;
+import org.aicer.hibiscus.http.metrics.RequestTimings.Phase;
 import org.aicer.hibiscus.util.StreamUtil;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.ParseException;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
@@ -36,10 +65,8 @@ import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.PoolingClientConnectionManager;
-import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
 
@@ -55,18 +82,53 @@ public abstract class HttpWorkerAbstract {
     public static final String PUT = HttpPut.METHOD_NAME;
     public static final String DELETE = HttpDelete.METHOD_NAME;
 
+    public static final String HEADER_CONVERSATION_ID = "X-Conversation-Id";
+
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+    private static final String HEADER_CONTENT_MD5 = "Content-MD5";
+
+    private static final String ACCEPTED_ENCODINGS = DecompressingEntity.ENCODING_GZIP + "," + DecompressingEntity.ENCODING_DEFLATE;
+
     private static Logger log = Logger.getLogger(HttpWorkerAbstract.class);
 
     protected final HttpRequestBase httpRequest;
 
     protected Response response;
 
-    protected final HttpClient httpClient;
+    protected final Request request;
+
+    protected final HttpTransport transport;
 
     private long responseTime = 0;
 
-    protected HttpWorkerAbstract(HttpClient client, HttpRequestBase httpRequest) {
-        this.httpClient = client;
+    private ResponseBodyHandler responseBodyHandler = null;
+
+    private boolean streamingResponse = false;
+
+    private volatile boolean aborted = false;
+
+    /**
+     * Keeps an abort from being lost while the request waits to be retried or is reset for a retry
+     */
+    private final Object abortLock = new Object();
+
+    /**
+     * The URI of the request before any load balancer replaced the service name with an endpoint
+     */
+    private URI logicalURI = null;
+
+    protected HttpWorkerAbstract(Request request, HttpTransport transport, HttpRequestBase httpRequest) {
+        this.request = request;
+        this.transport = transport;
         this.httpRequest = httpRequest;
     }
 
@@ -95,7 +157,7 @@ public abstract class HttpWorkerAbstract {
      * @throws URISyntaxException
      */
     protected URI getURI() throws URISyntaxException {
-        return new URI(httpClient.getRawUrl());
+        return new URI(request.getRawUrl());
     }
 
     /**
@@ -112,50 +174,606 @@ public abstract class HttpWorkerAbstract {
      */
     public void execute() throws HibiscusException {
 
+        prepareRequest();
+
+        transmit();
+    }
+
+    /**
+     * Transmits the HTTP request and hands the response body to the specified handler
+     *
+     * Overrides the body handling configured on the request
+     *
+     * @param handler
+     * @throws HibiscusException
+     */
+    public void execute(final ResponseBodyHandler handler) throws HibiscusException {
+
+        prepareRequest();
+
+        responseBodyHandler = handler;
+        streamingResponse = false;
+
+        transmit();
+    }
+
+    /**
+     * Prepares the HTTP request on the calling thread and transmits it on the transport's executor
+     *
+     * The request is fully built before this method returns.
+     *
+     * @param callback Notified when the request completes or fails, may be null
+     * @return A future holding the response from the server
+     * @throws HibiscusException If the request could not be prepared
+     */
+    public Future<Response> executeAsync(final ResponseCallback callback) throws HibiscusException {
+
+        prepareRequest();
+
+        return transport.submit(new Callable<Response>() {
+
+            public Response call() throws HibiscusException {
+
+                try {
+                    transmit();
+                } catch (RuntimeException e) {
+
+                    final HibiscusException failure = (e instanceof HibiscusException) ? (HibiscusException) e : new HibiscusException(e);
+
+                    if (null != callback) {
+                        callback.failed(failure);
+                    }
+
+                    throw failure;
+                }
+
+                if (null != callback) {
+                    callback.completed(response);
+                }
+
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Aborts the request from another thread, closing its connection and preventing any retry
+     *
+     * The thread executing the request fails with a HibiscusException
+     */
+    public void abort() {
+
+        synchronized (abortLock) {
+            aborted = true;
+            httpRequest.abort();
+            abortLock.notifyAll();
+        }
+    }
+
+    /**
+     * Prepares the request and adds the headers sent with every request
+     *
+     * @throws HibiscusException
+     */
+    void prepareRequest() throws HibiscusException {
+
         prepare();
 
+        logicalURI = httpRequest.getURI();
+
+        responseBodyHandler = request.getResponseBodyHandler();
+        streamingResponse = request.isStreamingResponse();
+
         httpRequest.addHeader("User-Agent", getClass().getName().toUpperCase());
-        httpRequest.addHeader("X-Conversation-Id", HashGenerator.getMD5Hash(System.currentTimeMillis() + "." + new Thread().getId()));
 
-        // Creates a registry for HTTP and HTTPS setting default ports to 80 and 443 respectively for these schemes
-        // HTTP uses org.apache.http.conn.scheme.PlainSocketFactory
-        // HTTPS uses org.apache.http.conn.ssl.SSLSocketFactory
-        SchemeRegistry registry = SchemeRegistryFactory.createDefault();;
+        final RequestIdGenerator requestIdGenerator = transport.getRequestIdGenerator();
+
+        /* Propagates an identifier supplied by the caller instead of generating a new one */
+        if (null != requestIdGenerator && !httpRequest.containsHeader(HEADER_CONVERSATION_ID)) {
+            httpRequest.addHeader(HEADER_CONVERSATION_ID, requestIdGenerator.generateRequestId());
+        }
+
+        if (transport.isResponseDecompression() && !httpRequest.containsHeader(HEADER_ACCEPT_ENCODING)) {
+            httpRequest.addHeader(HEADER_ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+        }
+    }
+
+    /**
+     * Answers the prepared request from the transport's response cache or sends it to the server
+     *
+     * Fresh cached responses are returned without contacting the server. Stale responses with
+     * validators are revalidated with a conditional request.
+     *
+     * @throws HibiscusException
+     */
+    private void transmit() throws HibiscusException {
+
+        final ResponseCache cache = transport.getResponseCache();
+
+        /* Only fully buffered responses can be cached */
+        if (null == cache || streamingResponse || null != responseBodyHandler || !ResponseCache.isCacheable(httpRequest)) {
+            exchange();
+            return;
+        }
+
+        final String key = ResponseCache.getKey(httpRequest.getMethod(), request.getRawUrl());
+        final CacheEntry entry = cache.get(key, httpRequest);
+
+        if (null != entry && entry.isFresh(System.currentTimeMillis()) && !ResponseCache.requiresRevalidation(httpRequest)) {
+            cache.recordHit();
+            this.response = entry.toResponse();
+            return;
+        }
 
-        PoolingClientConnectionManager connManager = new PoolingClientConnectionManager(registry);
+        final boolean conditional = null != entry && entry.hasValidators()
+                && !httpRequest.containsHeader(HEADER_IF_NONE_MATCH) && !httpRequest.containsHeader(HEADER_IF_MODIFIED_SINCE);
 
-        // This is necessary because of https://issues.apache.org/jira/browse/HTTPCLIENT-1193
-        // We cannot use the Default constructor without overriding the connection manager from the default
-        DefaultHttpClient requestClient = new DefaultHttpClient(connManager);
+        if (conditional) {
+
+            if (null != entry.getETag()) {
+                httpRequest.addHeader(HEADER_IF_NONE_MATCH, entry.getETag());
+            }
+
+            if (null != entry.getLastModified()) {
+                httpRequest.addHeader(HEADER_IF_MODIFIED_SINCE, entry.getLastModified());
+            }
+        }
+
+        exchange();
+
+        if (conditional && this.response.getResponseCode() == HttpStatus.SC_NOT_MODIFIED) {
+
+            final long elapsedTime = this.response.getElapsedTime();
+
+            cache.recordRevalidation();
+
+            final RequestTimings timings = this.response.getTimings();
+
+            this.response = cache.revalidated(entry, this.response).toResponse();
+            this.response.setElapsedTime(elapsedTime);
+            this.response.setTimings(timings);
+
+            return;
+        }
+
+        cache.recordMiss();
+        cache.put(key, httpRequest, this.response);
+    }
+
+    /**
+     * Sends the prepared request, retrying it as allowed by the transport's retry policy
+     *
+     * @throws HibiscusException If the last attempt failed
+     */
+    private void exchange() throws HibiscusException {
+
+        final RetryPolicy retryPolicy = transport.getRetryPolicy();
+        final RetryBudget retryBudget = (null != retryPolicy) ? retryPolicy.getRetryBudget() : null;
+        final boolean retryable = null != retryPolicy && retryPolicy.isRetryable(httpRequest);
+        final RequestTimings timings = new RequestTimings();
+        final long startTime = System.nanoTime();
+
+        if (null != retryBudget) {
+            retryBudget.recordRequest();
+        }
+
+        int retryCount = 0;
+        boolean completed = false;
 
         try {
 
-            final long startTime = System.currentTimeMillis();
-            final HttpResponse response = requestClient.execute(httpRequest);
-            final long elapsedTime = System.currentTimeMillis() - startTime;
-            final HttpEntity responseEntity = response.getEntity();
+            while (true) {
+
+                long delay = -1;
+
+                try {
+
+                    send(timings);
+
+                    if (retryable && retryCount < retryPolicy.getMaxRetries() && retryPolicy.isRetryableStatus(response.getResponseCode())) {
+                        delay = retryPolicy.getRetryDelayMillis(retryCount, response);
+                    }
+
+                    if (delay < 0 || aborted || (null != retryBudget && !retryBudget.tryAcquire())) {
+                        break;
+                    }
+
+                    discardResponse();
+
+                } catch (HibiscusException e) {
+
+                    if (!retryable || aborted || e instanceof ResponseBodyException || retryCount >= retryPolicy.getMaxRetries()
+                            || !retryPolicy.isRetryableException(e.getCause())
+                            || (null != retryBudget && !retryBudget.tryAcquire())) {
+                        throw e;
+                    }
+
+                    delay = retryPolicy.getBackoffMillis(retryCount);
+                }
+
+                retryCount++;
+
+                if (log.isDebugEnabled()) {
+                    log.debug("Retrying " + httpRequest.getRequestLine() + " in " + delay + "ms, attempt " + (retryCount + 1));
+                }
+
+                backoff(delay, timings);
+
+                resetForRetry();
+            }
+
+            completed = true;
+
+        } finally {
 
-            /* Capture the elapsed time for this request */
-            this.responseTime = elapsedTime;
+            timings.setRetryCount(retryCount);
+            timings.add(Phase.TOTAL, System.nanoTime() - startTime);
 
-            /* This will reset the response object each time the request is made */
-            this.response = new Response();
+            if (completed) {
+                this.response.setRetryCount(retryCount);
+            }
+
+            final LatencyRecorder latencyRecorder = transport.getLatencyRecorder();
+
+            /* Failed requests are recorded too, they are often the slowest. Requests aborted on purpose are not. */
+            if (null != latencyRecorder && (completed || !aborted)) {
+                latencyRecorder.record(httpRequest.getMethod(), getHost(), timings, !completed);
+            }
+        }
+    }
+
+    /**
+     * Makes the aborted or completed request reusable for the next attempt
+     *
+     * Resetting the request clears its aborted state, so an abort that arrived while waiting to retry must be honoured first
+     *
+     * @throws HibiscusException If the request was aborted
+     */
+    private void resetForRetry() throws HibiscusException {
 
-            /* Sets the status line and response headers */
-            this.response.setStatusLine(response.getStatusLine().toString());
-            this.response.setResponseHeaders(response.getAllHeaders());
+        synchronized (abortLock) {
 
-            if (null != responseEntity) {
-                this.response.setResponseBody(StreamUtil.inputStreamToString(responseEntity.getContent()));
+            if (aborted) {
+                throw new HibiscusException("The request " + httpRequest.getRequestLine() + " was aborted");
             }
 
-            if (log.isDebugEnabled()) {
-                debugRequest(response);
+            httpRequest.reset();
+        }
+    }
+
+    private void backoff(final long delay, final RequestTimings timings) throws HibiscusException {
+
+        final long start = System.nanoTime();
+
+        try {
+
+            synchronized (abortLock) {
+
+                final long deadline = start + TimeUnit.MILLISECONDS.toNanos(delay);
+
+                /* An abort ends the wait early */
+                for (long remaining = delay; !aborted && remaining > 0; remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) {
+                    abortLock.wait(remaining);
+                }
             }
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HibiscusException("Interrupted while waiting to retry the request", e);
+        } finally {
+            timings.add(Phase.BACKOFF, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Releases the connection held by a response that is about to be retried
+     */
+    private void discardResponse() throws HibiscusException {
+
+        final InputStream responseStream = response.getResponseStream();
+
+        if (null != responseStream) {
+
+            try {
+                responseStream.close();
+            } catch (IOException e) {
+                response.abortResponseStream();
+            }
+        }
+    }
+
+    /**
+     * Sends the prepared request over the transport once and reads the response
+     *
+     * @param timings Timings the phases of this attempt are added to
+     * @throws HibiscusException
+     * @throws CircuitBreakerOpenException If the circuit breaker of the upstream rejects the request
+     */
+    private void send(final RequestTimings timings) throws HibiscusException {
+
+        final LoadBalancer loadBalancer = transport.getLoadBalancer(logicalURI.getHost());
+        final Endpoint endpoint = (null != loadBalancer) ? loadBalancer.acquire() : null;
+
+        if (null != endpoint) {
+            /* Every attempt is balanced separately, so retries may go to another endpoint */
+            httpRequest.setURI(endpoint.resolve(logicalURI));
+        }
+
+        final CircuitBreakerRegistry circuitBreakerRegistry = transport.getCircuitBreakerRegistry();
+        final CircuitBreaker circuitBreaker = (null != circuitBreakerRegistry) ? circuitBreakerRegistry.getCircuitBreaker(httpRequest.getURI()) : null;
+
+        if (null != circuitBreaker) {
+
+            try {
+                circuitBreaker.acquire();
+            } catch (CircuitBreakerOpenException e) {
+
+                if (null != endpoint) {
+                    loadBalancer.release(endpoint);
+                }
+
+                throw e;
+            }
+        }
+
+        final long startTime = System.nanoTime();
+
+        boolean recorded = false;
+
+        RequestTimings.begin(timings);
+
+        try {
+
+            final Http2Transport http2Transport = transport.getHttp2Transport();
+
+            HttpResponse response = null;
+
+            try {
+
+                if (null != http2Transport) {
+                    response = http2Transport.execute(httpRequest, transport.getDnsResolver());
+                }
+
+                /* Servers that do not speak HTTP/2 are sent the request over HTTP/1.1 */
+                if (null == response) {
+                    response = transport.getRequestClient().execute(httpRequest);
+                }
+
+            } finally {
+                RequestTimings.end();
+            }
+
+            final long elapsedNanos = System.nanoTime() - startTime;
+            final long elapsedTime = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+
+            recordOutcome(circuitBreakerRegistry, circuitBreaker, loadBalancer, endpoint, response.getStatusLine().getStatusCode(), elapsedNanos);
+            recorded = true;
+
+            readResponse(response, elapsedTime, timings);
+
         } catch (IOException e) {
+
+            /* Drops the connection instead of returning it to the pool in an unknown state */
+            httpRequest.abort();
+
+            if (!recorded) {
+                recordOutcome(circuitBreakerRegistry, circuitBreaker, loadBalancer, endpoint, -1, System.nanoTime() - startTime);
+            }
+
             throw new HibiscusException(e);
+
+        } catch (RuntimeException e) {
+
+            httpRequest.abort();
+
+            if (!recorded) {
+                recordOutcome(circuitBreakerRegistry, circuitBreaker, loadBalancer, endpoint, -1, System.nanoTime() - startTime);
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the response received for the request into this worker's Response
+     *
+     * @param response The response received from the server
+     * @param elapsedTime Milliseconds from sending the request until its response headers were received
+     * @param timings Timings the transfer and decoding of the body are added to
+     * @throws IOException If the response body could not be read
+     */
+    void readResponse(final HttpResponse response, final long elapsedTime, final RequestTimings timings) throws IOException {
+
+        final DecompressingEntity responseEntity = (null != response.getEntity()) ? new DecompressingEntity(response.getEntity()) : null;
+
+        /* Capture the elapsed time for this request */
+        this.responseTime = elapsedTime;
+
+        /* This will reset the response object each time the request is made */
+        this.response = new Response();
+
+        this.response.setElapsedTime(elapsedTime);
+        this.response.setTimings(timings);
+
+        /* The body is handed over decoded, so the headers describing the encoded body no longer apply */
+        if (null != responseEntity && responseEntity.isDecoding()) {
+            response.removeHeaders(HEADER_CONTENT_ENCODING);
+            response.removeHeaders(HEADER_CONTENT_LENGTH);
+            response.removeHeaders(HEADER_CONTENT_MD5);
+        }
+
+        /* Sets the status line and response headers */
+        this.response.setStatusLine(response.getStatusLine().toString());
+        this.response.setResponseHeaders(response.getAllHeaders());
+
+        if (null != responseEntity) {
+
+            this.response.setResponseCharset(getCharset(responseEntity));
+
+            if (streamingResponse) {
+
+                /* The connection is released once the caller closes the stream */
+                this.response.setResponseStream(responseEntity.getContent());
+                this.response.setResponseReleaseTrigger(responseEntity);
+
+            } else {
+
+                readBody(responseEntity);
+
+                /* Makes sure the connection is handed back to the pool for reuse */
+                EntityUtils.consume(responseEntity);
+
+                this.response.setCompressedBytes(responseEntity.getCompressedBytes());
+                this.response.setDecompressedBytes(responseEntity.getDecompressedBytes());
+
+                timings.add(Phase.TRANSFER, responseEntity.getTransferNanos());
+                timings.add(Phase.DECODE, responseEntity.getDecodeNanos());
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            debugRequest(response);
+        }
+    }
+
+    /**
+     * Reads the body into the response body handler, or into the response
+     *
+     * @param responseEntity
+     * @throws IOException If the connection failed while the body was read
+     * @throws ResponseBodyException If the body could not be decoded or the handler failed
+     */
+    private void readBody(final DecompressingEntity responseEntity) throws IOException {
+
+        FailureTrackingInputStream body = null;
+
+        try {
+
+            /* Decompression starts here, reading the gzip header */
+            body = new FailureTrackingInputStream(responseEntity.getContent());
+
+            if (null != responseBodyHandler) {
+                responseBodyHandler.handleResponseBody(this.response, body);
+            } else {
+                this.response.setResponseBody(StreamUtil.inputStreamToByteArray(body, responseEntity.getContentLength()),
+                        this.response.getResponseCharset());
+            }
+
+        } catch (IOException e) {
+
+            if (isBodyFailure(e, body)) {
+                throw newBodyFailure(e);
+            }
+
+            throw e;
+
+        } catch (HibiscusException e) {
+
+            /* StreamUtil reports the errors of the stream wrapped */
+            if (e instanceof ResponseBodyException || !(e.getCause() instanceof IOException)) {
+                throw e;
+            }
+
+            final IOException cause = (IOException) e.getCause();
+
+            if (isBodyFailure(cause, body)) {
+                throw newBodyFailure(cause);
+            }
+
+            throw cause;
+        }
+    }
+
+    /**
+     * Whether an error raised while the body was read came from decoding or from the handler rather than from the connection
+     *
+     * Only failures of the connection itself are worth retrying
+     *
+     * @param e
+     * @param body The body stream, or null if it could not be opened
+     * @return
+     */
+    private static boolean isBodyFailure(final IOException e, final FailureTrackingInputStream body) {
+        return e instanceof ZipException || (null != body && e != body.getFailure());
+    }
+
+    private ResponseBodyException newBodyFailure(final IOException e) {
+        return new ResponseBodyException("Unable to read the body of the response to " + httpRequest.getRequestLine(), e);
+    }
+
+    /**
+     * Records the outcome of an attempt with its circuit breaker and load balancer endpoint
+     *
+     * Attempts that failed because they were aborted on purpose are not counted as failures
+     *
+     * @param circuitBreakerRegistry
+     * @param circuitBreaker The circuit breaker of the upstream, may be null
+     * @param loadBalancer
+     * @param endpoint The endpoint chosen by the load balancer, may be null
+     * @param statusCode The response status, or -1 if the attempt failed without a response
+     * @param elapsedNanos
+     */
+    private void recordOutcome(final CircuitBreakerRegistry circuitBreakerRegistry, final CircuitBreaker circuitBreaker,
+            final LoadBalancer loadBalancer, final Endpoint endpoint, final int statusCode, final long elapsedNanos) {
+
+        final boolean abandoned = statusCode < 0 && aborted;
+
+        if (null != circuitBreaker) {
+
+            if (abandoned) {
+                circuitBreaker.release();
+            } else {
+                circuitBreaker.record(statusCode < 0 || circuitBreakerRegistry.isFailureStatus(statusCode), elapsedNanos);
+            }
+        }
+
+        if (null != endpoint) {
+
+            if (abandoned) {
+                loadBalancer.release(endpoint);
+            } else {
+                loadBalancer.complete(endpoint, statusCode < 0 || loadBalancer.isFailureStatus(statusCode), elapsedNanos);
+            }
+        }
+    }
+
+    /**
+     * Returns the charset declared in the Content-Type of the entity
+     *
+     * Falls back to the encoding of the request if none or an unsupported one is declared
+     *
+     * @param entity
+     * @return
+     */
+    private Charset getCharset(final HttpEntity entity) {
+
+        try {
+
+            final ContentType contentType = ContentType.get(entity);
+
+            if (null != contentType && null != contentType.getCharset()) {
+                return contentType.getCharset();
+            }
+
+        } catch (ParseException e) {
+            log.debug("Unable to parse the response Content-Type", e);
+        } catch (UnsupportedCharsetException e) {
+            log.debug("Unsupported response charset", e);
         }
+
+        return Charset.forName(request.getEncoding());
+    }
+
+    /**
+     * Returns the host of the request, with the port if one was specified in the URL
+     *
+     * @return
+     */
+    private String getHost() {
+
+        final URI uri = httpRequest.getURI();
+
+        return (uri.getPort() == -1) ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
     }
 
     private void debugRequest(final HttpResponse resp) {
@@ -169,8 +787,8 @@ public abstract class HttpWorkerAbstract {
         }
 
         /* Logs the contents of any enclosing entity sent with the request */
-        if (httpRequest instanceof HttpEntityEnclosingRequestBase && null != httpClient.getRequestBody()) {
-            log.debug(httpClient.getRequestBody());
+        if (httpRequest instanceof HttpEntityEnclosingRequestBase && null != request.getRequestBody()) {
+            log.debug(request.getRequestBody());
         }
 
         /* Logs the status line of the response */
@@ -204,20 +822,33 @@ public abstract class HttpWorkerAbstract {
      * @return
      */
     public static HttpWorkerAbstract getWorkerStrategy(final String requestMethod, final HttpClient client) {
+        return getWorkerStrategy(client.toRequest().toBuilder().setRequestMethod(requestMethod).build(), client.getTransport());
+    }
+
+    /**
+     * Returns an instance of a HTTP Worker based on the method of the request
+     *
+     * @param request The request to send
+     * @param transport The transport used to send the request
+     * @return
+     */
+    public static HttpWorkerAbstract getWorkerStrategy(final Request request, final HttpTransport transport) {
+
+        final String requestMethod = request.getRequestMethod();
 
         if (requestMethod.equals(HEAD)) {
-            return new HttpWorkerHead(client);
+            return new HttpWorkerHead(request, transport);
         } else if (requestMethod.equals(GET)) {
-            return new HttpWorkerGet(client);
+            return new HttpWorkerGet(request, transport);
         } else if (requestMethod.equals(POST)) {
-            return new HttpWorkerPost(client);
+            return new HttpWorkerPost(request, transport);
         } else if (requestMethod.equals(PUT)) {
-            return new HttpWorkerPut(client);
+            return new HttpWorkerPut(request, transport);
         } else if (requestMethod.equals(DELETE)) {
-            return new HttpWorkerDelete(client);
+            return new HttpWorkerDelete(request, transport);
         }
 
-        return new HttpWorkerGet(client);
+        return new HttpWorkerGet(request, transport);
     }
 
     /**
@@ -228,4 +859,53 @@ public abstract class HttpWorkerAbstract {
     public long getResponseTime() {
         return responseTime;
     }
+
+    /**
+     * Remembers the last error raised by the stream, so that it can be told apart from errors raised by its reader
+     */
+    private static final class FailureTrackingInputStream extends FilterInputStream {
+
+        private IOException failure = null;
+
+        FailureTrackingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        IOException getFailure() {
+            return failure;
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            try {
+                return in.read();
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+
+            try {
+                return in.read(b, off, len);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+
+            try {
+                return in.skip(n);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+    }
 }
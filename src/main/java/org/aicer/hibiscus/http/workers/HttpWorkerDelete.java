@@ -17,7 +17,8 @@
  */
 package org.aicer.hibiscus.http.workers;
 
-import org.aicer.hibiscus.http.client.HttpClient;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
 import org.apache.http.client.methods.HttpDelete;
 
 
@@ -30,7 +31,7 @@ import org.apache.http.client.methods.HttpDelete;
  */
 final class HttpWorkerDelete extends HttpNonEntityEnclosingRequestWorker {
 
-    public HttpWorkerDelete(HttpClient client) {
-        super(client, new HttpDelete());
+    public HttpWorkerDelete(Request request, HttpTransport transport) {
+        super(request, transport, new HttpDelete());
     }
 }
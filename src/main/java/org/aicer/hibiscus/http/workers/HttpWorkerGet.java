@@ -17,7 +17,8 @@
  */
 package org.aicer.hibiscus.http.workers;
 
-import org.aicer.hibiscus.http.client.HttpClient;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
 import org.apache.http.client.methods.HttpGet;
 
 
@@ -30,7 +31,7 @@ import org.apache.http.client.methods.HttpGet;
  */
 final class HttpWorkerGet extends HttpNonEntityEnclosingRequestWorker {
 
-    public HttpWorkerGet(HttpClient client) {
-        super(client, new HttpGet());
+    public HttpWorkerGet(Request request, HttpTransport transport) {
+        super(request, transport, new HttpGet());
     }
 }
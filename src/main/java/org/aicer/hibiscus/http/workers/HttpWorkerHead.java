@@ -17,7 +17,8 @@
  */
 package org.aicer.hibiscus.http.workers;
 
-import org.aicer.hibiscus.http.client.HttpClient;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
 import org.apache.http.client.methods.HttpHead;
 
 
@@ -30,7 +31,7 @@ import org.apache.http.client.methods.HttpHead;
  */
 final class HttpWorkerHead extends HttpNonEntityEnclosingRequestWorker {
 
-    public HttpWorkerHead(HttpClient client) {
-        super(client, new HttpHead());
+    public HttpWorkerHead(Request request, HttpTransport transport) {
+        super(request, transport, new HttpHead());
     }
 }
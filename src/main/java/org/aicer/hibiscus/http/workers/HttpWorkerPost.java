@@ -17,7 +17,8 @@
  */
 package org.aicer.hibiscus.http.workers;
 
-import org.aicer.hibiscus.http.client.HttpClient;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
 import org.apache.http.client.methods.HttpPost;
 
 
@@ -30,7 +31,7 @@ import org.apache.http.client.methods.HttpPost;
  */
 final class HttpWorkerPost extends HttpEntityEnclosingRequestWorker {
 
-    public HttpWorkerPost(HttpClient client) {
-        super(client, new HttpPost());
+    public HttpWorkerPost(Request request, HttpTransport transport) {
+        super(request, transport, new HttpPost());
     }
 }
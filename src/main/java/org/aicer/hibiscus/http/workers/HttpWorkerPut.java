@@ -17,7 +17,8 @@
  */
 package org.aicer.hibiscus.http.workers;
 
-import org.aicer.hibiscus.http.client.HttpClient;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
 import org.apache.http.client.methods.HttpPut;
 
 
@@ -29,7 +30,7 @@ import org.apache.http.client.methods.HttpPut;
  */
 class HttpWorkerPut extends HttpEntityEnclosingRequestWorker {
 
-    public HttpWorkerPut(HttpClient client) {
-        super(client, new HttpPut());
+    public HttpWorkerPut(Request request, HttpTransport transport) {
+        super(request, transport, new HttpPut());
     }
 }
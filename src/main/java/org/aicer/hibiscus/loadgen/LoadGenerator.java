@@ -0,0 +1,491 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.loadgen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
+import org.aicer.hibiscus.http.client.Response;
+import org.aicer.hibiscus.http.metrics.LatencyHistogram;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Drives a fixed request against a service and measures throughput, errors and latency
+ *
+ * In closed-loop mode a number of simulated users each send the next request as soon as the
+ * previous one completes. In open-loop mode requests are started at a fixed rate regardless of
+ * how many are still outstanding, so a slow server builds up a backlog as it would in production.
+ *
+ * Latencies are corrected for coordinated omission. In open-loop mode each request is timed
+ * from the moment it was scheduled to start rather than from the moment it was actually sent.
+ * In closed-loop mode a response slower than the expected interval between requests also
+ * records the requests a user would have sent in the meantime, as HdrHistogram does. The
+ * expected interval defaults to the median latency observed during the warm-up.
+ *
+ * Requests sent during the warm-up are not included in the report.
+ *
+ */
+public class LoadGenerator {
+
+    private static final Logger log = Logger.getLogger(LoadGenerator.class);
+
+    /**
+     * How the load is applied
+     */
+    public enum Mode {
+
+        /** A fixed number of users sending requests back to back */
+        CLOSED_LOOP,
+
+        /** Requests started at a fixed rate */
+        OPEN_LOOP
+    }
+
+    private final HttpTransport transport;
+
+    private final Request request;
+
+    private Mode mode = Mode.CLOSED_LOOP;
+
+    private int users = 10;
+
+    private double requestRate = 100;
+
+    private long warmupMillis = 5000;
+
+    private long durationMillis = 30000;
+
+    private long drainMillis = 10000;
+
+    private long expectedIntervalNanos = -1;
+
+    public LoadGenerator(final HttpTransport transport, final Request request) {
+        this.transport = transport;
+        this.request = request;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public LoadGenerator setMode(final Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    /**
+     * Sets the number of concurrent users in closed-loop mode, or the maximum number of
+     * outstanding requests in open-loop mode
+     *
+     * @param users
+     * @return
+     */
+    public LoadGenerator setUsers(final int users) {
+        this.users = users;
+        return this;
+    }
+
+    public double getRequestRate() {
+        return requestRate;
+    }
+
+    /**
+     * Sets the number of requests started per second in open-loop mode
+     *
+     * @param requestRate
+     * @return
+     */
+    public LoadGenerator setRequestRate(final double requestRate) {
+        this.requestRate = requestRate;
+        return this;
+    }
+
+    public long getWarmupMillis() {
+        return warmupMillis;
+    }
+
+    public LoadGenerator setWarmupMillis(final long warmupMillis) {
+        this.warmupMillis = warmupMillis;
+        return this;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * Sets how long the measured part of the run lasts, excluding the warm-up
+     *
+     * @param durationMillis
+     * @return
+     */
+    public LoadGenerator setDurationMillis(final long durationMillis) {
+        this.durationMillis = durationMillis;
+        return this;
+    }
+
+    public long getDrainMillis() {
+        return drainMillis;
+    }
+
+    /**
+     * Sets how long outstanding requests are awaited once the run is over
+     *
+     * @param drainMillis
+     * @return
+     */
+    public LoadGenerator setDrainMillis(final long drainMillis) {
+        this.drainMillis = drainMillis;
+        return this;
+    }
+
+    public long getExpectedIntervalNanos() {
+        return expectedIntervalNanos;
+    }
+
+    /**
+     * Sets the interval at which each user is expected to send requests in closed-loop mode
+     *
+     * @param expectedIntervalNanos The interval or a negative value to use the median warm-up latency
+     * @return
+     */
+    public LoadGenerator setExpectedIntervalNanos(final long expectedIntervalNanos) {
+        this.expectedIntervalNanos = expectedIntervalNanos;
+        return this;
+    }
+
+    /**
+     * Runs the warm-up and the measured part of the run, blocking until both are over
+     *
+     * @return
+     * @throws HibiscusException If the settings are invalid or the run was interrupted
+     */
+    public LoadReport run() throws HibiscusException {
+
+        if (users < 1) {
+            throw new HibiscusException("The number of users must be at least 1");
+        }
+
+        if (mode == Mode.OPEN_LOOP && requestRate <= 0) {
+            throw new HibiscusException("The request rate must be positive in open-loop mode");
+        }
+
+        try {
+
+            if (mode == Mode.OPEN_LOOP) {
+                return runOpenLoop();
+            }
+
+            return runClosedLoop();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HibiscusException("The load generator was interrupted", e);
+        }
+    }
+
+    private LoadReport runClosedLoop() throws InterruptedException {
+
+        /* Users stopped at the end of the warm-up may still be blocked on a response, so they must not hold up the measured users */
+        final ExecutorService executor = Executors.newCachedThreadPool();
+
+        try {
+
+            final Recorder warmup = new Recorder(0);
+
+            if (warmupMillis > 0) {
+                runUsers(executor, warmup, warmupMillis);
+            }
+
+            long interval = expectedIntervalNanos;
+
+            if (interval < 0) {
+                interval = warmup.latencies.getValueAtPercentile(50);
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("Correcting closed-loop latencies with an expected interval of " + interval + "ns");
+            }
+
+            final Recorder measured = new Recorder(interval);
+            final long elapsed = runUsers(executor, measured, durationMillis);
+
+            return measured.toReport(mode, users, elapsed);
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs every user until the deadline and returns the elapsed time in nanoseconds
+     */
+    private long runUsers(final ExecutorService executor, final Recorder recorder, final long millis) throws InterruptedException {
+
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        for (int i = 0; i < users; i++) {
+
+            futures.add(executor.submit(new Runnable() {
+
+                public void run() {
+
+                    while (!Thread.currentThread().isInterrupted()) {
+
+                        final long sent = System.nanoTime();
+
+                        if (sent >= deadline) {
+                            return;
+                        }
+
+                        recorder.recordStart();
+
+                        send(recorder, sent);
+                    }
+                }
+            }));
+        }
+
+        final long drainDeadline = deadline + TimeUnit.MILLISECONDS.toNanos(drainMillis);
+        int outstanding = 0;
+
+        /* Requests still outstanding after the drain period are reported as incomplete */
+        for (final Future<?> future : futures) {
+
+            if (!await(future, drainDeadline - System.nanoTime())) {
+                future.cancel(true);
+                outstanding++;
+            }
+        }
+
+        if (outstanding > 0) {
+            log.warn(outstanding + " users were still waiting for a response when the run ended");
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private LoadReport runOpenLoop() throws InterruptedException {
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(users, users, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+
+        try {
+
+            final Recorder warmup = new Recorder(0);
+            final Recorder measured = new Recorder(0);
+            final long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestRate);
+            final long start = System.nanoTime();
+            final long measureStart = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+            final long deadline = measureStart + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+            for (long i = 0; ; i++) {
+
+                final long intended = start + i * periodNanos;
+
+                if (intended >= deadline) {
+                    break;
+                }
+
+                long delay = intended - System.nanoTime();
+
+                while (delay > 0) {
+
+                    LockSupport.parkNanos(delay);
+
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+
+                    delay = intended - System.nanoTime();
+                }
+
+                final Recorder recorder = (intended < measureStart) ? warmup : measured;
+
+                recorder.recordStart();
+
+                executor.execute(new Runnable() {
+
+                    public void run() {
+                        send(recorder, intended);
+                    }
+                });
+            }
+
+            executor.shutdown();
+
+            /* Requests still outstanding after the drain period are reported as incomplete */
+            if (!executor.awaitTermination(drainMillis, TimeUnit.MILLISECONDS)) {
+                log.warn(executor.getQueue().size() + " requests were still queued when the run ended");
+            }
+
+            /* Responses to a backlog that drained after the deadline extend the measured period */
+            return measured.toReport(mode, users, Math.max(deadline, measured.lastCompleted.get()) - measureStart);
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sends the request and records its latency from the time it was meant to start
+     *
+     * Failed requests are timed until they failed, so that timeouts show in the latencies
+     */
+    private void send(final Recorder recorder, final long intendedNanos) {
+
+        final long sent = System.nanoTime();
+
+        try {
+
+            final Response response = transport.execute(request);
+            final long completed = System.nanoTime();
+
+            recorder.record(completed - intendedNanos, completed - sent, response.getResponseCode());
+            recorder.recordCompletion(completed);
+
+        } catch (HibiscusException e) {
+
+            final long failed = System.nanoTime();
+
+            recorder.recordFailure(failed - intendedNanos, failed - sent);
+            recorder.recordCompletion(failed);
+
+            if (log.isDebugEnabled()) {
+                log.debug("Request failed", e);
+            }
+        }
+    }
+
+    /**
+     * Waits for a user to finish
+     *
+     * @param future
+     * @param timeoutNanos
+     * @return Whether the user finished in time
+     * @throws InterruptedException
+     */
+    private static boolean await(final Future<?> future, final long timeoutNanos) throws InterruptedException {
+
+        try {
+            future.get(Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            log.error("A load generator user failed", e.getCause());
+        } catch (TimeoutException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Collects the results of one phase of a run
+     */
+    private static final class Recorder {
+
+        private final long expectedIntervalNanos;
+
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        private final LatencyHistogram uncorrectedLatencies = new LatencyHistogram();
+
+        private final AtomicLong errorResponses = new AtomicLong(0);
+
+        private final AtomicLong responses = new AtomicLong(0);
+
+        private final AtomicLong failures = new AtomicLong(0);
+
+        private final AtomicLong started = new AtomicLong(0);
+
+        private final AtomicLong lastCompleted = new AtomicLong(Long.MIN_VALUE);
+
+        Recorder(final long expectedIntervalNanos) {
+            this.expectedIntervalNanos = expectedIntervalNanos;
+        }
+
+        void record(final long latencyNanos, final long uncorrectedLatencyNanos, final int responseCode) {
+
+            responses.incrementAndGet();
+
+            recordLatency(latencyNanos, uncorrectedLatencyNanos);
+
+            if (responseCode >= 400) {
+                errorResponses.incrementAndGet();
+            }
+        }
+
+        void recordFailure(final long latencyNanos, final long uncorrectedLatencyNanos) {
+
+            failures.incrementAndGet();
+
+            recordLatency(latencyNanos, uncorrectedLatencyNanos);
+        }
+
+        private void recordLatency(final long latencyNanos, final long uncorrectedLatencyNanos) {
+
+            uncorrectedLatencies.record(uncorrectedLatencyNanos);
+            latencies.record(latencyNanos);
+
+            /* Back-fills the requests that a stalled user would have sent */
+            if (expectedIntervalNanos > 0) {
+
+                for (long missed = latencyNanos - expectedIntervalNanos; missed >= expectedIntervalNanos; missed -= expectedIntervalNanos) {
+                    latencies.record(missed);
+                }
+            }
+        }
+
+        void recordStart() {
+            started.incrementAndGet();
+        }
+
+        void recordCompletion(final long completedNanos) {
+
+            long current = lastCompleted.get();
+
+            while ((current == Long.MIN_VALUE || completedNanos - current > 0) && !lastCompleted.compareAndSet(current, completedNanos)) {
+                current = lastCompleted.get();
+            }
+        }
+
+        LoadReport toReport(final Mode mode, final int users, final long elapsedNanos) {
+            return new LoadReport(mode, users, elapsedNanos, started.get(), responses.get(), errorResponses.get(),
+                    failures.get(), latencies, uncorrectedLatencies);
+        }
+    }
+}
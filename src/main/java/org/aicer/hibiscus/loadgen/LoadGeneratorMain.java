@@ -0,0 +1,150 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.loadgen;
+
+import java.io.IOException;
+
+import org.aicer.hibiscus.exception.HibiscusException;
+import org.aicer.hibiscus.http.client.HttpTransport;
+import org.aicer.hibiscus.http.client.Request;
+import org.aicer.hibiscus.loadgen.LoadGenerator.Mode;
+
+
+/**
+ * Command line entry point of the load generator
+ *
+ * Usage: LoadGeneratorMain [options]
+ *
+ * --url URL          Target URL, required unless --self-test is used
+ * --method METHOD    Request method, GET by default
+ * --body BODY        Request body for POST and PUT requests
+ * --header NAME:VAL  Adds a request header, may be repeated
+ * --mode MODE        closed or open, closed by default
+ * --users N          Concurrent users, or maximum outstanding requests in open mode, 10 by default
+ * --rate R           Requests per second in open mode, 100 by default
+ * --warmup S         Warm-up in seconds, 5 by default
+ * --duration S       Measured duration in seconds, 30 by default
+ * --self-test        Starts a local stand-in server and targets it, answering after 5 ms
+ *
+ */
+public class LoadGeneratorMain {
+
+    public static void main(final String[] args) throws IOException {
+
+        final Request.Builder request = new Request.Builder();
+
+        String url = null;
+        Mode mode = Mode.CLOSED_LOOP;
+        int users = 10;
+        double rate = 100;
+        long warmup = 5;
+        long duration = 30;
+        boolean selfTest = false;
+
+        try {
+
+            for (int i = 0; i < args.length; i++) {
+
+                final String option = args[i];
+
+                if (option.equals("--self-test")) {
+                    selfTest = true;
+                    continue;
+                }
+
+                if (i + 1 >= args.length) {
+                    usage("Missing value for " + option);
+                    return;
+                }
+
+                final String value = args[++i];
+
+                if (option.equals("--url")) {
+                    url = value;
+                } else if (option.equals("--method")) {
+                    request.setRequestMethod(value.toUpperCase());
+                } else if (option.equals("--body")) {
+                    request.setRequestBody(value);
+                } else if (option.equals("--header") && value.indexOf(':') > 0) {
+                    request.addHeader(value.substring(0, value.indexOf(':')).trim(), value.substring(value.indexOf(':') + 1).trim());
+                } else if (option.equals("--mode")) {
+                    mode = value.equalsIgnoreCase("open") ? Mode.OPEN_LOOP : Mode.CLOSED_LOOP;
+                } else if (option.equals("--users")) {
+                    users = Integer.parseInt(value);
+                } else if (option.equals("--rate")) {
+                    rate = Double.parseDouble(value);
+                } else if (option.equals("--warmup")) {
+                    warmup = Long.parseLong(value);
+                } else if (option.equals("--duration")) {
+                    duration = Long.parseLong(value);
+                } else {
+                    usage("Unknown option " + option);
+                    return;
+                }
+            }
+
+        } catch (NumberFormatException e) {
+            usage("Invalid number: " + e.getMessage());
+            return;
+        } catch (HibiscusException e) {
+            usage(e.getMessage());
+            return;
+        }
+
+        StandInServer server = null;
+
+        if (selfTest) {
+            server = new StandInServer(0);
+            url = server.getBaseUrl() + "/?delay=5";
+        }
+
+        if (null == url) {
+            usage("The --url option is required");
+            return;
+        }
+
+        final HttpTransport transport = new HttpTransport(Math.max(users, HttpTransport.DEFAULT_MAX_TOTAL_CONNECTIONS), users);
+
+        try {
+
+            final LoadGenerator generator = new LoadGenerator(transport, request.setRawUrl(url).build())
+                    .setMode(mode)
+                    .setUsers(users)
+                    .setRequestRate(rate)
+                    .setWarmupMillis(warmup * 1000)
+                    .setDurationMillis(duration * 1000);
+
+            System.out.println("Sending load to " + url);
+            System.out.println(generator.run());
+
+        } finally {
+
+            transport.close();
+
+            if (null != server) {
+                server.stop();
+            }
+        }
+    }
+
+    private static void usage(final String message) {
+        System.err.println(message);
+        System.err.println("Usage: LoadGeneratorMain [--url URL] [--method METHOD] [--body BODY] [--header NAME:VALUE]"
+                + " [--mode closed|open] [--users N] [--rate R] [--warmup S] [--duration S] [--self-test]");
+    }
+}
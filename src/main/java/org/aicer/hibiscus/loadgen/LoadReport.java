@@ -0,0 +1,196 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.loadgen;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.aicer.hibiscus.http.metrics.LatencyHistogram;
+import org.aicer.hibiscus.loadgen.LoadGenerator.Mode;
+
+
+/**
+ * Results of the measured part of a load generator run
+ *
+ */
+public class LoadReport {
+
+    private static final double[] REPORTED_PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final Mode mode;
+
+    private final int users;
+
+    private final long elapsedNanos;
+
+    private final long requestCount;
+
+    private final long responseCount;
+
+    private final long errorResponseCount;
+
+    private final long failureCount;
+
+    private final LatencyHistogram latencies;
+
+    private final LatencyHistogram uncorrectedLatencies;
+
+    public LoadReport(final Mode mode, final int users, final long elapsedNanos, final long requestCount, final long responseCount,
+            final long errorResponseCount, final long failureCount, final LatencyHistogram latencies,
+            final LatencyHistogram uncorrectedLatencies) {
+
+        this.mode = mode;
+        this.users = users;
+        this.elapsedNanos = elapsedNanos;
+        this.requestCount = requestCount;
+        this.responseCount = responseCount;
+        this.errorResponseCount = errorResponseCount;
+        this.failureCount = failureCount;
+        this.latencies = latencies;
+        this.uncorrectedLatencies = uncorrectedLatencies;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the number of requests that received a response, whatever its status
+     *
+     * @return
+     */
+    public long getResponseCount() {
+        return responseCount;
+    }
+
+    /**
+     * Returns the number of responses with a 4xx or 5xx status
+     *
+     * @return
+     */
+    public long getErrorResponseCount() {
+        return errorResponseCount;
+    }
+
+    /**
+     * Returns the number of requests that failed without a response
+     *
+     * @return
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Returns the number of requests started during the measured part of the run
+     *
+     * @return
+     */
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Returns the number of requests that had neither completed nor failed when the run ended
+     *
+     * Open-loop runs leave requests incomplete when the server could not keep up with the rate,
+     * closed-loop runs when users were still waiting for a response after the drain period
+     *
+     * @return
+     */
+    public long getIncompleteCount() {
+        return Math.max(0, requestCount - responseCount - failureCount);
+    }
+
+    /**
+     * Returns the number of responses received per second
+     *
+     * @return
+     */
+    public double getThroughput() {
+        return (elapsedNanos <= 0) ? 0 : responseCount * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Returns the fraction of requests that failed, were left incomplete or received an error response
+     *
+     * @return Between 0 and 1
+     */
+    public double getErrorRate() {
+        return (requestCount == 0) ? 0 : (errorResponseCount + failureCount + getIncompleteCount()) / (double) requestCount;
+    }
+
+    /**
+     * Returns the latencies corrected for coordinated omission
+     *
+     * Failed requests are included, timed until they failed.
+     *
+     * @return
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Returns the latencies as measured from the moment each request was actually sent
+     *
+     * Comparing them with the corrected latencies shows how much queuing delay an ad-hoc
+     * measurement would have hidden.
+     *
+     * @return
+     */
+    public LatencyHistogram getUncorrectedLatencies() {
+        return uncorrectedLatencies;
+    }
+
+    @Override
+    public String toString() {
+
+        final StringBuilder report = new StringBuilder();
+
+        report.append(String.format(Locale.ENGLISH, "Mode:          %s, %d users%n", mode, users));
+        report.append(String.format(Locale.ENGLISH, "Duration:      %.1f s%n", elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1)));
+        report.append(String.format(Locale.ENGLISH, "Requests:      %d (%d error responses, %d failures, %d incomplete)%n",
+                requestCount, errorResponseCount, failureCount, getIncompleteCount()));
+        report.append(String.format(Locale.ENGLISH, "Throughput:    %.1f req/s%n", getThroughput()));
+        report.append(String.format(Locale.ENGLISH, "Error rate:    %.3f %%%n", getErrorRate() * 100));
+        report.append(String.format(Locale.ENGLISH, "%-14s %12s %12s%n", "Latency (ms)", "corrected", "uncorrected"));
+
+        for (final double percentile : REPORTED_PERCENTILES) {
+            report.append(String.format(Locale.ENGLISH, "  p%-11s %12.3f %12.3f%n", formatPercentile(percentile),
+                    latencies.getMillisAtPercentile(percentile), uncorrectedLatencies.getMillisAtPercentile(percentile)));
+        }
+
+        report.append(String.format(Locale.ENGLISH, "  %-12s %12.3f %12.3f%n", "max", latencies.getMax() / 1000000.0,
+                uncorrectedLatencies.getMax() / 1000000.0));
+
+        return report.toString();
+    }
+
+    private static String formatPercentile(final double percentile) {
+        return (percentile == Math.floor(percentile)) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+}
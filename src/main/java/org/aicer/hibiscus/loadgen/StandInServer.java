@@ -0,0 +1,172 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.loadgen;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * Local HTTP server standing in for a real service when testing the load generator
+ *
+ * Every path is answered according to the query parameters of the request:
+ *
+ * delay: milliseconds to wait before responding, 0 by default
+ * size: number of body bytes to return, 64 by default
+ * status: status code of the response, 200 by default
+ * errorRate: fraction of requests answered with 500 instead, 0 by default
+ *
+ */
+public class StandInServer {
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final Random random = new Random();
+
+    /**
+     * Starts the server on the loopback interface
+     *
+     * @param port The port to listen on, or 0 for an ephemeral port
+     * @throws IOException
+     */
+    public StandInServer(final int port) throws IOException {
+
+        // Without TCP_NODELAY small responses are delayed by the interaction of Nagle's algorithm and delayed ACKs
+        if (null == System.getProperty("sun.net.httpserver.nodelay")) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 1024);
+        executor = Executors.newCachedThreadPool();
+
+        server.createContext("/", new StandInHandler());
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Returns the base URL of the server, without a trailing slash
+     *
+     * @return
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static Map<String, String> getParameters(final String query) {
+
+        final Map<String, String> parameters = new HashMap<String, String>();
+
+        if (null == query) {
+            return parameters;
+        }
+
+        for (final String pair : query.split("&")) {
+
+            final int separator = pair.indexOf('=');
+
+            if (separator > 0) {
+                parameters.put(pair.substring(0, separator), pair.substring(separator + 1));
+            }
+        }
+
+        return parameters;
+    }
+
+    private static long getLong(final Map<String, String> parameters, final String name, final long defaultValue) {
+
+        try {
+            return parameters.containsKey(name) ? Long.parseLong(parameters.get(name)) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private final class StandInHandler implements HttpHandler {
+
+        public void handle(final HttpExchange exchange) throws IOException {
+
+            final Map<String, String> parameters = getParameters(exchange.getRequestURI().getRawQuery());
+            final long delay = getLong(parameters, "delay", 0);
+            final int size = (int) getLong(parameters, "size", 64);
+
+            int status = (int) getLong(parameters, "status", 200);
+
+            if (parameters.containsKey("errorRate")) {
+
+                final double errorRate = Double.parseDouble(parameters.get("errorRate"));
+                final double draw;
+
+                synchronized (random) {
+                    draw = random.nextDouble();
+                }
+
+                if (draw < errorRate) {
+                    status = 500;
+                }
+            }
+
+            final InputStream in = exchange.getRequestBody();
+
+            while (in.read() != -1) {
+                /* Drains the request so that the connection can be reused */
+            }
+
+            if (delay > 0) {
+
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            final byte[] body = new byte[Math.max(size, 0)];
+
+            Arrays.fill(body, (byte) 'x');
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(status, (body.length == 0) ? -1 : body.length);
+
+            final OutputStream out = exchange.getResponseBody();
+
+            out.write(body);
+            out.close();
+        }
+    }
+}
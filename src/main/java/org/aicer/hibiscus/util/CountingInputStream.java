@@ -0,0 +1,84 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Input stream that keeps track of how many bytes have been read through it
+ *
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private long count = 0;
+
+    public CountingInputStream(final InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Returns the number of bytes read so far
+     *
+     * @return
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        final int result = in.read();
+
+        if (result != -1) {
+            count++;
+        }
+
+        return result;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+
+        final int result = in.read(bytes, offset, length);
+
+        if (result > 0) {
+            count += result;
+        }
+
+        return result;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+
+        final long result = in.skip(n);
+
+        count += result;
+
+        return result;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -22,6 +22,13 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
 
 import org.aicer.hibiscus.exception.HibiscusException;
 
@@ -29,6 +36,15 @@ public abstract class StreamUtil {
 
     public static final String NEWLINE = "\n";
 
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    /**
+     * Largest array size that virtual machines reliably allocate
+     */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
     public static final String inputStreamToString(final InputStream stream) throws HibiscusException {
 
         final DataInputStream in = new DataInputStream(stream);
@@ -86,4 +102,103 @@ public abstract class StreamUtil {
 
         return builder.toString();
     }
+
+    /**
+     * Reads the input stream fully into a byte array
+     *
+     * @param stream
+     * @param sizeHint Expected number of bytes or a negative value if unknown
+     * @return The bytes read or null if the stream is null
+     * @throws HibiscusException If the stream fails or holds more bytes than an array can
+     */
+    public static final byte[] inputStreamToByteArray(final InputStream stream, final long sizeHint) throws HibiscusException {
+
+        if (null == stream) {
+            return null;
+        }
+
+        int capacity = DEFAULT_BUFFER_SIZE;
+
+        if (sizeHint >= 0 && sizeHint <= MAX_ARRAY_LENGTH) {
+            capacity = (int) sizeHint;
+        }
+
+        byte[] buffer = new byte[capacity];
+        int length = 0;
+
+        try {
+
+            while (true) {
+
+                if (length == buffer.length) {
+
+                    /* A single byte tells whether the stream ended exactly at the size hint, without growing the buffer */
+                    final int next = stream.read();
+
+                    if (next == -1) {
+                        break;
+                    }
+
+                    if (buffer.length == MAX_ARRAY_LENGTH) {
+                        throw new HibiscusException("The stream holds more than " + MAX_ARRAY_LENGTH + " bytes");
+                    }
+
+                    buffer = Arrays.copyOf(buffer, Math.max(DEFAULT_BUFFER_SIZE, (int) Math.min(2L * buffer.length, MAX_ARRAY_LENGTH)));
+                    buffer[length++] = (byte) next;
+                }
+
+                final int count = stream.read(buffer, length, buffer.length - length);
+
+                if (count == -1) {
+                    break;
+                }
+
+                length += count;
+            }
+
+        } catch (IOException e) {
+            throw new HibiscusException(e);
+        }
+
+        if (length == 0) {
+            return EMPTY_BYTES;
+        }
+
+        return (length == buffer.length) ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Decodes the bytes into a String in a single pass
+     *
+     * Malformed or unmappable input is replaced rather than rejected
+     *
+     * @param bytes
+     * @param charset
+     * @return The decoded String or null if the bytes are null
+     * @throws HibiscusException
+     */
+    public static final String decode(final byte[] bytes, final Charset charset) throws HibiscusException {
+
+        if (null == bytes) {
+            return null;
+        }
+
+        if (bytes.length == 0) {
+            return "";
+        }
+
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        try {
+
+            final CharBuffer chars = decoder.decode(ByteBuffer.wrap(bytes));
+
+            return chars.toString();
+
+        } catch (CharacterCodingException e) {
+            throw new HibiscusException(e);
+        }
+    }
 }
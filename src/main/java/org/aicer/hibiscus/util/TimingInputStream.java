@@ -0,0 +1,81 @@
+/**
+ * Copyright 2012-2013 American Institute for Computing Education and Research Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *
+ * You may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.aicer.hibiscus.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Input stream that keeps track of the time spent in reads from the underlying stream
+ *
+ */
+public class TimingInputStream extends FilterInputStream {
+
+    private long nanos = 0;
+
+    public TimingInputStream(final InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Returns the time spent reading so far, in nanoseconds
+     *
+     * @return
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        final long start = System.nanoTime();
+
+        try {
+            return in.read();
+        } finally {
+            nanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+
+        final long start = System.nanoTime();
+
+        try {
+            return in.read(bytes, offset, length);
+        } finally {
+            nanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+
+        final long start = System.nanoTime();
+
+        try {
+            return in.skip(n);
+        } finally {
+            nanos += System.nanoTime() - start;
+        }
+    }
+}